@@ -0,0 +1,91 @@
+package se.phaseshift.hadoop.climate.daily.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+// JSON parser
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// AVRO
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+
+// ETL
+import se.phaseshift.hadoop.climate.daily.JsonlDailyDecoder;
+import se.phaseshift.hadoop.climate.daily.JsonlDailyObservation;
+
+// Benchmarking
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Build stage: GenericRecordBuilder fed from a parsed tree (String id, new boxes) versus fed
+ * from a decoded observation (reused Utf8 id, cached boxes). Only valid lines are built.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JsonlDailyBuildBenchmark extends JsonlDailyFixture {
+    private GenericRecordBuilder recordBuilder = null;
+    private JsonNode[] nodes = null;
+    private JsonlDailyObservation[] observations = null;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws Exception {
+	this.loadFixture();
+
+	this.recordBuilder = new GenericRecordBuilder(new Schema.Parser().parse(this.outputSchemaString));
+
+	ObjectMapper objectMapper = new ObjectMapper();
+	JsonlDailyDecoder decoder = new JsonlDailyDecoder();
+	int[] valid = this.convertibleLines();
+
+	this.nodes = new JsonNode[valid.length];
+	this.observations = new JsonlDailyObservation[valid.length];
+	for(int index = 0; index < valid.length; index++) {
+	    this.nodes[index] = objectMapper.readTree(this.lines[valid[index]]);
+	    this.observations[index] = new JsonlDailyObservation();
+	    decoder.decode(this.bytes[valid[index]], 0, this.bytes[valid[index]].length, this.observations[index]);
+	}
+    }
+
+    @Benchmark
+    public GenericRecord tree() {
+	JsonNode jsonNode = this.nodes[this.nextValid()];
+
+	this.recordBuilder.set("id"   , jsonNode.get("id").asText());
+	this.recordBuilder.set("year" , new Integer(jsonNode.get("year").asInt()));
+	this.recordBuilder.set("month", new Integer(jsonNode.get("month").asInt()));
+	this.recordBuilder.set("day"  , new Integer(jsonNode.get("day").asInt()));
+	this.recordBuilder.set("value", new Float(jsonNode.get("value").asDouble()));
+
+	return this.recordBuilder.build();
+    }
+
+    @Benchmark
+    public GenericRecord streaming() {
+	JsonlDailyObservation observation = this.observations[this.nextValid()];
+
+	this.recordBuilder.set("id"   , observation.getIdUtf8());
+	this.recordBuilder.set("year" , JsonlDailyObservation.box(observation.getYear()));
+	this.recordBuilder.set("month", JsonlDailyObservation.box(observation.getMonth()));
+	this.recordBuilder.set("day"  , JsonlDailyObservation.box(observation.getDay()));
+	this.recordBuilder.set("value", Float.valueOf(observation.getValue()));
+
+	return this.recordBuilder.build();
+    }
+
+    private int nextValid() {
+	int index = this.next;
+	this.next = (index + 1 == this.nodes.length) ? 0 : index + 1;
+
+	return index;
+    }
+}
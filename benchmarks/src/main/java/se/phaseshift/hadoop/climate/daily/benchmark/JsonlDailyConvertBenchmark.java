@@ -0,0 +1,56 @@
+package se.phaseshift.hadoop.climate.daily.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+// AVRO
+import org.apache.avro.generic.GenericRecord;
+
+// ETL
+import se.phaseshift.hadoop.climate.daily.JsonlDailyConverter;
+
+// Benchmarking
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Whole per line path of JsonlDailyETLMapper (parse, validate and build) through the
+ * JsonlDailyConverter, for every decoder and validation engine combination.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JsonlDailyConvertBenchmark extends JsonlDailyFixture {
+    @Param({ "streaming", "tree" })
+    public String decoder;
+
+    @Param({ "compiled", "fge" })
+    public String engine;
+
+    private JsonlDailyConverter converter = null;
+
+    @Setup
+    public void setup() throws Exception {
+	this.loadFixture();
+
+	this.converter = new JsonlDailyConverter(this.inputSchemaString, this.outputSchemaString, this.engine, this.decoder);
+    }
+
+    @Benchmark
+    public GenericRecord convert() {
+	byte[] line = this.bytes[this.nextIndex()];
+
+	try {
+	    return this.converter.convert(line, line.length);
+	}
+	catch(Exception e) {
+	    // Parsing and validation errors are counted by the mapper, nothing else to do
+	    return null;
+	}
+    }
+}
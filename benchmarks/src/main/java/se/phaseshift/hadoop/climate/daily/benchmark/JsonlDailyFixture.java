@@ -0,0 +1,113 @@
+package se.phaseshift.hadoop.climate.daily.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// ETL
+import se.phaseshift.hadoop.climate.daily.JsonlDailyConverter;
+import se.phaseshift.hadoop.climate.daily.JsonlDailyValidator;
+
+// Benchmarking
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Base state of the benchmarks: JSON line fixture loaded from the samples directory.
+ *
+ * Benchmarks consume one line per invocation, cycling through the whole file, so the clean
+ * sample measures the happy path and the error sample the mix of parse and validation failures.
+ * The repository root is taken from the climate.daily.benchmark.root system property and
+ * defaults to the working directory.
+ */
+public abstract class JsonlDailyFixture {
+    @Param({ "ghcnd-daily-10000.jsonl", "ghcnd-daily-error.jsonl" })
+    public String fixture;
+
+    public String inputSchemaString;
+    public String outputSchemaString;
+    public String[] lines;
+    public byte[][] bytes;
+
+    private int next = 0;
+
+    protected void loadFixture() throws IOException {
+	File root = new File(System.getProperty("climate.daily.benchmark.root", "."));
+
+	this.inputSchemaString = readFile(new File(root, "schemas/ghcnd-daily.jsons"));
+	this.outputSchemaString = readFile(new File(root, "schemas/ghcnd-daily.avsc"));
+
+	List<String> fixtureLines = readLines(new File(root, "samples/" + this.fixture));
+	this.lines = fixtureLines.toArray(new String[fixtureLines.size()]);
+	this.bytes = new byte[this.lines.length][];
+	for(int index = 0; index < this.lines.length; index++) {
+	    this.bytes[index] = this.lines[index].getBytes(StandardCharsets.UTF_8);
+	}
+    }
+
+    /* Index of the line used by the next invocation */
+    public int nextIndex() {
+	int index = this.next;
+	this.next = (index + 1 == this.lines.length) ? 0 : index + 1;
+
+	return index;
+    }
+
+    /* Indexes of the lines parsing and validating, stages after validation only see those */
+    protected int[] convertibleLines() throws Exception {
+	JsonlDailyConverter converter = new JsonlDailyConverter(this.inputSchemaString,
+								this.outputSchemaString,
+								JsonlDailyValidator.ENGINE_COMPILED,
+								JsonlDailyConverter.DECODER_STREAMING);
+	List<Integer> convertible = new ArrayList<Integer>();
+
+	for(int index = 0; index < this.bytes.length; index++) {
+	    try {
+		converter.convert(this.bytes[index], this.bytes[index].length);
+		convertible.add(index);
+	    }
+	    catch(Exception e) {
+		// Parsing or validation error
+	    }
+	}
+
+	if(convertible.isEmpty()) {
+	    throw new IllegalStateException("No valid lines in " + this.fixture);
+	}
+
+	int[] indexes = new int[convertible.size()];
+	for(int index = 0; index < indexes.length; index++) { indexes[index] = convertible.get(index); }
+
+	return indexes;
+    }
+
+    private static String readFile(File file) throws IOException {
+	StringBuilder buffer = new StringBuilder(8192);
+	for(String line : readLines(file)) { buffer.append(line); }
+
+	return buffer.toString();
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+	List<String> lines = new ArrayList<String>();
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+
+	try {
+	    String line = null;
+	    while((line = reader.readLine()) != null) {
+		if(!line.isEmpty()) { lines.add(line); }
+	    }
+	}
+	finally {
+	    reader.close();
+	}
+
+	return lines;
+    }
+}
@@ -0,0 +1,299 @@
+package se.phaseshift.hadoop.climate.daily.benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Deterministic generator of synthetic GHCND daily JSON lines, for throughput runs at sizes the
+ * fixtures in samples/ do not reach.
+ *
+ * Lines come in blocks of one station month, as in the extracts, with a seasonal temperature
+ * around the climate of the station. Stations are drawn with a Zipf distribution and years with
+ * weights growing towards the last year, both of exponent skew (0 is uniform), so some stations
+ * and recent years dominate like in the real data. A share of error rate lines is broken in one
+ * of the ways the ETL rejects: malformed JSON, wrong type, missing field, illegal value, year
+ * before 1900 or month out of range.
+ *
+ * The same seed and settings give the same file. Next to the data a GHCND stations file of the
+ * generated stations is written (.stations.txt) for enriched runs, and the line counts (.stats).
+ *
+ * Usage: JsonlDailyGenerator [-D options] output size, size in bytes or with a k, m or g suffix.
+ */
+public class JsonlDailyGenerator extends Configured implements Tool {
+    public static final String SEED_KEY       = "climate.daily.generator.seed";
+    public static final String STATIONS_KEY   = "climate.daily.generator.stations";
+    public static final String FIRST_YEAR_KEY = "climate.daily.generator.year.first";
+    public static final String LAST_YEAR_KEY  = "climate.daily.generator.year.last";
+    public static final String ERROR_RATE_KEY = "climate.daily.generator.error.rate";
+    public static final String SKEW_KEY       = "climate.daily.generator.skew";
+
+    public static final String STATIONS_SUFFIX = ".stations.txt";
+    public static final String STATS_SUFFIX    = ".stats";
+
+    private static final String[] COUNTRIES = { "US", "CA", "UP", "RS", "AS", "BR", "CH", "GM", "FR", "SW", "JA", "IN", "MX", "SF", "UK" };
+    private static final char[] NETWORKS = { 'W', 'C', 'M', '1', '0', 'E' };
+    private static final int[] MONTH_DAYS = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+    private static final int ERROR_KINDS = 6;
+
+    private long seed = 42L;
+    private int stations = 20000;
+    private int firstYear = 1950;
+    private int lastYear = 2015;
+    private double errorRate = 0.01;
+    private double skew = 1.0;
+
+    private long lines = 0L;
+    private long errorLines = 0L;
+
+    public static void main(String[] args) throws Exception {
+	if(args.length >= 2) {
+	    int res = ToolRunner.run(new Configuration(), new JsonlDailyGenerator(), args);
+	    System.exit(res);
+	} else {
+	    System.err.println("Usage: JsonlDailyGenerator [-D options] output size");
+	    System.exit(1);
+	}
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+	Path outputPath = new Path(args[0]);
+	long size = parseSize(args[1]);
+
+	this.configure(this.getConf());
+	this.generate(outputPath.getFileSystem(this.getConf()), outputPath, size);
+
+	System.out.printf("Generated %d lines (%d errors) into %s\n", this.lines, this.errorLines, outputPath);
+	return 0;
+    }
+
+    public void configure(Configuration conf) {
+	this.seed = conf.getLong(SEED_KEY, this.seed);
+	this.stations = Math.max(1, conf.getInt(STATIONS_KEY, this.stations));
+	this.firstYear = conf.getInt(FIRST_YEAR_KEY, this.firstYear);
+	this.lastYear = Math.max(this.firstYear, conf.getInt(LAST_YEAR_KEY, this.lastYear));
+	this.errorRate = conf.getFloat(ERROR_RATE_KEY, (float) this.errorRate);
+	this.skew = conf.getFloat(SKEW_KEY, (float) this.skew);
+    }
+
+    /* Settings of the data, files generated with the same settings are identical */
+    public String describe() {
+	return String.format(Locale.ROOT, "seed=%d stations=%d years=%d-%d errors=%.4f skew=%.2f",
+			     this.seed, this.stations, this.firstYear, this.lastYear, this.errorRate, this.skew);
+    }
+
+    public long getLines() {
+	return this.lines;
+    }
+
+    public long getErrorLines() {
+	return this.errorLines;
+    }
+
+    /* Writes at least size bytes of lines (whole station months) and the side files */
+    public void generate(FileSystem fs, Path outputPath, long size) throws IOException {
+	Random random = new Random(this.seed);
+
+	// Station climates, drawn first so that they do not depend on the size
+	String[] ids = new String[this.stations];
+	float[] latitudes = new float[this.stations];
+	float[] longitudes = new float[this.stations];
+	float[] elevations = new float[this.stations];
+	for(int station = 0; station < this.stations; station++) {
+	    ids[station] = String.format(Locale.ROOT, "%s%c%08d",
+					 COUNTRIES[random.nextInt(COUNTRIES.length)],
+					 NETWORKS[random.nextInt(NETWORKS.length)],
+					 random.nextInt(100000000));
+	    latitudes[station] = (float) (random.nextDouble() * 140.0 - 60.0);
+	    longitudes[station] = (float) (random.nextDouble() * 360.0 - 180.0);
+	    elevations[station] = (float) (random.nextDouble() * 3000.0);
+	}
+
+	double[] stationWeights = new double[this.stations];
+	for(int station = 0; station < this.stations; station++) { stationWeights[station] = 1.0 / Math.pow(station + 1, this.skew); }
+
+	double[] yearWeights = new double[this.lastYear - this.firstYear + 1];
+	for(int year = 0; year < yearWeights.length; year++) { yearWeights[year] = Math.pow(year + 1, this.skew); }
+
+	double[] stationCumulative = cumulative(stationWeights);
+	double[] yearCumulative = cumulative(yearWeights);
+
+	this.lines = 0L;
+	this.errorLines = 0L;
+	long written = 0L;
+	StringBuilder line = new StringBuilder(96);
+
+	Writer writer = new BufferedWriter(new OutputStreamWriter(fs.create(outputPath, true), StandardCharsets.UTF_8), 1 << 20);
+	try {
+	    while(written < size) {
+		int station = draw(stationCumulative, random);
+		int year = this.firstYear + draw(yearCumulative, random);
+		int month = 1 + random.nextInt(12);
+		int days = (month == 2 && year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : MONTH_DAYS[month - 1];
+
+		// Mean temperature of the month: warmer towards the equator, seasons by hemisphere
+		double latitude = latitudes[station];
+		double season = Math.cos(2.0 * Math.PI * (month - 7) / 12.0) * (latitude >= 0.0 ? 1.0 : -1.0);
+		double mean = 27.0 - 0.45 * Math.abs(latitude) + 0.25 * Math.abs(latitude) * season - 0.0065 * elevations[station];
+
+		for(int day = 1; day <= days; day++) {
+		    int tenths = (int) Math.round((mean + random.nextGaussian() * 4.0) * 10.0);
+
+		    line.setLength(0);
+		    line.append("{\"id\": \"").append(ids[station])
+			.append("\", \"year\": ").append(year)
+			.append(", \"month\": ").append(month)
+			.append(", \"day\": ").append(day)
+			.append(", \"value\": ");
+		    appendTenths(line, tenths);
+		    line.append('}');
+
+		    if(random.nextDouble() < this.errorRate) {
+			this.breakLine(line, random);
+			this.errorLines++;
+		    }
+
+		    line.append('\n');
+		    writer.append(line);
+		    written += line.length();
+		    this.lines++;
+		}
+	    }
+	}
+	finally {
+	    writer.close();
+	}
+
+	this.writeStations(fs, new Path(outputPath.getParent(), outputPath.getName() + STATIONS_SUFFIX), ids, latitudes, longitudes, elevations);
+	this.writeStats(fs, new Path(outputPath.getParent(), outputPath.getName() + STATS_SUFFIX));
+    }
+
+    /* Lines and error lines of a generated file, read from its .stats file */
+    public static long[] readStats(FileSystem fs, Path outputPath) throws IOException {
+	Path statsPath = new Path(outputPath.getParent(), outputPath.getName() + STATS_SUFFIX);
+	BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(statsPath), StandardCharsets.UTF_8));
+
+	try {
+	    String[] fields = reader.readLine().split("\t");
+	    return new long[] { Long.parseLong(fields[0]), Long.parseLong(fields[1]) };
+	}
+	finally {
+	    reader.close();
+	}
+    }
+
+    public static long parseSize(String size) {
+	String lower = size.trim().toLowerCase(Locale.ROOT);
+	long unit = 1L;
+
+	if(lower.endsWith("k"))      { unit = 1L << 10; }
+	else if(lower.endsWith("m")) { unit = 1L << 20; }
+	else if(lower.endsWith("g")) { unit = 1L << 30; }
+	if(unit > 1L) { lower = lower.substring(0, lower.length() - 1); }
+
+	return (long) (Double.parseDouble(lower) * unit);
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* GENERATOR HELPERS                                                                                 */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private void breakLine(StringBuilder line, Random random) {
+	String text = line.toString();
+
+	switch(random.nextInt(ERROR_KINDS)) {
+	case 0:
+	    // Malformed JSON
+	    line.setLength(1 + random.nextInt(text.length() - 1));
+	    break;
+	case 1:
+	    // Wrong type
+	    line.replace(0, line.length(), text.replaceFirst("\"year\": (\\d+)", "\"year\": \"$1\""));
+	    break;
+	case 2:
+	    // Missing field
+	    line.replace(0, line.length(), text.replaceFirst(", \"value\": [-0-9.]+", ""));
+	    break;
+	case 3:
+	    // Illegal value
+	    line.replace(0, line.length(), text.replaceFirst("\"value\": [-0-9.]+", "\"value\": -999.9"));
+	    break;
+	case 4:
+	    // Year before 1900
+	    line.replace(0, line.length(), text.replaceFirst("\"year\": \\d+", "\"year\": 1850"));
+	    break;
+	default:
+	    // Month out of range
+	    line.replace(0, line.length(), text.replaceFirst("\"month\": \\d+", "\"month\": 13"));
+	    break;
+	}
+    }
+
+    private void writeStations(FileSystem fs, Path stationsPath, String[] ids, float[] latitudes, float[] longitudes, float[] elevations) throws IOException {
+	// Fixed width: ID 1-11, LATITUDE 13-20, LONGITUDE 22-30, ELEVATION 32-37, STATE 39-40, NAME 42-71
+	Writer writer = new BufferedWriter(new OutputStreamWriter(fs.create(stationsPath, true), StandardCharsets.US_ASCII));
+
+	try {
+	    for(int station = 0; station < ids.length; station++) {
+		writer.write(String.format(Locale.ROOT, "%-11s %8.4f %9.4f %6.1f    %-30s\n",
+					   ids[station], latitudes[station], longitudes[station], elevations[station], "SYNTHETIC " + station));
+	    }
+	}
+	finally {
+	    writer.close();
+	}
+    }
+
+    private void writeStats(FileSystem fs, Path statsPath) throws IOException {
+	Writer writer = new OutputStreamWriter(fs.create(statsPath, true), StandardCharsets.UTF_8);
+
+	try {
+	    writer.write(this.lines + "\t" + this.errorLines + "\t" + this.describe() + "\n");
+	}
+	finally {
+	    writer.close();
+	}
+    }
+
+    private static void appendTenths(StringBuilder line, int tenths) {
+	if(tenths < 0) { line.append('-'); }
+	line.append(Math.abs(tenths) / 10).append('.').append(Math.abs(tenths) % 10);
+    }
+
+    private static double[] cumulative(double[] weights) {
+	double[] cumulative = new double[weights.length];
+	double sum = 0.0;
+
+	for(int index = 0; index < weights.length; index++) {
+	    sum += weights[index];
+	    cumulative[index] = sum;
+	}
+
+	return cumulative;
+    }
+
+    private static int draw(double[] cumulative, Random random) {
+	double target = random.nextDouble() * cumulative[cumulative.length - 1];
+	int index = Arrays.binarySearch(cumulative, target);
+
+	return Math.min(cumulative.length - 1, (index >= 0) ? index : -index - 1);
+    }
+}
@@ -0,0 +1,67 @@
+package se.phaseshift.hadoop.climate.daily.benchmark;
+
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+// JSON parser
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// ETL
+import se.phaseshift.hadoop.climate.daily.JsonlDailyDecoder;
+import se.phaseshift.hadoop.climate.daily.JsonlDailyObservation;
+
+// Benchmarking
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parse stage: Jackson tree parsing of the line String versus the streaming byte decoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JsonlDailyParseBenchmark extends JsonlDailyFixture {
+    private ObjectMapper objectMapper = null;
+    private JsonlDailyDecoder decoder = null;
+    private JsonlDailyObservation observation = null;
+
+    @Setup
+    public void setup() throws IOException {
+	this.loadFixture();
+
+	this.objectMapper = new ObjectMapper();
+	this.decoder = new JsonlDailyDecoder();
+	this.observation = new JsonlDailyObservation();
+    }
+
+    @Benchmark
+    public JsonNode tree() throws IOException {
+	try {
+	    return this.objectMapper.readTree(this.lines[this.nextIndex()]);
+	}
+	catch(JsonProcessingException jpe) {
+	    return null;
+	}
+    }
+
+    @Benchmark
+    public JsonlDailyObservation streaming() {
+	byte[] line = this.bytes[this.nextIndex()];
+
+	try {
+	    this.decoder.decode(line, 0, line.length, this.observation);
+	    return this.observation;
+	}
+	catch(JsonProcessingException jpe) {
+	    return null;
+	}
+    }
+}
@@ -0,0 +1,261 @@
+package se.phaseshift.hadoop.climate.daily.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import java.nio.charset.StandardCharsets;
+
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+// ETL
+import se.phaseshift.hadoop.climate.daily.JsonlDailyETL;
+import se.phaseshift.hadoop.climate.daily.JsonlDailyLocalETL;
+import se.phaseshift.hadoop.climate.daily.JsonlDailyStationTable;
+
+/**
+ * End-to-end throughput regression suite: runs the whole ETL on synthetic data of the given
+ * scales and appends one comparable row per run to a tab separated report.
+ *
+ * Data is made by JsonlDailyGenerator into the work directory, once per scale and generator
+ * settings, later runs reuse it. Every scale is run in the configured modes, in this JVM:
+ *
+ *   mapreduce  JsonlDailyETL in MapReduce local mode (shuffle and reducers)
+ *   maponly    JsonlDailyETL in map-only mode
+ *   enriched   mapreduce with station enrichment from the generated stations file
+ *   local      JsonlDailyLocalETL, the in-memory path without MapReduce
+ *
+ * Rows hold throughput (input MB/s and lines/s), peak heap (sum of the heap pool peaks during the
+ * run), shuffle bytes (materialized map output, 0 without shuffle) and output size. With a
+ * baseline report, runs of the same scale and mode slower than the baseline by more than the
+ * tolerance are reported as regressions and fail the suite. All -D options are handed on to the
+ * runs, so the same suite compares the optional modes of the ETL.
+ *
+ * Usage: JsonlDailyRegressionSuite [-D options] workdir report [scale...], scales as 1g, 10g, 100g.
+ */
+public class JsonlDailyRegressionSuite extends Configured implements Tool {
+    public static final String MODES_KEY     = "climate.daily.regression.modes";
+    public static final String LABEL_KEY     = "climate.daily.regression.label";
+    public static final String BASELINE_KEY  = "climate.daily.regression.baseline";
+    public static final String TOLERANCE_KEY = "climate.daily.regression.tolerance";
+
+    public static final String MODE_MAPREDUCE = "mapreduce";
+    public static final String MODE_MAP_ONLY  = "maponly";
+    public static final String MODE_ENRICHED  = "enriched";
+    public static final String MODE_LOCAL     = "local";
+
+    private static final String HEADER = "date\tlabel\tscale\tmode\tstatus\tinput_bytes\tlines\tseconds\tmb_per_s\tlines_per_s\tpeak_heap_mb\tshuffle_bytes\toutput_bytes";
+
+    public static void main(String[] args) throws Exception {
+	if(args.length >= 2) {
+	    int res = ToolRunner.run(new Configuration(), new JsonlDailyRegressionSuite(), args);
+	    System.exit(res);
+	} else {
+	    System.err.println("Usage: JsonlDailyRegressionSuite [-D options] workdir report [scale...]");
+	    System.exit(1);
+	}
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+	Path workPath = new Path(args[0]);
+	File report = new File(args[1]);
+	List<String> scales = new ArrayList<String>();
+	for(int index = 2; index < args.length; index++) { scales.add(args[index]); }
+	if(scales.isEmpty()) { scales.add("1g"); }
+
+	Configuration conf = this.getConf();
+	File root = new File(System.getProperty("climate.daily.benchmark.root", "."));
+	String label = conf.get(LABEL_KEY, "run");
+	String[] modes = conf.getTrimmedStrings(MODES_KEY, MODE_MAPREDUCE, MODE_LOCAL);
+
+	// Runs go into a local work directory, unless the options point elsewhere
+	Configuration runConf = new Configuration(conf);
+	runConf.setIfUnset("mapreduce.framework.name", "local");
+	runConf.setIfUnset("fs.defaultFS", "file:///");
+	runConf.setIfUnset("mapreduce.local.map.tasks.maximum", Integer.toString(Runtime.getRuntime().availableProcessors()));
+	FileSystem fs = workPath.getFileSystem(runConf);
+
+	Map<String, Double> baseline = readBaseline(conf.get(BASELINE_KEY));
+	double tolerance = conf.getFloat(TOLERANCE_KEY, 0.10f);
+	int regressions = 0;
+
+	boolean header = !report.exists();
+	PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(report, true), StandardCharsets.UTF_8));
+	try {
+	    if(header) { out.println(HEADER); }
+
+	    for(String scale : scales) {
+		JsonlDailyGenerator generator = new JsonlDailyGenerator();
+		generator.configure(conf);
+
+		// Named by scale and settings, so a data file is only generated once
+		Path dataPath = new Path(workPath, String.format("ghcnd-daily-%s-%08x.jsonl", scale, generator.describe().hashCode()));
+		if(!fs.exists(dataPath) || !fs.exists(new Path(workPath, dataPath.getName() + JsonlDailyGenerator.STATS_SUFFIX))) {
+		    System.out.printf("Generating %s (%s)\n", dataPath, generator.describe());
+		    generator.generate(fs, dataPath, JsonlDailyGenerator.parseSize(scale));
+		}
+
+		long inputBytes = fs.getFileStatus(dataPath).getLen();
+		long lines = JsonlDailyGenerator.readStats(fs, dataPath)[0];
+
+		for(String mode : modes) {
+		    Result result = this.runMode(runConf, fs, root, workPath, dataPath, mode);
+
+		    double mbPerSecond = inputBytes / (1024.0 * 1024.0) / result.seconds;
+		    String status = result.success ? "ok" : "failed";
+
+		    Double baselineMbPerSecond = baseline.get(scale + "\t" + mode);
+		    if(result.success && baselineMbPerSecond != null && mbPerSecond < baselineMbPerSecond * (1.0 - tolerance)) {
+			status = "regression";
+			regressions++;
+		    }
+		    if(!result.success) { regressions++; }
+
+		    String row = String.format(Locale.ROOT, "%s\t%s\t%s\t%s\t%s\t%d\t%d\t%.1f\t%.2f\t%.0f\t%.0f\t%d\t%d",
+					       new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()),
+					       label, scale, mode, status, inputBytes, lines, result.seconds,
+					       mbPerSecond, lines / result.seconds,
+					       result.peakHeap / (1024.0 * 1024.0), result.shuffleBytes, result.outputBytes);
+		    out.println(row);
+		    out.flush();
+
+		    System.out.println(row);
+		    if(baselineMbPerSecond != null) {
+			System.out.printf(Locale.ROOT, "  %s %s: %.2f MB/s, baseline %.2f MB/s (%+.1f%%)\n",
+					  scale, mode, mbPerSecond, baselineMbPerSecond, 100.0 * (mbPerSecond / baselineMbPerSecond - 1.0));
+		    }
+		}
+	    }
+	}
+	finally {
+	    out.close();
+	}
+
+	if(regressions > 0) {
+	    System.err.printf("%d runs failed or regressed by more than %.0f%%\n", regressions, 100.0 * tolerance);
+	    return 1;
+	}
+
+	return 0;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* RUN HELPERS                                                                                       */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private static class Result {
+	private boolean success = false;
+	private double seconds = 0.0;
+	private long peakHeap = 0L;
+	private long shuffleBytes = 0L;
+	private long outputBytes = 0L;
+    }
+
+    private Result runMode(Configuration runConf, FileSystem fs, File root, Path workPath, Path dataPath, String mode) throws Exception {
+	Configuration conf = new Configuration(runConf);
+	Path outputPath = new Path(workPath, "out-" + mode);
+	Path errorPath = new Path(workPath, "errors-" + mode);
+	String outputSchema = new File(root, "schemas/ghcnd-daily.avsc").getAbsolutePath();
+
+	if(MODE_MAP_ONLY.equals(mode)) {
+	    conf.set("climate.daily.mode", JsonlDailyETL.MODE_MAP_ONLY);
+	}
+	else if(MODE_ENRICHED.equals(mode)) {
+	    Path stationsPath = new Path(workPath, dataPath.getName() + JsonlDailyGenerator.STATIONS_SUFFIX);
+	    conf.set(JsonlDailyStationTable.PATH_KEY, fs.makeQualified(stationsPath).toString());
+	    outputSchema = new File(root, "schemas/ghcnd-daily-enriched.avsc").getAbsolutePath();
+	}
+	else if(!MODE_MAPREDUCE.equals(mode) && !MODE_LOCAL.equals(mode)) {
+	    throw new IllegalArgumentException("Unknown mode " + mode);
+	}
+
+	String[] args = { fs.makeQualified(dataPath).toString(),
+			  fs.makeQualified(outputPath).toString(),
+			  outputSchema,
+			  new File(root, "schemas/ghcnd-daily.jsons").getAbsolutePath(),
+			  fs.makeQualified(errorPath).toString() };
+
+	fs.delete(outputPath, true);
+	fs.delete(errorPath, true);
+
+	// Peaks of this run only, after collecting the garbage of the previous one
+	System.gc();
+	List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+	for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+	    if(pool.getType() == MemoryType.HEAP) {
+		pool.resetPeakUsage();
+		heapPools.add(pool);
+	    }
+	}
+
+	Result result = new Result();
+	long start = System.nanoTime();
+
+	if(MODE_LOCAL.equals(mode)) {
+	    result.success = (ToolRunner.run(conf, new JsonlDailyLocalETL(), args) == 0);
+	}
+	else {
+	    JsonlDailyETL etl = new JsonlDailyETL();
+	    result.success = (ToolRunner.run(conf, etl, args) == 0);
+
+	    Counters counters = etl.getCounters();
+	    if(counters != null) {
+		result.shuffleBytes = counters.findCounter(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES).getValue();
+	    }
+	}
+
+	result.seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+	for(MemoryPoolMXBean pool : heapPools) { result.peakHeap += pool.getPeakUsage().getUsed(); }
+	if(fs.exists(outputPath)) { result.outputBytes = fs.getContentSummary(outputPath).getLength(); }
+
+	return result;
+    }
+
+    /* Throughput (MB/s) of the last passing run of every scale and mode of a report */
+    private static Map<String, Double> readBaseline(String baselineFile) throws IOException {
+	Map<String, Double> baseline = new HashMap<String, Double>();
+	if(baselineFile == null) { return baseline; }
+
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(baselineFile), StandardCharsets.UTF_8));
+	try {
+	    for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+		String[] fields = line.split("\t");
+		if(fields.length < 9 || !"ok".equals(fields[4])) { continue; }
+
+		baseline.put(fields[2] + "\t" + fields[3], Double.valueOf(fields[8]));
+	    }
+	}
+	finally {
+	    reader.close();
+	}
+
+	return baseline;
+    }
+}
@@ -0,0 +1,107 @@
+package se.phaseshift.hadoop.climate.daily.benchmark;
+
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+// AVRO
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+// AVRO UTILS
+import se.phaseshift.hadoop.util.ConfiguredWritableGenericRecord;
+import se.phaseshift.hadoop.util.WritableGenericRecord;
+
+// ETL
+import se.phaseshift.hadoop.climate.daily.JsonlDailyConverter;
+import se.phaseshift.hadoop.climate.daily.JsonlDailyValidator;
+
+// Benchmarking
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serialize stage: shuffle value write and write/readFields round trip of the legacy
+ * WritableGenericRecord (schema in every value) versus ConfiguredWritableGenericRecord.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JsonlDailySerializeBenchmark extends JsonlDailyFixture {
+    @Param({ "legacy", "configured" })
+    public String writable;
+
+    private GenericRecord[] records = null;
+    private WritableGenericRecord writer = null;
+    private WritableGenericRecord reader = null;
+    private DataOutputBuffer out = new DataOutputBuffer();
+    private DataInputBuffer in = new DataInputBuffer();
+    private int next = 0;
+
+    @Setup
+    public void setup() throws Exception {
+	this.loadFixture();
+
+	Schema schema = new Schema.Parser().parse(this.outputSchemaString);
+	JsonlDailyConverter converter = new JsonlDailyConverter(this.inputSchemaString,
+								this.outputSchemaString,
+								JsonlDailyValidator.ENGINE_COMPILED,
+								JsonlDailyConverter.DECODER_STREAMING);
+	int[] valid = this.convertibleLines();
+
+	// Converted records share reused state, keep a copy of each
+	this.records = new GenericRecord[valid.length];
+	for(int index = 0; index < valid.length; index++) {
+	    GenericRecord record = converter.convert(this.bytes[valid[index]], this.bytes[valid[index]].length);
+	    this.records[index] = GenericData.get().deepCopy(schema, record);
+	}
+
+	if("configured".equals(this.writable)) {
+	    Configuration conf = new Configuration(false);
+	    ConfiguredWritableGenericRecord.setSchema(conf, schema);
+	    this.writer = new ConfiguredWritableGenericRecord(conf);
+	    this.reader = new ConfiguredWritableGenericRecord(conf);
+	}
+	else {
+	    this.writer = new WritableGenericRecord();
+	    this.reader = new WritableGenericRecord();
+	}
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+	this.out.reset();
+	this.writer.setRecord(this.records[this.nextRecord()]);
+	this.writer.write(this.out);
+
+	return this.out.getLength();
+    }
+
+    @Benchmark
+    public GenericRecord roundTrip() throws IOException {
+	this.write();
+	this.in.reset(this.out.getData(), this.out.getLength());
+	this.reader.readFields(this.in);
+
+	return this.reader.getRecord();
+    }
+
+    private int nextRecord() {
+	int index = this.next;
+	this.next = (index + 1 == this.records.length) ? 0 : index + 1;
+
+	return index;
+    }
+}
@@ -0,0 +1,130 @@
+package se.phaseshift.hadoop.climate.daily.benchmark;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// JSON parser
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// ETL
+import se.phaseshift.hadoop.climate.daily.JsonlDailyCompiledValidator;
+import se.phaseshift.hadoop.climate.daily.JsonlDailyDecoder;
+import se.phaseshift.hadoop.climate.daily.JsonlDailyFgeValidator;
+import se.phaseshift.hadoop.climate.daily.JsonlDailyObservation;
+import se.phaseshift.hadoop.climate.daily.JsonlDailyValidationException;
+
+// Benchmarking
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Validate stage: fge JsonSchema versus the compiled validator, on parsed trees and on decoded
+ * observations. Lines failing to parse are left out, failing validation is part of the measure.
+ * The fast fail variant rejects a line at its first violation, without building messages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JsonlDailyValidateBenchmark extends JsonlDailyFixture {
+    private JsonlDailyFgeValidator fgeValidator = null;
+    private JsonlDailyCompiledValidator compiledValidator = null;
+    private JsonlDailyCompiledValidator fastFailValidator = null;
+    private JsonNode[] nodes = null;
+    private JsonlDailyObservation[] observations = null;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws Exception {
+	this.loadFixture();
+
+	ObjectMapper objectMapper = new ObjectMapper();
+	JsonNode schemaNode = objectMapper.readTree(this.inputSchemaString);
+	this.fgeValidator = new JsonlDailyFgeValidator(schemaNode);
+	this.compiledValidator = new JsonlDailyCompiledValidator(schemaNode);
+	this.fastFailValidator = new JsonlDailyCompiledValidator(schemaNode);
+	this.fastFailValidator.setFastFail(true);
+
+	// Parse up front, the parsers are measured by JsonlDailyParseBenchmark
+	JsonlDailyDecoder decoder = new JsonlDailyDecoder();
+	List<JsonNode> parsedNodes = new ArrayList<JsonNode>();
+	List<JsonlDailyObservation> parsedObservations = new ArrayList<JsonlDailyObservation>();
+
+	for(int index = 0; index < this.lines.length; index++) {
+	    try {
+		JsonNode node = objectMapper.readTree(this.lines[index]);
+		JsonlDailyObservation observation = new JsonlDailyObservation();
+		decoder.decode(this.bytes[index], 0, this.bytes[index].length, observation);
+
+		parsedNodes.add(node);
+		parsedObservations.add(observation);
+	    }
+	    catch(JsonProcessingException jpe) {
+		// Unparsable line, not part of this stage
+	    }
+	}
+
+	this.nodes = parsedNodes.toArray(new JsonNode[parsedNodes.size()]);
+	this.observations = parsedObservations.toArray(new JsonlDailyObservation[parsedObservations.size()]);
+    }
+
+    @Benchmark
+    public boolean fge() {
+	try {
+	    this.fgeValidator.validate(this.nodes[this.nextParsed()]);
+	    return true;
+	}
+	catch(JsonlDailyValidationException jve) {
+	    return false;
+	}
+    }
+
+    @Benchmark
+    public boolean compiledTree() {
+	try {
+	    this.compiledValidator.validate(this.nodes[this.nextParsed()]);
+	    return true;
+	}
+	catch(JsonlDailyValidationException jve) {
+	    return false;
+	}
+    }
+
+    @Benchmark
+    public boolean compiledObservation() {
+	try {
+	    this.compiledValidator.validate(this.observations[this.nextParsed()]);
+	    return true;
+	}
+	catch(JsonlDailyValidationException jve) {
+	    return false;
+	}
+    }
+
+    @Benchmark
+    public boolean compiledObservationFastFail() {
+	try {
+	    this.fastFailValidator.validate(this.observations[this.nextParsed()]);
+	    return true;
+	}
+	catch(JsonlDailyValidationException jve) {
+	    return false;
+	}
+    }
+
+    private int nextParsed() {
+	int index = this.next;
+	this.next = (index + 1 == this.nodes.length) ? 0 : index + 1;
+
+	return index;
+    }
+}
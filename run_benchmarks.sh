@@ -0,0 +1,9 @@
+# Build the ETL and the benchmarks first:
+#   mvn install && (cd benchmarks && mvn package)
+# Reports ops/s per stage, -prof gc adds the allocation rate (gc.alloc.rate.norm is bytes/op)
+java -jar ./benchmarks/target/benchmarks.jar \
+    -jvmArgsAppend "-Dclimate.daily.benchmark.root=$(pwd)" \
+    -f 1 -wi 5 -i 5 \
+    -prof gc \
+    -rf json -rff ./benchmarks/results.json \
+    "$@"
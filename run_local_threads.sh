@@ -0,0 +1,9 @@
+rm -Rfv ./outdata
+java -cp ./target/NooaClimateDailyETL-1.0-SNAPSHOT.jar \
+    se.phaseshift.hadoop.climate.daily.JsonlDailyLocalETL \
+    -Dclimate.daily.local.threads=4 \
+    ./samples/ghcnd-daily-error.jsonl \
+    ./outdata/ \
+    ./schemas/ghcnd-daily.avsc \
+    ./schemas/ghcnd-daily.jsons \
+    ./errors
@@ -0,0 +1,14 @@
+# Build the ETL and the benchmarks first:
+#   mvn install && (cd benchmarks && mvn package)
+# Usage: ./run_regression.sh [scale...], e.g. ./run_regression.sh 1g 10g 100g (1g by default)
+# Rows are appended to ./benchmarks/regression.tsv, with BASELINE=<earlier report> runs more than
+# 10% slower than there fail the suite
+java -Xmx4g -cp ./benchmarks/target/benchmarks.jar \
+    -Dclimate.daily.benchmark.root=$(pwd) \
+    se.phaseshift.hadoop.climate.daily.benchmark.JsonlDailyRegressionSuite \
+    -Dclimate.daily.regression.modes=mapreduce,maponly,local \
+    -Dclimate.daily.regression.label=$(git rev-parse --short HEAD 2>/dev/null || echo run) \
+    ${BASELINE:+-Dclimate.daily.regression.baseline=$BASELINE} \
+    ./benchmarks/regression \
+    ./benchmarks/regression.tsv \
+    "${@:-1g}"
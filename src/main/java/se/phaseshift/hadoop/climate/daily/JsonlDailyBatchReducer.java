@@ -0,0 +1,97 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.lang.InterruptedException;
+
+import java.io.IOException;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+// AVRO
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+// AVRO UTILS
+import se.phaseshift.hadoop.util.ConfiguredWritableGenericRecord;
+
+/**
+ * Reducer of the batched map output mode: expands the JsonlDailyRecordBatches of a year into
+ * records of the year partition.
+ *
+ * One record is reused for all rows, the Parquet writer consumes it before the next write.
+ */
+public class JsonlDailyBatchReducer extends Reducer<Text, JsonlDailyRecordBatch, Void, GenericRecord> {
+    private MultipleOutputs outputStreams = null;
+    private JsonlDailyMetrics metrics = null;
+    private JsonlDailyMetrics.Stripe stripe = null;
+    private GenericData.Record record = null;
+    private int idField = 0;
+    private int yearField = 0;
+    private int monthField = 0;
+    private int dayField = 0;
+    private int valueField = 0;
+
+    @Override
+    public void setup(Context context) {
+	// Get configuration
+	Configuration conf = context.getConfiguration();
+	conf.setBoolean("mapred.output.compress", false);
+
+	// Create multiple outputs, written by encoder threads in async output mode
+	this.outputStreams = JsonlDailyETL.createOutputs(context);
+
+	// Sampled build and write timings, published when the task ends
+	this.metrics = JsonlDailyMetrics.create(conf);
+	if(this.metrics != null) {
+	    this.stripe = this.metrics.stripe();
+	}
+
+	// Create the (reused) output record
+	Schema outputSchema = ConfiguredWritableGenericRecord.getSchema(conf);
+	this.record = new GenericData.Record(outputSchema);
+	this.idField = outputSchema.getField("id").pos();
+	this.yearField = outputSchema.getField("year").pos();
+	this.monthField = outputSchema.getField("month").pos();
+	this.dayField = outputSchema.getField("day").pos();
+	this.valueField = outputSchema.getField("value").pos();
+    }
+
+    @Override
+    public void reduce(Text key, Iterable<JsonlDailyRecordBatch> batches, Context context) throws IOException, InterruptedException {
+	String partitionPath = "partitions/" + key.toString() + "/data";
+
+	for(JsonlDailyRecordBatch batch : batches) {
+	    this.record.put(this.yearField, JsonlDailyObservation.box(batch.getYear()));
+
+	    for(int row = 0; row < batch.size(); row++) {
+		if(this.stripe != null) { this.stripe.begin(0); }
+
+		this.record.put(this.idField, batch.getId(row));
+		this.record.put(this.monthField, JsonlDailyObservation.box(batch.getMonth(row)));
+		this.record.put(this.dayField, JsonlDailyObservation.box(batch.getDay(row)));
+		this.record.put(this.valueField, Float.valueOf(batch.getValue(row)));
+		if(this.stripe != null) { this.stripe.lap(JsonlDailyMetrics.STAGE.BUILD); }
+
+		this.outputStreams.write("partitions", null, this.record, partitionPath);
+		if(this.stripe != null) { this.stripe.lap(JsonlDailyMetrics.STAGE.WRITE); }
+	    }
+	}
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+	// Close multiple outputs!
+	this.outputStreams.close();
+
+	// Publish build and write timings (metrics mode), partitions are complete once closed
+	if(this.metrics != null) {
+	    this.stripe.addBytesIn(context.getCounter(TaskCounter.REDUCE_SHUFFLE_BYTES).getValue());
+	    this.metrics.publish(context, JsonlDailyMetrics.partitionBytes(context));
+	}
+    }
+}
@@ -0,0 +1,94 @@
+package se.phaseshift.hadoop.climate.daily;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.io.Text;
+
+// AVRO
+import org.apache.avro.util.Utf8;
+
+/**
+ * Bloom filter of the (station, date) keys seen by a map-only task, to count probable duplicate
+ * observations without keeping the keys.
+ *
+ * A key never seen before is almost always reported as new at the cost of a few bit probes, the
+ * common case of an input without duplicates. A key reported as seen is a duplicate or, with the
+ * configured false positive probability, a new key. Map-only tasks have written the earlier
+ * version already, so such keys are only counted, a dedup run with a shuffle removes them.
+ *
+ * Sized for the expected number of keys of the task, the bit count rounded up to a power of two.
+ */
+public class JsonlDailyBloomFilter {
+    private static final int MAX_BITS_LOG2 = 30;
+
+    private final long[] words;
+    private final long mask;
+    private final int hashes;
+    private final Text idText = new Text();
+
+    public JsonlDailyBloomFilter(long expectedKeys, double falsePositives) {
+	long keys = Math.max(1L, expectedKeys);
+	double optimalBits = -keys * Math.log(falsePositives) / (Math.log(2) * Math.log(2));
+
+	int bitsLog2 = 6;
+	while(bitsLog2 < MAX_BITS_LOG2 && (1L << bitsLog2) < optimalBits) { bitsLog2++; }
+
+	long bits = 1L << bitsLog2;
+	this.words = new long[(int) (bits >>> 6)];
+	this.mask = bits - 1;
+	this.hashes = (int) Math.max(1L, Math.min(16L, Math.round((double) bits / keys * Math.log(2))));
+    }
+
+    /* Adds the key, true if it was (probably) added before */
+    public boolean put(CharSequence id, int year, int month, int day) {
+	long idCode = 0L;
+
+	// Streaming decoder ids are Utf8, their bytes are packed without encoding
+	if(id instanceof Utf8) {
+	    Utf8 utf8 = (Utf8) id;
+	    idCode = JsonlDailySortKey.pack(utf8.getBytes(), 0, utf8.getByteLength());
+	}
+	else {
+	    this.idText.set(id.toString());
+	    idCode = JsonlDailySortKey.pack(this.idText.getBytes(), 0, this.idText.getLength());
+	}
+
+	if(idCode == JsonlDailySortKey.UNPACKED) { idCode = id.toString().hashCode(); }
+
+	// Double hashing: probe i is h1 + i * h2 of the two halves of a 64 bit hash
+	long hash = mix(idCode * 31 + ((year * 16 + month) * 32 + day));
+	long h1 = hash;
+	long h2 = (hash >>> 32) | 1L;
+	boolean seen = true;
+
+	for(int i = 0; i < this.hashes; i++) {
+	    long bit = (h1 + i * h2) & this.mask;
+	    int word = (int) (bit >>> 6);
+	    long bitMask = 1L << bit;
+
+	    if((this.words[word] & bitMask) == 0L) {
+		this.words[word] |= bitMask;
+		seen = false;
+	    }
+	}
+
+	return seen;
+    }
+
+    public long getBits() {
+	return this.mask + 1;
+    }
+
+    public int getHashes() {
+	return this.hashes;
+    }
+
+    /* Final mix of MurmurHash3, spreads the low digits of the station codes over all bits */
+    private static long mix(long h) {
+	h ^= h >>> 33;
+	h *= 0xff51afd7ed558ccdL;
+	h ^= h >>> 33;
+	h *= 0xc4ceb9fe1a85ec53L;
+	h ^= h >>> 33;
+	return h;
+    }
+}
@@ -0,0 +1,654 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import java.util.regex.Pattern;
+
+// JSON parser
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// JSON Schema validator
+import com.github.fge.jsonschema.report.LogLevel;
+import com.github.fge.jsonschema.report.ProcessingMessage;
+
+/**
+ * Validator compiling the flat daily input (JSON) schema into specialized per-field checks.
+ *
+ * The schema is read once and turned into a precompiled regex per "pattern", primitive bounds
+ * per "minimum"/"maximum", a type bitmask per "type" and a bitmask of the "required" fields.
+ * Only the subset of JSON schema used by ghcnd-daily.jsons is supported, any other keyword makes
+ * the constructor fail with an IllegalArgumentException so that the fge validator can be used.
+ *
+ * ProcessingMessages are only created for failing instances and mimic the ones of fge, which
+ * keeps the keyword classification in JsonlDailyETLMapper identical for both engines.
+ *
+ * Besides JsonNode trees, the validator also checks the primitive JsonlDailyObservation produced
+ * by the streaming JsonlDailyDecoder, as long as every schema property is one of its fields.
+ * The verdict of the id pattern can be cached per station in a JsonlDailyStationDictionary.
+ *
+ * Under the fast fail policy checks stop at the first violation, which is reported by the
+ * preallocated FastFail exception without any message. The instance is validated again in full
+ * only if the messages are asked for.
+ */
+public class JsonlDailyCompiledValidator implements JsonlDailyValidator {
+    /* Instance types, one bit each, see NodeType in fge */
+    static final int TYPE_ARRAY   = 1;
+    static final int TYPE_BOOLEAN = 1 << 1;
+    static final int TYPE_INTEGER = 1 << 2;
+    static final int TYPE_NULL    = 1 << 3;
+    static final int TYPE_NUMBER  = 1 << 4;
+    static final int TYPE_OBJECT  = 1 << 5;
+    static final int TYPE_STRING  = 1 << 6;
+    static final int TYPE_ANY     = 0x7f;
+
+    private static final String[] TYPE_NAMES = { "array", "boolean", "integer", "null", "number", "object", "string" };
+
+    private static final String[] ROOT_KEYWORDS  = { "$schema", "title", "description", "type", "properties", "required" };
+    private static final String[] FIELD_KEYWORDS = { "title", "description", "type", "pattern",
+						     "minimum", "maximum", "exclusiveMinimum", "exclusiveMaximum" };
+
+    private static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.instance;
+
+    /* Keyword failure bits */
+    private static final int FAILED_TYPE    = 1;
+    private static final int FAILED_PATTERN = 1 << 1;
+    private static final int FAILED_MINIMUM = 1 << 2;
+    private static final int FAILED_MAXIMUM = 1 << 3;
+
+    private final FieldCheck[] fieldChecks;
+    private final int[] observationSlots;
+    private final boolean observationSupported;
+    private final int rootTypes;
+    private final long requiredMask;
+
+    private boolean fastFail = false;
+    private final JsonlDailyValidationException.FastFail fastFailure = new JsonlDailyValidationException.FastFail();
+    private final Explanation explanation = new Explanation();
+
+    public JsonlDailyCompiledValidator(JsonNode schemaNode) {
+	checkKeywords(schemaNode, ROOT_KEYWORDS, "");
+
+	this.rootTypes = compileTypes(schemaNode.get("type"), "");
+
+	// Collect all field names, properties first and required only fields last
+	List<String> fieldNames = new ArrayList<String>();
+	JsonNode propertiesNode = schemaNode.get("properties");
+	if(propertiesNode != null) {
+	    Iterator<String> names = propertiesNode.fieldNames();
+	    while(names.hasNext()) { fieldNames.add(names.next()); }
+	}
+
+	JsonNode requiredNode = schemaNode.get("required");
+	if(requiredNode != null) {
+	    for(JsonNode nameNode : requiredNode) {
+		if(!fieldNames.contains(nameNode.asText())) { fieldNames.add(nameNode.asText()); }
+	    }
+	}
+
+	if(fieldNames.size() > Long.SIZE) {
+	    throw new IllegalArgumentException("Too many properties for compiled validation: " + fieldNames.size());
+	}
+
+	// Compile each field into a specialized check
+	this.fieldChecks = new FieldCheck[fieldNames.size()];
+	this.observationSlots = new int[fieldNames.size()];
+	boolean supported = true;
+	long mask = 0L;
+
+	for(int index = 0; index < this.fieldChecks.length; index++) {
+	    String name = fieldNames.get(index);
+	    JsonNode fieldNode = (propertiesNode != null) ? propertiesNode.get(name) : null;
+
+	    this.fieldChecks[index] = new FieldCheck(name, fieldNode);
+	    this.observationSlots[index] = JsonlDailyObservation.fieldIndex(name);
+	    supported &= (this.observationSlots[index] >= 0);
+
+	    if(requiredNode != null) {
+		for(JsonNode nameNode : requiredNode) {
+		    if(name.equals(nameNode.asText())) { mask |= (1L << index); }
+		}
+	    }
+	}
+
+	this.requiredMask = mask;
+	this.observationSupported = supported;
+    }
+
+    public boolean isObservationSupported() {
+	return this.observationSupported;
+    }
+
+    @Override
+    public void setFastFail(boolean fastFail) {
+	this.fastFail = fastFail;
+    }
+
+    @Override
+    public void validate(JsonNode instance) throws JsonlDailyValidationException {
+	if(this.fastFail) {
+	    this.failFast(instance);
+	}
+	else {
+	    this.validateFully(instance);
+	}
+    }
+
+    public void validate(JsonlDailyObservation observation) throws JsonlDailyValidationException {
+	this.validate(observation, null, JsonlDailyStationDictionary.NO_CODE);
+    }
+
+    /* Validates an observation whose id has the given code, the id pattern is only run once per code */
+    public void validate(JsonlDailyObservation observation, JsonlDailyStationDictionary stations, int stationCode) throws JsonlDailyValidationException {
+	if(!this.observationSupported) { throw new IllegalStateException("Schema properties do not match the observation fields"); }
+
+	if(this.fastFail) {
+	    this.failFast(observation, stations, stationCode);
+	}
+	else {
+	    this.validateFully(observation, stations, stationCode);
+	}
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* FULL VALIDATION                                                                                   */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private void validateFully(JsonNode instance) throws JsonlDailyValidationException {
+	Messages messages = null;
+
+	if(!isAllowed(this.rootTypes, typeOf(instance))) {
+	    messages = this.addMessage(messages, "type", this.typeMessage("", "", typeOf(instance), this.rootTypes));
+	}
+	else if(instance.isObject()) {
+	    long present = 0L;
+
+	    for(int index = 0; index < this.fieldChecks.length; index++) {
+		FieldCheck check = this.fieldChecks[index];
+		JsonNode fieldValue = instance.get(check.name);
+
+		if(fieldValue != null) {
+		    present |= (1L << index);
+		    messages = check.validate(fieldValue, messages);
+		}
+	    }
+
+	    long missing = this.requiredMask & ~present;
+	    if(missing != 0L) {
+		messages = this.addMessage(messages, "required", this.requiredMessage(missing));
+	    }
+	}
+
+	if(messages != null) {
+	    throw new JsonlDailyValidationException(messages, messages.keywords);
+	}
+    }
+
+    private void validateFully(JsonlDailyObservation observation, JsonlDailyStationDictionary stations, int stationCode) throws JsonlDailyValidationException {
+	Messages messages = null;
+	int rootType = observation.getRootType();
+
+	if(!isAllowed(this.rootTypes, rootType)) {
+	    messages = this.addMessage(messages, "type", this.typeMessage("", "", rootType, this.rootTypes));
+	}
+	else if(rootType == TYPE_OBJECT) {
+	    long present = 0L;
+
+	    for(int index = 0; index < this.fieldChecks.length; index++) {
+		int slot = this.observationSlots[index];
+
+		if(observation.getType(slot) != 0) {
+		    present |= (1L << index);
+
+		    if(slot == JsonlDailyObservation.ID && stationCode != JsonlDailyStationDictionary.NO_CODE) {
+			messages = this.fieldChecks[index].validate(observation, slot, stations, stationCode, messages);
+		    }
+		    else {
+			messages = this.fieldChecks[index].validate(observation, slot, messages);
+		    }
+		}
+	    }
+
+	    long missing = this.requiredMask & ~present;
+	    if(missing != 0L) {
+		messages = this.addMessage(messages, "required", this.requiredMessage(missing));
+	    }
+	}
+
+	if(messages != null) {
+	    throw new JsonlDailyValidationException(messages, messages.keywords);
+	}
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* FAST FAIL VALIDATION                                                                              */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private void failFast(JsonNode instance) throws JsonlDailyValidationException {
+	if(!isAllowed(this.rootTypes, typeOf(instance))) { throw this.fastFailure(instance, "type"); }
+	if(!instance.isObject()) { return; }
+
+	long present = 0L;
+
+	for(int index = 0; index < this.fieldChecks.length; index++) {
+	    FieldCheck check = this.fieldChecks[index];
+	    JsonNode fieldValue = instance.get(check.name);
+
+	    if(fieldValue != null) {
+		present |= (1L << index);
+
+		int failed = check.failures(fieldValue);
+		if(failed != 0) { throw this.fastFailure(instance, keyword(failed)); }
+	    }
+	}
+
+	if((this.requiredMask & ~present) != 0L) { throw this.fastFailure(instance, "required"); }
+    }
+
+    private void failFast(JsonlDailyObservation observation, JsonlDailyStationDictionary stations, int stationCode) throws JsonlDailyValidationException {
+	int rootType = observation.getRootType();
+
+	if(!isAllowed(this.rootTypes, rootType)) { throw this.fastFailure(observation, stations, stationCode, "type"); }
+	if(rootType != TYPE_OBJECT) { return; }
+
+	long present = 0L;
+
+	for(int index = 0; index < this.fieldChecks.length; index++) {
+	    int slot = this.observationSlots[index];
+
+	    if(observation.getType(slot) != 0) {
+		present |= (1L << index);
+
+		int failed = (slot == JsonlDailyObservation.ID && stationCode != JsonlDailyStationDictionary.NO_CODE) ?
+		    this.fieldChecks[index].failures(stations, stationCode, observation, slot) :
+		    this.fieldChecks[index].failures(observation, slot);
+		if(failed != 0) { throw this.fastFailure(observation, stations, stationCode, keyword(failed)); }
+	    }
+	}
+
+	if((this.requiredMask & ~present) != 0L) { throw this.fastFailure(observation, stations, stationCode, "required"); }
+    }
+
+    private JsonlDailyValidationException fastFailure(JsonNode instance, String keyword) {
+	this.explanation.instance = instance;
+	this.explanation.observation = null;
+	return this.fastFailure.reset(keyword, this.explanation);
+    }
+
+    private JsonlDailyValidationException fastFailure(JsonlDailyObservation observation, JsonlDailyStationDictionary stations,
+						      int stationCode, String keyword) {
+	this.explanation.instance = null;
+	this.explanation.observation = observation;
+	this.explanation.stations = stations;
+	this.explanation.stationCode = stationCode;
+	return this.fastFailure.reset(keyword, this.explanation);
+    }
+
+    /* Keyword of the first failure, in the order the messages are reported */
+    private static String keyword(int failed) {
+	if((failed & FAILED_TYPE) != 0)    { return "type"; }
+	if((failed & FAILED_PATTERN) != 0) { return "pattern"; }
+	if((failed & FAILED_MINIMUM) != 0) { return "minimum"; }
+	return "maximum";
+    }
+
+    /**
+     * Full messages of the last fast failure, the instance is validated again without fast fail.
+     */
+    private final class Explanation implements JsonlDailyValidationException.Explainer {
+	JsonNode instance = null;
+	JsonlDailyObservation observation = null;
+	JsonlDailyStationDictionary stations = null;
+	int stationCode = JsonlDailyStationDictionary.NO_CODE;
+
+	@Override
+	public Iterable<ProcessingMessage> explain() {
+	    try {
+		if(this.instance != null) {
+		    JsonlDailyCompiledValidator.this.validateFully(this.instance);
+		}
+		else {
+		    JsonlDailyCompiledValidator.this.validateFully(this.observation, this.stations, this.stationCode);
+		}
+	    }
+	    catch(JsonlDailyValidationException jve) {
+		return jve;
+	    }
+
+	    return Collections.<ProcessingMessage>emptyList();
+	}
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* FIELD CHECKS                                                                                      */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private final class FieldCheck {
+	final String name;
+	final String schemaPointer;
+	final String instancePointer;
+	final JsonNode fieldNode;
+
+	final int types;
+
+	final Pattern pattern;
+
+	final boolean hasMinimum;
+	final boolean exclusiveMinimum;
+	final boolean integralMinimum;
+	final long minimumLong;
+	final double minimumDouble;
+
+	final boolean hasMaximum;
+	final boolean exclusiveMaximum;
+	final boolean integralMaximum;
+	final long maximumLong;
+	final double maximumDouble;
+
+	FieldCheck(String name, JsonNode fieldNode) {
+	    this.name = name;
+	    this.schemaPointer = "/properties/" + name;
+	    this.instancePointer = "/" + name;
+	    this.fieldNode = fieldNode;
+
+	    if(fieldNode == null) {
+		// Required only field, anything goes
+		this.types = TYPE_ANY;
+		this.pattern = null;
+		this.hasMinimum = this.exclusiveMinimum = this.integralMinimum = false;
+		this.hasMaximum = this.exclusiveMaximum = this.integralMaximum = false;
+		this.minimumLong = this.maximumLong = 0L;
+		this.minimumDouble = this.maximumDouble = 0.0;
+		return;
+	    }
+
+	    checkKeywords(fieldNode, FIELD_KEYWORDS, this.schemaPointer);
+
+	    this.types = compileTypes(fieldNode.get("type"), this.schemaPointer);
+
+	    JsonNode patternNode = fieldNode.get("pattern");
+	    this.pattern = (patternNode != null) ? Pattern.compile(patternNode.asText()) : null;
+
+	    JsonNode minimumNode = fieldNode.get("minimum");
+	    this.hasMinimum = (minimumNode != null);
+	    this.exclusiveMinimum = fieldNode.path("exclusiveMinimum").asBoolean(false);
+	    this.integralMinimum = this.hasMinimum && minimumNode.canConvertToLong() && minimumNode.isIntegralNumber();
+	    this.minimumLong = this.hasMinimum ? minimumNode.asLong() : 0L;
+	    this.minimumDouble = this.hasMinimum ? minimumNode.asDouble() : 0.0;
+
+	    JsonNode maximumNode = fieldNode.get("maximum");
+	    this.hasMaximum = (maximumNode != null);
+	    this.exclusiveMaximum = fieldNode.path("exclusiveMaximum").asBoolean(false);
+	    this.integralMaximum = this.hasMaximum && maximumNode.canConvertToLong() && maximumNode.isIntegralNumber();
+	    this.maximumLong = this.hasMaximum ? maximumNode.asLong() : 0L;
+	    this.maximumDouble = this.hasMaximum ? maximumNode.asDouble() : 0.0;
+	}
+
+	Messages validate(JsonNode value, Messages messages) {
+	    int failed = this.failures(value);
+
+	    return (failed == 0) ? messages : this.report(failed, typeOf(value), value, messages);
+	}
+
+	Messages validate(JsonlDailyObservation observation, int slot, Messages messages) {
+	    int failed = this.failures(observation, slot);
+
+	    return (failed == 0) ? messages : this.report(failed, observation.getType(slot), observation.toJsonNode(slot), messages);
+	}
+
+	Messages validate(JsonlDailyObservation observation, int slot,
+			  JsonlDailyStationDictionary stations, int code, Messages messages) {
+	    int failed = this.failures(stations, code, observation, slot);
+
+	    return (failed == 0) ? messages : this.report(failed, TYPE_STRING, observation.toJsonNode(slot), messages);
+	}
+
+	/* Failure bits of the field value */
+	int failures(JsonNode value) {
+	    int type = typeOf(value);
+
+	    return this.check(type,
+			      (type == TYPE_STRING) ? value.textValue() : null,
+			      (type == TYPE_INTEGER) && value.canConvertToLong(),
+			      value.longValue(),
+			      value.doubleValue());
+	}
+
+	int failures(JsonlDailyObservation observation, int slot) {
+	    int type = observation.getType(slot);
+
+	    return this.check(type,
+			      (type == TYPE_STRING && this.pattern != null) ? observation.getText(slot) : null,
+			      observation.isExactLong(slot),
+			      observation.getLong(slot),
+			      observation.getDouble(slot));
+	}
+
+	/* String field interned in the station dictionary, the pattern verdict is cached per code */
+	int failures(JsonlDailyStationDictionary stations, int code, JsonlDailyObservation observation, int slot) {
+	    int failed = isAllowed(this.types, TYPE_STRING) ? 0 : FAILED_TYPE;
+
+	    if(this.pattern != null) {
+		byte verdict = stations.getVerdict(code);
+		if(verdict == JsonlDailyStationDictionary.VERDICT_UNKNOWN) {
+		    boolean match = this.pattern.matcher(observation.getText(slot)).find();
+		    stations.setVerdict(code, match);
+		    verdict = match ? JsonlDailyStationDictionary.VERDICT_MATCH : JsonlDailyStationDictionary.VERDICT_MISMATCH;
+		}
+
+		if(verdict == JsonlDailyStationDictionary.VERDICT_MISMATCH) { failed |= FAILED_PATTERN; }
+	    }
+
+	    return failed;
+	}
+
+	/* As in fge, every keyword applying to the instance type is evaluated */
+	private int check(int type, CharSequence text, boolean exactLong, long longValue, double doubleValue) {
+	    int failed = 0;
+
+	    if(!isAllowed(this.types, type)) {
+		failed |= FAILED_TYPE;
+	    }
+
+	    if(this.pattern != null && type == TYPE_STRING && !this.pattern.matcher(text).find()) {
+		failed |= FAILED_PATTERN;
+	    }
+
+	    if(type == TYPE_INTEGER || type == TYPE_NUMBER) {
+		boolean integral = (type == TYPE_INTEGER) && exactLong;
+
+		if(this.hasMinimum && this.belowMinimum(integral, longValue, doubleValue)) { failed |= FAILED_MINIMUM; }
+		if(this.hasMaximum && this.aboveMaximum(integral, longValue, doubleValue)) { failed |= FAILED_MAXIMUM; }
+	    }
+
+	    return failed;
+	}
+
+	private Messages report(int failed, int type, JsonNode value, Messages messages) {
+	    if((failed & FAILED_TYPE) != 0) {
+		messages = addMessage(messages, "type", typeMessage(this.schemaPointer, this.instancePointer, type, this.types));
+	    }
+
+	    if((failed & FAILED_PATTERN) != 0) {
+		messages = addMessage(messages, "pattern", this.patternMessage(value));
+	    }
+
+	    if((failed & FAILED_MINIMUM) != 0) {
+		messages = addMessage(messages, "minimum", this.boundMessage("minimum", "number is lower than the required minimum", value));
+	    }
+
+	    if((failed & FAILED_MAXIMUM) != 0) {
+		messages = addMessage(messages, "maximum", this.boundMessage("maximum", "number is greater than the required maximum", value));
+	    }
+
+	    return messages;
+	}
+
+	private boolean belowMinimum(boolean integral, long longValue, double doubleValue) {
+	    if(integral && this.integralMinimum) {
+		return this.exclusiveMinimum ? longValue <= this.minimumLong : longValue < this.minimumLong;
+	    }
+
+	    return this.exclusiveMinimum ? doubleValue <= this.minimumDouble : doubleValue < this.minimumDouble;
+	}
+
+	private boolean aboveMaximum(boolean integral, long longValue, double doubleValue) {
+	    if(integral && this.integralMaximum) {
+		return this.exclusiveMaximum ? longValue >= this.maximumLong : longValue > this.maximumLong;
+	    }
+
+	    return this.exclusiveMaximum ? doubleValue >= this.maximumDouble : doubleValue > this.maximumDouble;
+	}
+
+	private ProcessingMessage patternMessage(JsonNode value) {
+	    ProcessingMessage message = newMessage(this.schemaPointer, this.instancePointer, "pattern",
+						   "ECMA 262 regex does not match input string");
+	    message.put("regex", NODE_FACTORY.textNode(this.pattern.pattern()));
+	    message.put("string", value);
+	    return message;
+	}
+
+	private ProcessingMessage boundMessage(String keyword, String text, JsonNode value) {
+	    ProcessingMessage message = newMessage(this.schemaPointer, this.instancePointer, keyword, text);
+	    message.put(keyword, this.fieldNode.get(keyword));
+	    message.put("found", value);
+	    return message;
+	}
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* MESSAGE HELPERS                                                                                   */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    /* Messages of a failing instance and their keywords, classified without building their JSON */
+    private static final class Messages extends ArrayList<ProcessingMessage> {
+	final List<String> keywords = new ArrayList<String>(2);
+
+	Messages() {
+	    super(2);
+	}
+    }
+
+    private Messages addMessage(Messages messages, String keyword, ProcessingMessage message) {
+	if(messages == null) { messages = new Messages(); }
+	messages.add(message);
+	messages.keywords.add(keyword);
+	return messages;
+    }
+
+    private ProcessingMessage typeMessage(String schemaPointer, String instancePointer, int type, int allowed) {
+	ProcessingMessage message = newMessage(schemaPointer, instancePointer, "type",
+					       "instance type does not match any allowed primitive type");
+	message.put("found", NODE_FACTORY.textNode(typeName(type)));
+	message.put("expected", typeNames(allowed));
+	return message;
+    }
+
+    private ProcessingMessage requiredMessage(long missing) {
+	ArrayNode requiredNames = NODE_FACTORY.arrayNode();
+	ArrayNode missingNames = NODE_FACTORY.arrayNode();
+
+	for(int index = 0; index < this.fieldChecks.length; index++) {
+	    if((this.requiredMask & (1L << index)) != 0L) { requiredNames.add(this.fieldChecks[index].name); }
+	    if((missing & (1L << index)) != 0L) { missingNames.add(this.fieldChecks[index].name); }
+	}
+
+	ProcessingMessage message = newMessage("", "", "required", "object has missing required properties");
+	message.put("required", requiredNames);
+	message.put("missing", missingNames);
+	return message;
+    }
+
+    private static ProcessingMessage newMessage(String schemaPointer, String instancePointer, String keyword, String text) {
+	ObjectNode schemaNode = NODE_FACTORY.objectNode();
+	schemaNode.put("loadingURI", "#");
+	schemaNode.put("pointer", schemaPointer);
+
+	ObjectNode instanceNode = NODE_FACTORY.objectNode();
+	instanceNode.put("pointer", instancePointer);
+
+	ProcessingMessage message = new ProcessingMessage();
+	message.setLogLevel(LogLevel.ERROR);
+	message.setMessage(text);
+	message.put("schema", schemaNode);
+	message.put("instance", instanceNode);
+	message.put("domain", NODE_FACTORY.textNode("validation"));
+	message.put("keyword", NODE_FACTORY.textNode(keyword));
+	return message;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* SCHEMA HELPERS                                                                                    */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    static int typeOf(JsonNode node) {
+	if(node.isTextual())        return TYPE_STRING;
+	if(node.isIntegralNumber()) return TYPE_INTEGER;
+	if(node.isNumber())         return TYPE_NUMBER;
+	if(node.isBoolean())        return TYPE_BOOLEAN;
+	if(node.isObject())         return TYPE_OBJECT;
+	if(node.isArray())          return TYPE_ARRAY;
+	return TYPE_NULL;
+    }
+
+    static boolean isAllowed(int allowed, int type) {
+	// An integer is always a valid number
+	return (allowed & type) != 0 || (type == TYPE_INTEGER && (allowed & TYPE_NUMBER) != 0);
+    }
+
+    private static int compileTypes(JsonNode typeNode, String schemaPointer) {
+	if(typeNode == null) { return TYPE_ANY; }
+
+	int types = 0;
+	if(typeNode.isArray()) {
+	    for(JsonNode nameNode : typeNode) { types |= compileType(nameNode.asText(), schemaPointer); }
+	}
+	else {
+	    types = compileType(typeNode.asText(), schemaPointer);
+	}
+
+	return types;
+    }
+
+    private static int compileType(String name, String schemaPointer) {
+	for(int index = 0; index < TYPE_NAMES.length; index++) {
+	    if(TYPE_NAMES[index].equals(name)) { return 1 << index; }
+	}
+
+	throw new IllegalArgumentException("Unsupported type '" + name + "' at '" + schemaPointer + "'");
+    }
+
+    private static String typeName(int type) {
+	return TYPE_NAMES[Integer.numberOfTrailingZeros(type)];
+    }
+
+    private static ArrayNode typeNames(int types) {
+	ArrayNode names = NODE_FACTORY.arrayNode();
+
+	for(int index = 0; index < TYPE_NAMES.length; index++) {
+	    if((types & (1 << index)) != 0) { names.add(TYPE_NAMES[index]); }
+	}
+
+	return names;
+    }
+
+    private static void checkKeywords(JsonNode schemaNode, String[] supported, String schemaPointer) {
+	Map<String, Boolean> keywords = new HashMap<String, Boolean>();
+	for(String keyword : supported) { keywords.put(keyword, Boolean.TRUE); }
+
+	Iterator<String> names = schemaNode.fieldNames();
+	while(names.hasNext()) {
+	    String name = names.next();
+	    if(!keywords.containsKey(name)) {
+		throw new IllegalArgumentException("Unsupported keyword '" + name + "' at '" + schemaPointer + "'");
+	    }
+	}
+    }
+}
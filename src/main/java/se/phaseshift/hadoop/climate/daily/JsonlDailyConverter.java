@@ -0,0 +1,288 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.nio.charset.StandardCharsets;
+
+// JSON parser
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+
+// AVRO
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+
+// AVRO UTILS
+import se.phaseshift.hadoop.util.ByteCharSequence;
+import se.phaseshift.hadoop.util.SchemaRegistry;
+
+/**
+ * Framework independent core of the ETL: parses, validates and converts one JSON line into an
+ * output (AVRO) record.
+ *
+ * Used by JsonlDailyETLMapper as well as by the standalone JsonlDailyLocalETL driver. Instances
+ * hold reusable parsing state and are not thread safe, create one per thread.
+ */
+public class JsonlDailyConverter {
+    public static final String DECODER_STREAMING = "streaming";
+    public static final String DECODER_TREE      = "tree";
+
+    /* Names of the job schemas in the SchemaRegistry */
+    public static final String INPUT_SCHEMA_NAME  = "climate.daily.input";
+    public static final String OUTPUT_SCHEMA_NAME = "climate.daily.output";
+
+    /* Parsed JSON schema trees are shared read only by the converters of a JVM */
+    public static final SchemaRegistry.Compiler<JsonNode> JSON_SCHEMA = new SchemaRegistry.Compiler<JsonNode>() {
+	    @Override
+	    public JsonNode compile(String text) throws Exception {
+		return new ObjectMapper().readTree(text);
+	    }
+	};
+
+    private GenericRecordBuilder recordBuilder = null;
+    private ObjectMapper objectMapper = null;
+    private JsonlDailyValidator validator = null;
+    private JsonlDailyDecoder decoder = null;
+    private JsonlDailyObservation observation = null;
+    private JsonlDailyStationDictionary stations = null;
+    private Schema outputSchema = null;
+    private CharSequence id = null;
+    private int year = 0;
+    private int month = 0;
+    private int day = 0;
+    private float value = 0.0f;
+    private int stationCode = JsonlDailyStationDictionary.NO_CODE;
+    private JsonlDailyMetrics.Stripe metrics = null;
+
+    public JsonlDailyConverter(String inputSchemaString, String outputSchemaString, String engine, String decoderMode) throws Exception {
+	this(inputSchemaString, outputSchemaString, engine, decoderMode, 0);
+    }
+
+    public JsonlDailyConverter(String inputSchemaString, String outputSchemaString, String engine, String decoderMode, int maxStations) throws Exception {
+	this(new ObjectMapper().readTree(inputSchemaString), new Schema.Parser().parse(outputSchemaString), engine, decoderMode, maxStations);
+    }
+
+    public JsonlDailyConverter(JsonNode schemaNode, Schema outputSchema, String engine, String decoderMode, int maxStations) throws Exception {
+	// Create an Jackson Object mapper needed for JSON parsing
+	this.objectMapper = new ObjectMapper();
+
+	// Create a JSON input schema used as input validator, validators keep state and are not shared
+	this.validator = createValidator(engine, schemaNode);
+
+	// Streaming decoding requires a validator able to check decoded observations
+	if(DECODER_STREAMING.equals(decoderMode) &&
+	   this.validator instanceof JsonlDailyCompiledValidator &&
+	   ((JsonlDailyCompiledValidator) this.validator).isObservationSupported()) {
+	    this.decoder = new JsonlDailyDecoder();
+	    this.observation = new JsonlDailyObservation();
+
+	    // Station ids are interned, bytes, Utf8 and pattern verdict kept once per station
+	    if(maxStations > 0) {
+		this.stations = new JsonlDailyStationDictionary(maxStations);
+	    }
+	}
+
+	// Create a record builder for output (AVRO) records
+	this.outputSchema = outputSchema;
+	this.recordBuilder = new GenericRecordBuilder(this.outputSchema);
+    }
+
+    public static JsonlDailyConverter create(Configuration conf) throws Exception {
+	JsonNode schemaNode = null;
+	Schema outputSchema = null;
+
+	// Job schemas are registered, the local driver still hands over the schema texts
+	if(SchemaRegistry.contains(conf, INPUT_SCHEMA_NAME)) {
+	    schemaNode = SchemaRegistry.getCompiled(conf, INPUT_SCHEMA_NAME, JSON_SCHEMA);
+	    outputSchema = SchemaRegistry.getAvroSchema(conf, OUTPUT_SCHEMA_NAME);
+	}
+	else {
+	    schemaNode = new ObjectMapper().readTree(conf.get("climate.stations.input.schema"));
+	    outputSchema = new Schema.Parser().parse(conf.get("climate.stations.output.schema"));
+	}
+
+	JsonlDailyConverter converter = new JsonlDailyConverter(schemaNode,
+								outputSchema,
+								conf.get("climate.daily.validation.engine", JsonlDailyValidator.ENGINE_COMPILED),
+								conf.get("climate.daily.decoder", DECODER_STREAMING),
+								conf.getInt(JsonlDailyStationDictionary.MAX_STATIONS_KEY, 1 << 18));
+
+	converter.setFastFail(JsonlDailyValidator.POLICY_FAST_FAIL.equals(conf.get(JsonlDailyValidator.POLICY_KEY, JsonlDailyValidator.POLICY_FULL)));
+
+	return converter;
+    }
+
+    /* First violation rejects a line, the thrown JsonlDailyValidationException is reused (FastFail) */
+    public void setFastFail(boolean fastFail) {
+	this.validator.setFastFail(fastFail);
+    }
+
+    public Schema getOutputSchema() {
+	return this.outputSchema;
+    }
+
+    /* Fields of the last converted or decoded record, the id may be reused by the next line */
+    public CharSequence getId() {
+	return this.id;
+    }
+
+    public int getYear() {
+	return this.year;
+    }
+
+    public int getMonth() {
+	return this.month;
+    }
+
+    public int getDay() {
+	return this.day;
+    }
+
+    public float getValue() {
+	return this.value;
+    }
+
+    /* Station dictionary code of the last converted record, NO_CODE if not interned */
+    public int getStationCode() {
+	return this.stationCode;
+    }
+
+    /* Stage timings of the calling thread, null to disable */
+    public void setMetrics(JsonlDailyMetrics.Stripe metrics) {
+	this.metrics = metrics;
+    }
+
+    /* Dictionary of the interned station ids, null when not used */
+    public JsonlDailyStationDictionary getStations() {
+	return this.stations;
+    }
+
+    /**
+     * Converts the UTF-8 JSON line held by bytes[0, length) into an output record.
+     *
+     * Throws JsonProcessingException for unparsable lines and JsonlDailyValidationException for
+     * lines violating the input schema. In streaming mode the returned record shares its id with
+     * later records, it must be written before the next line is converted.
+     */
+    public GenericRecord convert(byte[] bytes, int length) throws Exception {
+	this.decode(bytes, length);
+
+	// Configre generic AVRO record output data
+	this.recordBuilder.set("id"   , this.id);
+	this.recordBuilder.set("year" , JsonlDailyObservation.box(this.year));
+	this.recordBuilder.set("month", JsonlDailyObservation.box(this.month));
+	this.recordBuilder.set("day"  , JsonlDailyObservation.box(this.day));
+	this.recordBuilder.set("value", Float.valueOf(this.value));
+
+	GenericRecord record = this.recordBuilder.build();
+	if(this.metrics != null) { this.metrics.lap(JsonlDailyMetrics.STAGE.BUILD); }
+
+	return record;
+    }
+
+    /**
+     * Parses and validates the line like convert(), without building a record. The fields are
+     * available through the getters until the next line is decoded.
+     */
+    public void decode(byte[] bytes, int length) throws Exception {
+	this.stationCode = JsonlDailyStationDictionary.NO_CODE;
+
+	if(this.decoder != null) {
+	    this.decodeStreamingInstance(bytes, length);
+	}
+	else {
+	    this.decodeTreeInstance(bytes, length);
+	}
+    }
+
+    /* Counter a validation message is accounted on */
+    public static JsonlDailyETL.COUNTERS classify(JsonNode processingMessageNode) {
+	JsonNode keywordNode = processingMessageNode.get("keyword");
+
+	return classify((keywordNode != null) ? keywordNode.asText() : "");
+    }
+
+    public static JsonlDailyETL.COUNTERS classify(String keywordValue) {
+	switch(keywordValue) {
+	case "type":
+	    // Type error
+	    return JsonlDailyETL.COUNTERS.TYPE_ERROR;
+	case "required":
+	    // Missing field
+	    return JsonlDailyETL.COUNTERS.FIELD_MISSING;
+	case "pattern":
+	case "maximum":
+	case "minimum":
+	    // Semantic error (Wrong string format, illegal value
+	    return JsonlDailyETL.COUNTERS.VALUE_ERROR;
+	default:
+	    // Other faile validation
+	    return JsonlDailyETL.COUNTERS.OTHER_VALIDATION;
+	}
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* PARSING HELPERS                                                                                   */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private void decodeTreeInstance(byte[] bytes, int length) throws Exception {
+	// Parse JSON line data into JsonNode
+	JsonNode jsonNode = this.objectMapper.readTree(new String(bytes, 0, length, StandardCharsets.UTF_8));
+	if(this.metrics != null) { this.metrics.lap(JsonlDailyMetrics.STAGE.PARSE); }
+
+	// Validate against schema
+	this.validator.validate(jsonNode);
+
+	// Extract data from JSON line instance
+	this.id    = jsonNode.get("id").asText();
+	this.year  = jsonNode.get("year").asInt();
+	this.month = jsonNode.get("month").asInt();
+	this.day   = jsonNode.get("day").asInt();
+	this.value = (float) jsonNode.get("value").asDouble();
+	if(this.metrics != null) { this.metrics.lap(JsonlDailyMetrics.STAGE.VALIDATE); }
+    }
+
+    private void decodeStreamingInstance(byte[] bytes, int length) throws Exception {
+	// Decode the UTF-8 line bytes in place, no String or JsonNode tree is created
+	this.decoder.decode(bytes, 0, length, this.observation);
+	if(this.metrics != null) { this.metrics.lap(JsonlDailyMetrics.STAGE.PARSE); }
+
+	// Intern the station id, known stations skip the id pattern
+	if(this.stations != null && this.observation.getType(JsonlDailyObservation.ID) == JsonlDailyCompiledValidator.TYPE_STRING) {
+	    ByteCharSequence id = this.observation.getTextBytes(JsonlDailyObservation.ID);
+	    this.stationCode = this.stations.intern(id.getBytes(), id.getOffset(), id.length());
+	}
+
+	// Validate decoded primitives against schema
+	((JsonlDailyCompiledValidator) this.validator).validate(this.observation, this.stations, this.stationCode);
+
+	// Extract data from the observation (interned ids are shared, others reused between lines)
+	this.id    = (this.stationCode != JsonlDailyStationDictionary.NO_CODE) ?
+	    this.stations.getUtf8(this.stationCode) : this.observation.getIdUtf8();
+	this.year  = this.observation.getYear();
+	this.month = this.observation.getMonth();
+	this.day   = this.observation.getDay();
+	this.value = this.observation.getValue();
+	if(this.metrics != null) { this.metrics.lap(JsonlDailyMetrics.STAGE.VALIDATE); }
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* VALIDATION HELPERS                                                                                */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private static JsonlDailyValidator createValidator(String engine, JsonNode schemaNode) throws Exception {
+	if(JsonlDailyValidator.ENGINE_COMPILED.equals(engine)) {
+	    try {
+		return new JsonlDailyCompiledValidator(schemaNode);
+	    }
+	    catch(IllegalArgumentException iae) {
+		// Schema uses keywords not handled by the compiled engine, fall back on fge
+		System.out.println(iae.toString());
+	    }
+	}
+
+	return new JsonlDailyFgeValidator(schemaNode);
+    }
+}
@@ -0,0 +1,418 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.nio.charset.StandardCharsets;
+
+// JSON parser
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+
+/**
+ * Dedicated scanner for the flat daily JSON line shape (one object of scalar fields).
+ *
+ * Decodes the UTF-8 bytes of a line in place into a reusable JsonlDailyObservation. Known fields
+ * are stored as primitives, unknown fields and nested values are skipped. Syntax errors are
+ * reported as JsonParseException, just like the Jackson tree parser does.
+ */
+public class JsonlDailyDecoder {
+    private static final double[] POWERS_OF_TEN = {
+	1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+	1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /* Doubles are exact up to 2^53, so shorter mantissas divided by an exact power of ten are correctly rounded */
+    private static final int MAX_FAST_DIGITS = 15;
+
+    private static final int MAX_DEPTH = 64;
+
+    private byte[] bytes;
+    private int position;
+    private int end;
+    private JsonlDailyObservation observation;
+
+    public void decode(byte[] bytes, int offset, int length, JsonlDailyObservation observation) throws JsonParseException {
+	this.bytes = bytes;
+	this.position = offset;
+	this.end = offset + length;
+	this.observation = observation;
+
+	this.skipWhitespace();
+	if(this.position >= this.end) { throw this.error("No content to map due to end-of-input"); }
+
+	if(this.bytes[this.position] != '{') {
+	    // Not an object, let the validator report the root type
+	    observation.reset(this.scanValue(-1));
+	    return;
+	}
+
+	observation.reset(JsonlDailyCompiledValidator.TYPE_OBJECT);
+	this.position++;
+
+	this.skipWhitespace();
+	if(this.peek() == '}') { this.position++; return; }
+
+	while(true) {
+	    this.skipWhitespace();
+	    if(this.peek() != '"') { throw this.error("Expected field name"); }
+
+	    int slot = this.scanFieldName();
+
+	    this.skipWhitespace();
+	    if(this.peek() != ':') { throw this.error("Expected ':' after field name"); }
+	    this.position++;
+
+	    this.skipWhitespace();
+	    this.scanValue(slot);
+
+	    this.skipWhitespace();
+	    byte separator = this.peek();
+	    this.position++;
+
+	    if(separator == '}') { return; }
+	    if(separator != ',') { throw this.error("Expected ',' or '}' in object"); }
+	}
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* VALUE SCANNING                                                                                    */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    /* Scans one value, storing it in the given slot unless negative, and returns its type */
+    private int scanValue(int slot) throws JsonParseException {
+	byte current = this.peek();
+
+	switch(current) {
+	case '"':
+	    this.scanString(slot);
+	    return JsonlDailyCompiledValidator.TYPE_STRING;
+	case '{':
+	case '[':
+	    this.skipStructure();
+	    int type = (current == '{') ? JsonlDailyCompiledValidator.TYPE_OBJECT : JsonlDailyCompiledValidator.TYPE_ARRAY;
+	    if(slot >= 0) { this.observation.setType(slot, type); }
+	    return type;
+	case 't':
+	    this.scanLiteral("true");
+	    if(slot >= 0) { this.observation.setNumber(slot, JsonlDailyCompiledValidator.TYPE_BOOLEAN, false, 1L, 0.0); }
+	    return JsonlDailyCompiledValidator.TYPE_BOOLEAN;
+	case 'f':
+	    this.scanLiteral("false");
+	    if(slot >= 0) { this.observation.setNumber(slot, JsonlDailyCompiledValidator.TYPE_BOOLEAN, false, 0L, 0.0); }
+	    return JsonlDailyCompiledValidator.TYPE_BOOLEAN;
+	case 'n':
+	    this.scanLiteral("null");
+	    if(slot >= 0) { this.observation.setType(slot, JsonlDailyCompiledValidator.TYPE_NULL); }
+	    return JsonlDailyCompiledValidator.TYPE_NULL;
+	default:
+	    return this.scanNumber(slot);
+	}
+    }
+
+    private int scanNumber(int slot) throws JsonParseException {
+	int start = this.position;
+	boolean negative = false;
+	boolean integral = true;
+	long mantissa = 0L;
+	int digits = 0;
+	int scale = 0;
+
+	if(this.peek() == '-') { negative = true; this.position++; }
+
+	if(!isDigit(this.peek())) { throw this.error("Unexpected character in value"); }
+
+	if(this.bytes[this.position] == '0') {
+	    this.position++;
+	    if(this.position < this.end && isDigit(this.bytes[this.position])) { throw this.error("Leading zeroes not allowed"); }
+	}
+	else {
+	    while(this.position < this.end && isDigit(this.bytes[this.position])) {
+		mantissa = mantissa * 10 + (this.bytes[this.position++] - '0');
+		digits++;
+		if(digits > 18) { mantissa = 0L; }
+	    }
+	}
+
+	if(this.position < this.end && this.bytes[this.position] == '.') {
+	    integral = false;
+	    this.position++;
+	    if(!isDigit(this.peek())) { throw this.error("Decimal point not followed by a digit"); }
+
+	    while(this.position < this.end && isDigit(this.bytes[this.position])) {
+		mantissa = mantissa * 10 + (this.bytes[this.position++] - '0');
+		digits++;
+		scale++;
+		if(digits > 18) { mantissa = 0L; }
+	    }
+	}
+
+	boolean exponent = false;
+	if(this.position < this.end && (this.bytes[this.position] == 'e' || this.bytes[this.position] == 'E')) {
+	    integral = false;
+	    exponent = true;
+	    this.position++;
+	    if(this.position < this.end && (this.bytes[this.position] == '+' || this.bytes[this.position] == '-')) { this.position++; }
+	    if(!isDigit(this.peek())) { throw this.error("Exponent indicator not followed by a digit"); }
+	    while(this.position < this.end && isDigit(this.bytes[this.position])) { this.position++; }
+	}
+
+	int type = integral ? JsonlDailyCompiledValidator.TYPE_INTEGER : JsonlDailyCompiledValidator.TYPE_NUMBER;
+	if(slot < 0) { return type; }
+
+	if(!exponent && digits <= MAX_FAST_DIGITS && scale < POWERS_OF_TEN.length) {
+	    long signed = negative ? -mantissa : mantissa;
+	    double value = (scale == 0) ? (double) signed : signed / POWERS_OF_TEN[scale];
+	    this.observation.setNumber(slot, type, integral, signed, value);
+	}
+	else {
+	    // Long or exponent notation, rare enough to go through a String
+	    String text = new String(this.bytes, start, this.position - start, StandardCharsets.ISO_8859_1);
+	    double value = Double.parseDouble(text);
+	    boolean exactLong = false;
+	    long longValue = (long) value;
+
+	    if(integral) {
+		try {
+		    longValue = Long.parseLong(text);
+		    exactLong = true;
+		}
+		catch(NumberFormatException nfe) {
+		    // Out of long range, keep the double approximation
+		}
+	    }
+
+	    this.observation.setNumber(slot, type, exactLong, longValue, value);
+	}
+
+	return type;
+    }
+
+    private void scanLiteral(String literal) throws JsonParseException {
+	for(int index = 0; index < literal.length(); index++) {
+	    if(this.position >= this.end || this.bytes[this.position] != literal.charAt(index)) {
+		throw this.error("Unrecognized token, expected '" + literal + "'");
+	    }
+	    this.position++;
+	}
+    }
+
+    private void skipStructure() throws JsonParseException {
+	int depth = 0;
+
+	while(this.position < this.end) {
+	    byte current = this.bytes[this.position];
+
+	    if(current == '"') {
+		this.scanString(-1);
+		continue;
+	    }
+
+	    this.position++;
+
+	    if(current == '{' || current == '[') {
+		if(++depth > MAX_DEPTH) { throw this.error("Nesting too deep"); }
+	    }
+	    else if(current == '}' || current == ']') {
+		if(--depth == 0) { return; }
+	    }
+	}
+
+	throw this.error("Unexpected end-of-input in structure");
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* STRING SCANNING                                                                                   */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private int scanFieldName() throws JsonParseException {
+	int start = this.position + 1;
+	int close = this.findStringEnd(start);
+
+	if(close >= 0) {
+	    this.position = close + 1;
+	    return JsonlDailyObservation.fieldIndex(this.bytes, start, close - start);
+	}
+
+	// Escaped field name, unescape into the scratch area
+	int scratchStart = this.observation.scratchLength();
+	int scratchEnd = this.unescape(start);
+	byte[] scratch = this.observation.scratch(0);
+	this.observation.scratchLength(scratchStart);
+
+	return JsonlDailyObservation.fieldIndex(scratch, scratchStart, scratchEnd - scratchStart);
+    }
+
+    private void scanString(int slot) throws JsonParseException {
+	int start = this.position + 1;
+	int close = this.findStringEnd(start);
+
+	if(close >= 0) {
+	    this.position = close + 1;
+	    if(slot >= 0) { this.observation.setText(slot, this.bytes, start, close - start, isAscii(this.bytes, start, close)); }
+	    return;
+	}
+
+	int scratchStart = this.observation.scratchLength();
+	int scratchEnd = this.unescape(start);
+	byte[] scratch = this.observation.scratch(0);
+
+	if(slot >= 0) {
+	    this.observation.setText(slot, scratch, scratchStart, scratchEnd - scratchStart, isAscii(scratch, scratchStart, scratchEnd));
+	}
+	else {
+	    this.observation.scratchLength(scratchStart);
+	}
+    }
+
+    /* Returns the index of the closing quote, or -1 when the string contains escapes */
+    private int findStringEnd(int start) throws JsonParseException {
+	for(int index = start; index < this.end; index++) {
+	    byte current = this.bytes[index];
+	    if(current == '"')  { return index; }
+	    if(current == '\\') { return -1; }
+	    if(current >= 0 && current < 0x20) { throw this.error("Illegal unquoted character in string"); }
+	}
+
+	throw this.error("Unexpected end-of-input in string");
+    }
+
+    /* Unescapes the string starting at start into the scratch area, returning the scratch end */
+    private int unescape(int start) throws JsonParseException {
+	// Unescaped content is never longer than the escaped one
+	byte[] scratch = this.observation.scratch(this.end - start);
+	int target = this.observation.scratchLength();
+	int index = start;
+
+	while(index < this.end) {
+	    byte current = this.bytes[index++];
+
+	    if(current == '"') {
+		this.position = index;
+		this.observation.scratchLength(target);
+		return target;
+	    }
+
+	    if(current != '\\') {
+		if(current >= 0 && current < 0x20) { throw this.error("Illegal unquoted character in string"); }
+		scratch[target++] = current;
+		continue;
+	    }
+
+	    if(index >= this.end) { break; }
+	    byte escaped = this.bytes[index++];
+
+	    switch(escaped) {
+	    case '"':  scratch[target++] = '"';  break;
+	    case '\\': scratch[target++] = '\\'; break;
+	    case '/':  scratch[target++] = '/';  break;
+	    case 'b':  scratch[target++] = '\b'; break;
+	    case 'f':  scratch[target++] = '\f'; break;
+	    case 'n':  scratch[target++] = '\n'; break;
+	    case 'r':  scratch[target++] = '\r'; break;
+	    case 't':  scratch[target++] = '\t'; break;
+	    case 'u':
+		int code = this.unicodeEscape(index);
+		index += 4;
+
+		// Characters outside the BMP are escaped as a surrogate pair, encoded as one code point
+		if(Character.isHighSurrogate((char) code) && index + 6 <= this.end && this.bytes[index] == '\\' && this.bytes[index + 1] == 'u') {
+		    int low = this.unicodeEscape(index + 2);
+		    if(Character.isLowSurrogate((char) low)) {
+			index += 6;
+			code = Character.toCodePoint((char) code, (char) low);
+		    }
+		}
+
+		// The tree parser keeps unpaired surrogates in its String, encoding it to UTF-8 for the output makes them '?'
+		if(Character.isSurrogate((char) code)) {
+		    scratch[target++] = '?';
+		    break;
+		}
+
+		target = encodeUtf8(code, scratch, target);
+		break;
+	    default:
+		throw this.error("Unrecognized character escape");
+	    }
+	}
+
+	throw this.error("Unexpected end-of-input in string");
+    }
+
+    /* Code point of the four hex digits of a \\u escape at index */
+    private int unicodeEscape(int index) throws JsonParseException {
+	if(index + 4 > this.end) { throw this.error("Unexpected end-of-input in unicode escape"); }
+
+	int code = 0;
+	for(int digit = 0; digit < 4; digit++) {
+	    int nibble = hexValue(this.bytes[index + digit]);
+	    if(nibble < 0) { throw this.error("Illegal unicode escape"); }
+	    code = (code << 4) | nibble;
+	}
+
+	return code;
+    }
+
+    /* A \\u escape produces at most three bytes, a surrogate pair (twelve escape bytes) four */
+    private static int encodeUtf8(int code, byte[] target, int index) {
+	if(code < 0x80) {
+	    target[index++] = (byte) code;
+	}
+	else if(code < 0x800) {
+	    target[index++] = (byte) (0xc0 | (code >> 6));
+	    target[index++] = (byte) (0x80 | (code & 0x3f));
+	}
+	else if(code < 0x10000) {
+	    target[index++] = (byte) (0xe0 | (code >> 12));
+	    target[index++] = (byte) (0x80 | ((code >> 6) & 0x3f));
+	    target[index++] = (byte) (0x80 | (code & 0x3f));
+	}
+	else {
+	    target[index++] = (byte) (0xf0 | (code >> 18));
+	    target[index++] = (byte) (0x80 | ((code >> 12) & 0x3f));
+	    target[index++] = (byte) (0x80 | ((code >> 6) & 0x3f));
+	    target[index++] = (byte) (0x80 | (code & 0x3f));
+	}
+
+	return index;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* GENERIC HELPERS                                                                                   */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private byte peek() throws JsonParseException {
+	if(this.position >= this.end) { throw this.error("Unexpected end-of-input"); }
+
+	return this.bytes[this.position];
+    }
+
+    private void skipWhitespace() {
+	while(this.position < this.end) {
+	    byte current = this.bytes[this.position];
+	    if(current != ' ' && current != '\t' && current != '\r' && current != '\n') { return; }
+	    this.position++;
+	}
+    }
+
+    private JsonParseException error(String message) {
+	return new JsonParseException(message, JsonLocation.NA);
+    }
+
+    private static boolean isDigit(byte current) {
+	return current >= '0' && current <= '9';
+    }
+
+    private static boolean isAscii(byte[] bytes, int start, int end) {
+	for(int index = start; index < end; index++) {
+	    if(bytes[index] < 0) { return false; }
+	}
+
+	return true;
+    }
+
+    private static int hexValue(byte digit) {
+	if(digit >= '0' && digit <= '9') { return digit - '0'; }
+	if(digit >= 'a' && digit <= 'f') { return digit - 'a' + 10; }
+	if(digit >= 'A' && digit <= 'F') { return digit - 'A' + 10; }
+	return -1;
+    }
+}
@@ -0,0 +1,122 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Shuffle key of the dedup mode: the sorted layout key (year, id, month, day) followed by the
+ * version of the record, the modification time of its input file, and a sequence number within
+ * that file, the line offset.
+ *
+ * Keys of a date sort newest first: by descending version, then descending sequence, so of the
+ * observations of a date corrected by a later extract the latest comes first. Records are still
+ * partitioned by year, but grouped by date with DateComparator, so every reducer call gets the
+ * versions of one date and keeps the first.
+ */
+public class JsonlDailyDedupKey extends JsonlDailySortKey {
+    private long version = 0L;
+    private long sequence = 0L;
+
+    static {
+	WritableComparator.define(JsonlDailyDedupKey.class, new Comparator());
+    }
+
+    public void setVersion(long version, long sequence) {
+	this.version = version;
+	this.sequence = sequence;
+    }
+
+    public long getVersion() {
+	return this.version;
+    }
+
+    public long getSequence() {
+	return this.sequence;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+	super.write(out);
+	out.writeLong(this.version);
+	out.writeLong(this.sequence);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+	super.readFields(in);
+	this.version = in.readLong();
+	this.sequence = in.readLong();
+    }
+
+    @Override
+    public int compareTo(JsonlDailySortKey other) {
+	int c = this.compareDate(other);
+	if(c != 0 || !(other instanceof JsonlDailyDedupKey)) { return c; }
+
+	// Newest first
+	JsonlDailyDedupKey otherKey = (JsonlDailyDedupKey) other;
+	if(this.version != otherKey.version) { return (this.version > otherKey.version) ? -1 : 1; }
+	if(this.sequence != otherKey.sequence) { return (this.sequence > otherKey.sequence) ? -1 : 1; }
+
+	return 0;
+    }
+
+    @Override
+    public String toString() {
+	return super.toString() + "\t" + this.version + "\t" + this.sequence;
+    }
+
+    /**
+     * Sort order on the serialized keys: the sorted layout order, then newest first. Version and
+     * sequence are the last 16 bytes of a key.
+     */
+    public static class Comparator extends WritableComparator {
+	private final JsonlDailySortKey.Comparator dateComparator = new JsonlDailySortKey.Comparator();
+
+	public Comparator() {
+	    super(JsonlDailyDedupKey.class);
+	}
+
+	@Override
+	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+	    int c = this.dateComparator.compare(b1, s1, l1, b2, s2, l2);
+	    if(c != 0) { return c; }
+
+	    long version1 = readLong(b1, s1 + l1 - 16);
+	    long version2 = readLong(b2, s2 + l2 - 16);
+	    if(version1 != version2) { return (version1 > version2) ? -1 : 1; }
+
+	    long sequence1 = readLong(b1, s1 + l1 - 8);
+	    long sequence2 = readLong(b2, s2 + l2 - 8);
+	    return (sequence1 > sequence2) ? -1 : ((sequence1 == sequence2) ? 0 : 1);
+	}
+    }
+
+    /**
+     * Grouping order, all versions of a date are equal.
+     */
+    public static class DateComparator extends WritableComparator {
+	private final JsonlDailySortKey.Comparator dateComparator = new JsonlDailySortKey.Comparator();
+
+	public DateComparator() {
+	    super(JsonlDailyDedupKey.class, true);
+	}
+
+	@Override
+	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+	    // The sorted layout comparator stops at the day, before version and sequence
+	    return this.dateComparator.compare(b1, s1, l1, b2, s2, l2);
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public int compare(WritableComparable k1, WritableComparable k2) {
+	    return ((JsonlDailySortKey) k1).compareDate((JsonlDailySortKey) k2);
+	}
+    }
+}
@@ -4,15 +4,29 @@ import java.lang.StringBuilder;
 
 import java.io.InputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.IOException;
 
 import java.nio.charset.StandardCharsets;
 
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.StringTokenizer;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.RemoteIterator;
 
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.LongWritable;
@@ -21,7 +35,10 @@ import org.apache.hadoop.io.Text;
 
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 
+import org.apache.hadoop.mapreduce.lib.input.CombineTextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
@@ -37,11 +54,16 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 
+import org.apache.parquet.avro.AvroParquetInputFormat;
 import org.apache.parquet.avro.AvroParquetOutputFormat;
 import org.apache.parquet.avro.AvroSchemaConverter;
+import org.apache.parquet.hadoop.ParquetOutputFormat;
 import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 
-import se.phaseshift.hadoop.util.WritableGenericRecord;
+import se.phaseshift.hadoop.util.AsyncMultipleOutputs;
+import se.phaseshift.hadoop.util.BgzfTextInputFormat;
+import se.phaseshift.hadoop.util.ConfiguredWritableGenericRecord;
+import se.phaseshift.hadoop.util.SchemaRegistry;
 
 public class JsonlDailyETL extends Configured implements Tool {
 
@@ -51,9 +73,27 @@ public class JsonlDailyETL extends Configured implements Tool {
 	TYPE_ERROR,
 	FIELD_MISSING,
 	VALUE_ERROR,
-	OTHER_VALIDATION
+	OTHER_VALIDATION,
+	DUPLICATES,
+	PROBABLE_DUPLICATES
     }
 
+    public static final String MODE_SHUFFLE  = "shuffle";
+    public static final String MODE_MAP_ONLY = "maponly";
+
+    public static final String LAYOUT_ARRIVAL = "arrival";
+    public static final String LAYOUT_SORTED  = "sorted";
+
+    public static final String INPUT_TEXT    = "text";
+    public static final String INPUT_BGZF    = "bgzf";
+    public static final String INPUT_COMBINE = "combine";
+    public static final String INPUT_PARQUET = "parquet";
+
+    public static final String ASYNC_OUTPUT_KEY       = "climate.daily.output.async";
+    public static final String ASYNC_OUTPUT_QUEUE_KEY = "climate.daily.output.async.queue";
+
+    private Counters counters = null;
+
     public static void main(String[] args)  throws Exception {
 	if(args.length >= 5) {
 	    int res = ToolRunner.run(new Configuration(), new JsonlDailyETL(), args);
@@ -77,56 +117,194 @@ public class JsonlDailyETL extends Configured implements Tool {
         Configuration conf = this.getConf();
 	conf.setBoolean("mapred.output.compress", false);
 
-	// Clean output area, othetwise job will terminate
         FileSystem fs = FileSystem.get(conf);
-	fs.delete(outputPath, true);
+
+	// Incremental runs keep the output area and only process new or changed input files
+	boolean incremental = conf.getBoolean("climate.daily.incremental", false);
+	String runId = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+	Path jobOutputPath = outputPath;
+	JsonlDailyManifest manifest = null;
+	List<JsonlDailyManifest.Entry> newInputs = null;
+
+	// Parquet side input re-shapes partitions of an earlier run, which must not be cleaned first
+	boolean parquetInput = INPUT_PARQUET.equals(conf.get("climate.daily.input.format", INPUT_TEXT));
+	if(parquetInput && !incremental && isWithin(fs, inputPath, outputPath)) {
+	    System.err.println("Parquet input " + inputPath + " lies within the output area " + outputPath + ", which is cleaned");
+	    return 1;
+	}
+
+	if(incremental) {
+	    manifest = JsonlDailyManifest.read(fs, new Path(outputPath, JsonlDailyManifest.MANIFEST_FILE));
+	    newInputs = manifest.findUnprocessed(fs, inputPath);
+
+	    // Only data files of the partitions are Parquet input
+	    if(parquetInput) {
+		for(Iterator<JsonlDailyManifest.Entry> entries = newInputs.iterator(); entries.hasNext(); ) {
+		    if(!JsonlDailyParquetInput.isInput(new Path(entries.next().getPath()))) { entries.remove(); }
+		}
+	    }
+
+	    if(newInputs.isEmpty()) {
+		System.out.println("No new or changed input files, nothing to do");
+		return 0;
+	    }
+
+	    // Run into a staging area, published into the output area when successful
+	    jobOutputPath = new Path(outputPath, "_incremental/" + runId);
+	    fs.delete(jobOutputPath, true);
+	}
+	else {
+	    // Clean output area, othetwise job will terminate
+	    fs.delete(outputPath, true);
+	}
 
 	// Read the output (AVRO) schema
         String outputSchemaString = inputStreamToString(fs.open(outputSchemaPath));
 
-	// Add output schema string to configuration for the mappers of the job
-	conf.set("climate.stations.output.schema", outputSchemaString);
-
 	// Read the input (JSON) schema
 	String inputSchemaString = inputStreamToString(fs.open(inputSchemaPath));
 
-	// Add input schema string to configuration for the mappers of the job
-	conf.set("climate.stations.input.schema", inputSchemaString);
-
 	// Create job
 	Job job = Job.getInstance(conf);
 	job.setJarByClass(JsonlDailyETL.class);
 	job.setJobName("Ghcnd_Daily_Jsonl_ETL");
+
+	// Register the schemas for the tasks of the job, the configuration only holds their fingerprints
+	SchemaRegistry.register(job, JsonlDailyConverter.INPUT_SCHEMA_NAME, new ObjectMapper().readTree(inputSchemaString).toString());
+	SchemaRegistry.register(job, JsonlDailyConverter.OUTPUT_SCHEMA_NAME, new Schema.Parser().parse(outputSchemaString).toString(false));
 	
 	// Configure job
-	job.setInputFormatClass(TextInputFormat.class);
+	String inputFormat = conf.get("climate.daily.input.format", INPUT_TEXT);
+	if(INPUT_BGZF.equals(inputFormat)) {
+	    // Block gzip (bgzip) files are split at member boundaries
+	    job.setInputFormatClass(BgzfTextInputFormat.class);
+	}
+	else if(INPUT_PARQUET.equals(inputFormat)) {
+	    // Partitions of an earlier run, projected onto the output schema
+	    job.setInputFormatClass(AvroParquetInputFormat.class);
+	}
+	else if(INPUT_COMBINE.equals(inputFormat)) {
+	    // Many small (per station) files packed into splits of up to the given size
+	    job.setInputFormatClass(CombineTextInputFormat.class);
+	    CombineTextInputFormat.setMaxInputSplitSize(job, conf.getLong("climate.daily.input.combine.bytes", 256L * 1024 * 1024));
+	}
+	else {
+	    job.setInputFormatClass(TextInputFormat.class);
+	}
 
-	job.setMapperClass(JsonlDailyETLMapper.class);
+	job.setMapperClass(parquetInput ? JsonlDailyParquetMapper.class : JsonlDailyETLMapper.class);
 
-	job.setPartitionerClass(HashPartitioner.class);
-	job.setNumReduceTasks(12);
-	job.setReducerClass(JsonlDailyETLReducer.class);
+	// Parquet records are neither parsed nor validated, worker threads only help JSON input
+	String mapThreads = conf.get(JsonlDailyMapPipeline.THREADS_KEY, "1").trim();
+	if(!parquetInput && !"1".equals(mapThreads)) {
+	    System.out.printf("Multithreaded mapper: %s worker threads per map task\n", mapThreads);
+	}
 
-	job.setMapOutputKeyClass(Text.class);
-	job.setMapOutputValueClass(WritableGenericRecord.class);
+	boolean mapOnly = MODE_MAP_ONLY.equals(conf.get("climate.daily.mode", MODE_SHUFFLE));
+	boolean batched = !mapOnly && !parquetInput && conf.getInt("climate.daily.batch.size", 0) > 0;
+
+	// Dedup keeps the newest version of every date by a secondary sort, map-only runs only count
+	boolean dedup = conf.getBoolean("climate.daily.dedup", false);
+	if(dedup && batched) {
+	    System.out.println("Dedup needs the record shuffle: batched map output disabled");
+	    batched = false;
+	}
+
+	// Rollups are combined by the JSON mapper and merged by the record reducer
+	boolean rollups = conf.getBoolean(JsonlDailyRollups.ENABLED_KEY, false);
+	if(rollups && (mapOnly || batched || parquetInput)) {
+	    System.out.println("Rollups need the record shuffle of JSON input: rollups disabled");
+	    job.getConfiguration().setBoolean(JsonlDailyRollups.ENABLED_KEY, false);
+	    rollups = false;
+	}
+
+	// Station attributes are added by the mappers, batches only carry the observation fields
+	boolean enriched = false;
+	if(conf.get(JsonlDailyStationTable.PATH_KEY) != null) {
+	    if(batched) {
+		System.out.println("Batched map output: station enrichment disabled");
+	    }
+	    else if(!JsonlDailyStationEnricher.isEnriched(new Schema.Parser().parse(outputSchemaString))) {
+		System.out.println("Output schema has no station fields: station enrichment disabled");
+	    }
+	    else {
+		enriched = JsonlDailyStationTable.configure(job);
+	    }
+	}
+
+	if(mapOnly) {
+	    // Mappers write the year partitions themselves, no shuffle needed
+	    job.setNumReduceTasks(0);
+	}
+	else if(batched) {
+	    // Batches of primitive columns per year instead of one Avro record per line
+	    job.setReducerClass(JsonlDailyBatchReducer.class);
+	}
+	else {
+	    job.setReducerClass(JsonlDailyETLReducer.class);
+	}
+
+	if(batched) {
+	    // Batches are keyed by year, the sorted layout does not apply
+	    job.setMapOutputKeyClass(Text.class);
+	    job.setMapOutputValueClass(JsonlDailyRecordBatch.class);
+	    if(LAYOUT_SORTED.equals(conf.get("climate.daily.layout", LAYOUT_ARRIVAL))) {
+		System.out.println("Batched map output: sorted layout ignored");
+	    }
+	}
+	else if(dedup) {
+	    // Secondary sort: partitioned by year, grouped by date, newest version first
+	    job.setMapOutputKeyClass(JsonlDailyDedupKey.class);
+	    job.setGroupingComparatorClass(JsonlDailyDedupKey.DateComparator.class);
+	}
+	else if(LAYOUT_SORTED.equals(conf.get("climate.daily.layout", LAYOUT_ARRIVAL))) {
+	    // Secondary sort: partitioned and grouped by year, sorted by station and date within
+	    job.setMapOutputKeyClass(JsonlDailySortKey.class);
+	    job.setGroupingComparatorClass(JsonlDailySortKey.YearComparator.class);
+	}
+	else {
+	    job.setMapOutputKeyClass(Text.class);
+	}
+
+	if(!batched) {
+	    job.setMapOutputValueClass(ConfiguredWritableGenericRecord.class);
+	}
 
 	job.setOutputFormatClass(AvroParquetOutputFormat.class);
 
 	// Configure input format
-	TextInputFormat.addInputPath(job, inputPath);
+	if(parquetInput) {
+	    this.configureParquetInput(job, fs, inputPath, newInputs, new Schema.Parser().parse(outputSchemaString));
+	}
+	else if(incremental) {
+	    for(JsonlDailyManifest.Entry entry : newInputs) { TextInputFormat.addInputPath(job, new Path(entry.getPath())); }
+	}
+	else {
+	    TextInputFormat.addInputPath(job, inputPath);
+	}
+
+	// Configure partitioner and reducer count, may sample the input
+	if(job.getNumReduceTasks() > 0) {
+	    this.configureReducers(job);
+	}
 	
 	// Configure tex output format for errors
-	AvroParquetOutputFormat.setOutputPath(job, outputPath);
+	AvroParquetOutputFormat.setOutputPath(job, jobOutputPath);
 	LazyOutputFormat.setOutputFormatClass(job, AvroParquetOutputFormat.class);
 
 	// Configure AVRO/Parquet output format for data
 	Schema outputSchema = new Schema.Parser().parse(outputSchemaString);
-        AvroParquetOutputFormat.setOutputPath(job, outputPath);
+        AvroParquetOutputFormat.setOutputPath(job, jobOutputPath);
         AvroParquetOutputFormat.setSchema(job, outputSchema);
+	ConfiguredWritableGenericRecord.setSchema(job, rollups ? JsonlDailyRollups.shuffleSchema(outputSchema) : outputSchema);
         AvroParquetOutputFormat.setCompression(job, CompressionCodecName.SNAPPY);
         AvroParquetOutputFormat.setCompressOutput(job, true);
         AvroParquetOutputFormat.setBlockSize(job, 500 * 1024 * 1024);	
-	AvroParquetOutputFormat.setOutputPath(job, outputPath);
+
+	if(!batched && ((dedup && !mapOnly) || LAYOUT_SORTED.equals(conf.get("climate.daily.layout", LAYOUT_ARRIVAL)))) {
+	    this.configureSortedLayout(job, fs, jobOutputPath);
+	}
+	AvroParquetOutputFormat.setOutputPath(job, jobOutputPath);
 
 	// Create named multiple outputs
 	MultipleOutputs.addNamedOutput(job, "framework", TextOutputFormat.class, Void.class, Text.class);
@@ -134,9 +312,10 @@ public class JsonlDailyETL extends Configured implements Tool {
 	MultipleOutputs.addNamedOutput(job, "validation", TextOutputFormat.class, Void.class, Text.class);
 	MultipleOutputs.addNamedOutput(job, "partitions", AvroParquetOutputFormat.class, Void.class, GenericRecord.class);
 
-	job.waitForCompletion(true);
+	boolean success = job.waitForCompletion(true);
 
 	Counters counters = job.getCounters();
+	this.counters = counters;
 	System.out.printf("Tuples processed: %d\n Parse errors: %d\n Type errors: %d\n Missing fields: %d\n Illegal values: %d\n Other validation errors: %d\n",
 			  counters.findCounter(COUNTERS.TOTAL_PROCESSED).getValue(),
 			  counters.findCounter(COUNTERS.FAILED_PARSING).getValue(),
@@ -145,10 +324,226 @@ public class JsonlDailyETL extends Configured implements Tool {
 			  counters.findCounter(COUNTERS.VALUE_ERROR).getValue(),
 			  counters.findCounter(COUNTERS.OTHER_VALIDATION).getValue());
 
-	return 0;
+	if(dedup) {
+	    System.out.printf(mapOnly ? "Dedup: %2$d probable duplicates kept (map-only)\n" : "Dedup: %1$d duplicates dropped\n",
+			      counters.findCounter(COUNTERS.DUPLICATES).getValue(),
+			      counters.findCounter(COUNTERS.PROBABLE_DUPLICATES).getValue());
+	}
+
+	if(conf.getBoolean(JsonlDailyMetrics.ENABLED_KEY, false)) {
+	    this.printMetrics(counters);
+	}
+
+	if(rollups) {
+	    System.out.printf("Rollups: %d partials in %d spills, %d monthly rows, %d yearly rows\n",
+			      counters.findCounter(JsonlDailyRollups.COUNTERS.PARTIALS).getValue(),
+			      counters.findCounter(JsonlDailyRollups.COUNTERS.SPILLS).getValue(),
+			      counters.findCounter(JsonlDailyRollups.COUNTERS.MONTHLY_ROWS).getValue(),
+			      counters.findCounter(JsonlDailyRollups.COUNTERS.YEARLY_ROWS).getValue());
+	}
+
+	if(conf.getBoolean(ASYNC_OUTPUT_KEY, false)) {
+	    System.out.printf("Async outputs: %d records, %d ms copying, %d ms encoding, %d blocked writes (%d ms)\n",
+			      counters.findCounter(AsyncMultipleOutputs.COUNTERS.RECORDS).getValue(),
+			      counters.findCounter(AsyncMultipleOutputs.COUNTERS.COPY_MILLIS).getValue(),
+			      counters.findCounter(AsyncMultipleOutputs.COUNTERS.ENCODE_MILLIS).getValue(),
+			      counters.findCounter(AsyncMultipleOutputs.COUNTERS.BLOCKED_WRITES).getValue(),
+			      counters.findCounter(AsyncMultipleOutputs.COUNTERS.BLOCKED_MILLIS).getValue());
+	}
+
+	if(enriched) {
+	    System.out.printf("Station enrichment: %d records of unknown stations\n",
+			      counters.findCounter(JsonlDailyStationEnricher.COUNTERS.UNKNOWN_STATIONS).getValue());
+	}
+
+	if(incremental && success) {
+	    this.publishIncrementalRun(fs, jobOutputPath, outputPath, runId, manifest, newInputs);
+	}
+
+	return success ? 0 : 1;
+    }
+
+    /* Counters of the last job run, null if none ran */
+    public Counters getCounters() {
+	return this.counters;
+    }
+
+    private void configureParquetInput(Job job, FileSystem fs, Path inputPath, List<JsonlDailyManifest.Entry> newInputs, Schema outputSchema) throws IOException {
+	List<FileStatus> inputs = new ArrayList<FileStatus>();
+
+	if(newInputs != null) {
+	    for(JsonlDailyManifest.Entry entry : newInputs) { inputs.add(fs.getFileStatus(new Path(entry.getPath()))); }
+	}
+	else {
+	    inputs = JsonlDailyParquetInput.listInputs(fs, inputPath);
+	}
+
+	if(inputs.isEmpty()) {
+	    throw new IOException("No Parquet input files below " + inputPath);
+	}
+
+	for(FileStatus input : inputs) { FileInputFormat.addInputPath(job, input.getPath()); }
+
+	// Only the output fields present in the files are read, the others get their default
+	Schema projection = JsonlDailyParquetInput.configure(job, inputs, outputSchema);
+	System.out.printf("Parquet input: %d files, reading %d of %d output fields\n",
+			  inputs.size(), projection.getFields().size(), outputSchema.getFields().size());
+    }
+
+    private static boolean isWithin(FileSystem fs, Path path, Path directory) {
+	String pathName = fs.makeQualified(path).toUri().getPath();
+	String directoryName = fs.makeQualified(directory).toUri().getPath();
+
+	return pathName.equals(directoryName) || pathName.startsWith(directoryName.endsWith("/") ? directoryName : directoryName + "/");
+    }
+
+    private void printMetrics(Counters counters) {
+	for(String prefix : new String[] { JsonlDailyMetrics.MAP, JsonlDailyMetrics.REDUCE }) {
+	    long records = counters.findCounter(JsonlDailyMetrics.GROUP, prefix + "RECORDS").getValue();
+	    long taskMillis = counters.findCounter(JsonlDailyMetrics.GROUP, prefix + "TASK_MILLIS").getValue();
+	    if(records == 0L) { continue; }
+
+	    // Task time adds up over the tasks, the rate is the mean of a task
+	    System.out.printf("%smetrics: %d records, %.0f records/s per task, %d bytes in, %d bytes out, %d errors\n",
+			      prefix,
+			      records,
+			      (taskMillis > 0L) ? records * 1000.0 / taskMillis : 0.0,
+			      counters.findCounter(JsonlDailyMetrics.GROUP, prefix + "BYTES_IN").getValue(),
+			      counters.findCounter(JsonlDailyMetrics.GROUP, prefix + "BYTES_OUT").getValue(),
+			      counters.findCounter(JsonlDailyMetrics.GROUP, prefix + "ERRORS").getValue());
+
+	    for(JsonlDailyMetrics.STAGE stage : JsonlDailyMetrics.STAGE.values()) {
+		double meanNanos = JsonlDailyMetrics.meanNanos(counters, prefix, stage);
+		if(meanNanos >= 0.0) { System.out.printf(" %s: %.0f ns/record (sampled)\n", stage, meanNanos); }
+	    }
+	}
+    }
+
+    private void publishIncrementalRun(FileSystem fs, Path stagingPath, Path outputPath, String runId,
+				       JsonlDailyManifest manifest, List<JsonlDailyManifest.Entry> newInputs) throws IOException {
+	Configuration conf = this.getConf();
+	TreeSet<String> touchedYears = new TreeSet<String>();
+	String stagingRoot = fs.makeQualified(stagingPath).toUri().getPath();
+
+	// Move every output file into the same relative directory of the output area, prefixed by the run id
+	RemoteIterator<LocatedFileStatus> files = fs.listFiles(stagingPath, true);
+	while(files.hasNext()) {
+	    Path file = files.next().getPath();
+	    String relativeDir = file.getParent().toUri().getPath().substring(stagingRoot.length());
+	    if(relativeDir.isEmpty() || relativeDir.contains("/_") || file.getName().startsWith("_") || file.getName().startsWith(".")) {
+		continue;
+	    }
+
+	    Path targetDir = new Path(outputPath, relativeDir.substring(1));
+	    fs.mkdirs(targetDir);
+	    if(!fs.rename(file, new Path(targetDir, runId + "-" + file.getName()))) {
+		throw new IOException("Could not publish " + file + " into " + targetDir);
+	    }
+
+	    if(relativeDir.startsWith("/partitions/")) {
+		touchedYears.add(relativeDir.substring("/partitions/".length()));
+	    }
+	}
+
+	fs.delete(stagingPath, true);
+
+	// Record processed inputs only once their output is published
+	for(JsonlDailyManifest.Entry entry : newInputs) { manifest.add(entry); }
+	manifest.write(fs, new Path(outputPath, JsonlDailyManifest.MANIFEST_FILE));
+
+	// Generate the Hive statements registering the touched year partitions
+	String table = conf.get("climate.daily.hive.table", "climate_daily");
+	Path statementsPath = new Path(outputPath, JsonlDailyManifest.MANIFEST_DIR + "/partitions-" + runId + ".hql");
+	BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fs.create(statementsPath, true), StandardCharsets.UTF_8));
+
+	try {
+	    for(String year : touchedYears) {
+		Path location = fs.makeQualified(new Path(outputPath, "partitions/" + year));
+		writer.write("ALTER TABLE " + table + " ADD IF NOT EXISTS PARTITION (year='" + year + "') LOCATION '" + location.toUri().getPath() + "';");
+		writer.newLine();
+	    }
+	}
+	finally {
+	    writer.close();
+	}
+
+	System.out.printf("Incremental run %s: %d new input files, %d touched year partitions (%s)\n",
+			  runId, newInputs.size(), touchedYears.size(), statementsPath);
+    }
+
+    private void configureSortedLayout(Job job, FileSystem fs, Path outputPath) {
+	Configuration conf = job.getConfiguration();
+
+	// One row group per HDFS block, a row group never spans blocks
+	long rowGroupBytes = conf.getLong("climate.daily.rowgroup.bytes", fs.getDefaultBlockSize(outputPath));
+	AvroParquetOutputFormat.setBlockSize(job, (int) Math.min(rowGroupBytes, Integer.MAX_VALUE));
+
+	// Station ids repeat in sorted runs, keep them dictionary encoded for all stations of a row group
+	AvroParquetOutputFormat.setEnableDictionary(job, true);
+	AvroParquetOutputFormat.setDictionaryPageSize(job, conf.getInt("climate.daily.dictionary.bytes", 4 * 1024 * 1024));
+
+	System.out.printf("Sorted layout: row groups of %d bytes\n", conf.getLong(ParquetOutputFormat.BLOCK_SIZE, 0L));
+    }
+
+    private void configureReducers(Job job) throws IOException, InterruptedException {
+	Configuration conf = job.getConfiguration();
+	String reducers = conf.get("climate.daily.reducers", "12");
+	boolean autoReducers = "auto".equals(reducers);
+	boolean yearPartitioner = "year".equals(conf.get("climate.daily.partitioner", "hash"));
+
+	// Sample the year histogram for the year partitioner, input size is always known
+	JsonlDailyYearSampler sampler = null;
+	if(yearPartitioner || autoReducers) {
+	    sampler = new JsonlDailyYearSampler(yearPartitioner ? conf.getInt("climate.daily.sampler.splits", 20) : 0,
+						conf.getInt("climate.daily.sampler.records", 10000),
+						conf.getLong("climate.daily.sampler.bytes", 64L * 1024 * 1024));
+	    sampler.sample(job);
+	}
+
+	int numReducers = 0;
+	if(autoReducers) {
+	    long bytesPerReducer = conf.getLong("climate.daily.reducer.bytes", 1024L * 1024 * 1024);
+	    long wanted = (sampler.getInputBytes() + bytesPerReducer - 1) / bytesPerReducer;
+	    numReducers = (int) Math.min(conf.getInt("climate.daily.reducers.max", 64), Math.max(1L, wanted));
+
+	    // All records of a year go to the same reducer, more reducers than years would idle
+	    if(yearPartitioner && !sampler.getHistogram().isEmpty()) {
+		numReducers = Math.min(numReducers, sampler.getHistogram().size());
+	    }
+	}
+	else {
+	    numReducers = Integer.parseInt(reducers);
+	}
+
+	job.setNumReduceTasks(numReducers);
+
+	if(yearPartitioner) {
+	    JsonlDailyYearPartitioner.setHistogram(conf, sampler.getHistogram());
+	    job.setPartitionerClass(JsonlDailyYearPartitioner.class);
+	}
+	else {
+	    job.setPartitionerClass(HashPartitioner.class);
+	}
+
+	System.out.printf("Reducers: %d (%s partitioner, %d sampled years)\n",
+			  numReducers,
+			  yearPartitioner ? "year" : "hash",
+			  (sampler != null) ? sampler.getHistogram().size() : 0);
+    }
+
+    /* Named outputs of a task, written by encoder threads in async output mode */
+    @SuppressWarnings("unchecked")
+    static MultipleOutputs createOutputs(TaskInputOutputContext context) {
+	Configuration conf = context.getConfiguration();
+
+	if(conf.getBoolean(ASYNC_OUTPUT_KEY, false)) {
+	    return new AsyncMultipleOutputs(context, conf.getInt(ASYNC_OUTPUT_QUEUE_KEY, 1024));
+	}
+
+	return new MultipleOutputs(context);
     }
 
-    private String inputStreamToString(InputStream is) throws IOException {
+    static String inputStreamToString(InputStream is) throws IOException {
 	BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));     
 	StringBuilder buffer = new StringBuilder(8192);
 	String str = null;
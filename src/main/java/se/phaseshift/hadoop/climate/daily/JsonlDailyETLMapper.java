@@ -3,40 +3,51 @@ package se.phaseshift.hadoop.climate.daily;
 import java.lang.InterruptedException;
 
 import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.io.StringReader;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
 // JSON parser
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 // JSON Schema validator
-import com.github.fge.jsonschema.exceptions.ProcessingException;
-import com.github.fge.jsonschema.main.JsonSchema;
-import com.github.fge.jsonschema.main.JsonSchemaFactory;
-import com.github.fge.jsonschema.report.ProcessingReport;
 import com.github.fge.jsonschema.report.ProcessingMessage;
 import com.github.fge.jsonschema.report.LogLevel;
 
 // MapReduce & Hadoop
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskCounter;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import org.apache.hadoop.fs.Path;
+
+import org.apache.hadoop.util.ReflectionUtils;
 
 // AVRO
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericRecordBuilder;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
 
 // AVRO UTILS
 import se.phaseshift.hadoop.util.WritableGenericRecord;
+import se.phaseshift.hadoop.util.ParquetPartitionWriterPool;
 
 // Parquet
 import org.apache.parquet.Log;
@@ -44,40 +55,184 @@ import org.apache.parquet.Log;
 // Logging
 import org.apache.log4j.Logger;
 
-public class JsonlDailyETLMapper extends Mapper<LongWritable, Text, Text, WritableGenericRecord> {
-    private GenericRecordBuilder recordBuilder = null;
-    private ObjectMapper objectMapper = null;
-    private JsonSchema inputSchema = null;
+public class JsonlDailyETLMapper extends Mapper<LongWritable, Text, WritableComparable, Writable> {
+    private JsonlDailyConverter converter = null;
     private Schema outputSchema = null;
     private MultipleOutputs outputStreams = null;
+    private WritableGenericRecord outputRecord = null;
+    private ParquetPartitionWriterPool partitionWriters = null;
+    private JsonlDailyErrorSink errorSink = null;
+    private boolean combinedInput = false;
+    private Text yearKey = new Text();
+    private String yearPartition = null;
+    private int yearKeyValue = Integer.MIN_VALUE;
+    private JsonlDailySortKey sortKey = null;
+    private JsonlDailyDedupKey dedupKey = null;
+    private boolean combinedVersions = false;
+    private String versionFile = null;
+    private long inputVersion = 0L;
+    private JsonlDailyBloomFilter seenKeys = null;
+    private Counter probableDuplicates = null;
+    private Map<Integer, JsonlDailyRecordBatch> batches = null;
+    private JsonlDailyRecordBatch lastBatch = null;
+    private int batchSize = 0;
+    private JsonlDailyRollups rollups = null;
+    private GenericData.Record rollupRecord = null;
+    private JsonlDailyStationEnricher enricher = null;
+    private Counter unknownStations = null;
+    private Counter processedCounter = null;
+    private JsonlDailyMetrics metrics = null;
+    private JsonlDailyMetrics.Stripe stripe = null;
+    private int maxExplained = 0;
+    private int explained = 0;
+    private JsonlDailyMapPipeline pipeline = null;
+    private GenericRecordBuilder recordBuilder = null;
+    private String batchInputFile = null;
+    private Text replayedLine = null;
+    private final JsonlDailyValidationException.FastFail replayedFailure = new JsonlDailyValidationException.FastFail();
+
+    private final JsonlDailyValidationException.Explainer replayer = new JsonlDailyValidationException.Explainer() {
+	@Override
+	public Iterable<ProcessingMessage> explain() {
+	    return JsonlDailyETLMapper.this.replay();
+	}
+    };
 
     /*---------------------------------------------------------------------------------------------------*/
     /* MAPPER IMPLEMENTATION                                                                             */
     /*---------------------------------------------------------------------------------------------------*/    
 
     @Override
-    public void setup(Context context) {
+    public void setup(Context context) throws IOException, InterruptedException {
 	// Get configuration
 	Configuration conf = context.getConfiguration();
 	conf.setBoolean("mapred.output.compress", false);
 	
-	// Create multiple outputs 
-	this.outputStreams = new MultipleOutputs(context);
+	// Create multiple outputs, written by encoder threads in async output mode
+	this.outputStreams = JsonlDailyETL.createOutputs(context);
 
-	// Create an Jackson Object mapper needed for JSON parsing
-	this.objectMapper = new ObjectMapper();
-	
 	try {
-	    // Create a JSON input schema used as input validator
-	    JsonNode schemaNode = this.objectMapper.readTree(conf.get("climate.stations.input.schema"));
-	    this.inputSchema = JsonSchemaFactory.byDefault().getJsonSchema(schemaNode);
+	    // Create the parsing, validation and conversion core
+	    this.converter = JsonlDailyConverter.create(conf);
+	    this.outputSchema = this.converter.getOutputSchema();
+
+	    // Fast fail rejections are only explained in errors/validation for the first lines
+	    this.maxExplained = conf.getInt("climate.daily.validation.explain.max", 1000);
+
+	    // Look up the counter incremented for every line once
+	    this.processedCounter = context.getCounter(JsonlDailyETL.COUNTERS.TOTAL_PROCESSED);
+
+	    // Sampled stage timings, published when the task ends
+	    this.metrics = JsonlDailyMetrics.create(conf);
+	    if(this.metrics != null) {
+		this.stripe = this.metrics.stripe();
+		this.converter.setMetrics(this.stripe);
+	    }
+
+	    // Multithreaded mode parses and validates on worker threads, with a converter each
+	    int threads = JsonlDailyMapPipeline.threads(conf);
+	    if(threads > 1) {
+		List<JsonlDailyConverter> converters = new ArrayList<JsonlDailyConverter>();
+		for(int index = 0; index < threads; index++) { converters.add(JsonlDailyConverter.create(conf)); }
+
+		this.pipeline = new JsonlDailyMapPipeline(converters, this.metrics, conf.getInt(JsonlDailyMapPipeline.BATCH_LINES_KEY, 256));
+		this.recordBuilder = new GenericRecordBuilder(this.outputSchema);
+	    }
+
+	    if(JsonlDailyRecordBatch.class.equals(context.getMapOutputValueClass())) {
+		// Batched mode ships primitive record batches per year
+		this.batches = new HashMap<Integer, JsonlDailyRecordBatch>();
+		this.batchSize = Math.max(1, conf.getInt("climate.daily.batch.size", 4096));
+	    }
+	    else {
+		// Create the (reused) writable wrapper of the configured map output value class
+		this.outputRecord = (WritableGenericRecord) ReflectionUtils.newInstance(context.getMapOutputValueClass(), conf);
+	    }
+
+	    // Map-only mode writes the year partitions directly into the task work directory
+	    if(JsonlDailyETL.MODE_MAP_ONLY.equals(conf.get("climate.daily.mode", JsonlDailyETL.MODE_SHUFFLE))) {
+		Path partitionsPath = new Path(FileOutputFormat.getWorkOutputPath(context), "partitions");
+		String fileName = FileOutputFormat.getUniqueFile(context, "data", "");
+		this.partitionWriters = new ParquetPartitionWriterPool(conf, partitionsPath, fileName, this.outputSchema);
+	    }
 
-	    // Create a record builder for output (AVRO) records
-	    this.outputSchema = new Schema.Parser().parse(conf.get("climate.stations.output.schema"));
-	    this.recordBuilder = new GenericRecordBuilder(this.outputSchema);
+	    // Dedup mode shuffles on (year, id, month, day, version, offset), newest version first
+	    boolean dedup = conf.getBoolean("climate.daily.dedup", false);
+	    if(dedup && this.partitionWriters == null) {
+		this.dedupKey = new JsonlDailyDedupKey();
+		this.sortKey = this.dedupKey;
+		this.combinedVersions = !(context.getInputSplit() instanceof FileSplit);
+		this.inputVersion(context);
+	    }
+	    // Sorted layout shuffles on (year, id, month, day) instead of year
+	    else if(JsonlDailyETL.LAYOUT_SORTED.equals(conf.get("climate.daily.layout", JsonlDailyETL.LAYOUT_ARRIVAL))) {
+		this.sortKey = new JsonlDailySortKey();
+	    }
+
+	    // Map-only dedup can only count the probable duplicates within the task
+	    if(dedup && this.partitionWriters != null) {
+		long expectedKeys = context.getInputSplit().getLength() / Math.max(1, conf.getInt("climate.daily.dedup.bloom.line.bytes", 64));
+		this.seenKeys = new JsonlDailyBloomFilter(expectedKeys, conf.getFloat("climate.daily.dedup.bloom.fpp", 0.01f));
+		this.probableDuplicates = context.getCounter(JsonlDailyETL.COUNTERS.PROBABLE_DUPLICATES);
+	    }
+
+	    // Monthly rollups are combined in a bounded table, spilled into the shuffle when full (dedup
+	    // mode rolls up the kept records in the reducer instead)
+	    if(conf.getBoolean(JsonlDailyRollups.ENABLED_KEY, false) && this.outputRecord != null && this.partitionWriters == null && this.dedupKey == null) {
+		this.rollups = new JsonlDailyRollups(conf.getInt(JsonlDailyRollups.MAX_ENTRIES_KEY, 65536));
+		this.rollupRecord = new GenericData.Record(JsonlDailyRollups.PARTIAL_SCHEMA);
+	    }
+
+	    // Station attributes are looked up in the memory mapped station table of the job
+	    JsonlDailyStationTable stationTable = JsonlDailyStationTable.get(conf);
+	    if(stationTable != null) {
+		this.enricher = new JsonlDailyStationEnricher(stationTable, this.outputSchema);
+		this.unknownStations = context.getCounter(JsonlDailyStationEnricher.COUNTERS.UNKNOWN_STATIONS);
+	    }
+
+	    // Structured errors are sampled and written as a Parquet file per split
+	    if(JsonlDailyErrorSink.FORMAT_PARQUET.equals(conf.get("climate.daily.errors.format", JsonlDailyErrorSink.FORMAT_TEXT))) {
+		Path errorsPath = new Path(FileOutputFormat.getWorkOutputPath(context), "errors");
+		String fileName = FileOutputFormat.getUniqueFile(context, "errors", ".parquet");
+		this.combinedInput = !(context.getInputSplit() instanceof FileSplit);
+		this.errorSink = new JsonlDailyErrorSink(conf,
+							 new Path(errorsPath, fileName),
+							 this.inputFileName(context),
+							 context.getTaskAttemptID().getTaskID().getId());
+	    }
+	}
+	catch(IOException ioe) {
+	    throw ioe;
 	}
 	catch(Exception e) {
-	    System.out.println(e.toString());
+	    // A mapper without its converter, writers or tables would only fail on every line
+	    throw new IOException("Mapper setup failed: " + e.toString(), e);
+	}
+    }
+
+    @Override
+    public void run(Context context) throws IOException, InterruptedException {
+	this.setup(context);
+
+	try {
+	    if(this.pipeline != null) {
+		// Parsed and validated by the worker threads, written by this thread in input order
+		final Context taskContext = context;
+		this.pipeline.run(context, new JsonlDailyMapPipeline.Writer() {
+			@Override
+			public void write(JsonlDailyMapPipeline.Batch batch) throws IOException, InterruptedException {
+			    JsonlDailyETLMapper.this.writeBatch(batch, taskContext);
+			}
+		    });
+	    }
+	    else {
+		while(context.nextKeyValue()) {
+		    this.map(context.getCurrentKey(), context.getCurrentValue(), context);
+		}
+	    }
+	}
+	finally {
+	    this.cleanup(context);
 	}
     }
 
@@ -85,119 +240,318 @@ public class JsonlDailyETLMapper extends Mapper<LongWritable, Text, Text, Writab
     public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
 	try {
 	    // Increment how many tuples were processed
-	    context.getCounter(JsonlDailyETL.COUNTERS.TOTAL_PROCESSED).increment(1);
-
-	    // Parse JSON line data into JsonNode
-	    JsonNode jsonNode = this.parseJsonInstance(value.toString());
-	    
-	    // Validate against schema
-	    this.validateJsonInstance(jsonNode);
-	    
-	    // Extract data from JSON line instance 	
-	    String  dailyId    = jsonNode.get("id").asText();
-	    Integer dailyYear  = new Integer(jsonNode.get("year").asInt());
-	    Integer dailyMonth = new Integer(jsonNode.get("month").asInt());
-	    Integer dailyDay   = new Integer(jsonNode.get("day").asInt());
-	    Float   dailyValue = new Float(jsonNode.get("value").asDouble());
-	    
-	    // Extract MapReduce meta-data potentially used in KPI calculation
-	    FileSplit fileSplit   = (FileSplit) context.getInputSplit();	
-	    String fileName       = fileSplit.getPath().getName();
-	    
-	    // Configre generic AVRO record output data
-	    this.recordBuilder.set("id"   , dailyId);
-	    this.recordBuilder.set("year" , dailyYear);
-	    this.recordBuilder.set("month", dailyMonth);
-	    this.recordBuilder.set("day"  , dailyDay);
-	    this.recordBuilder.set("value", dailyValue);
-
-	    // Generate AVRO record and wrap it to be writable
-	    WritableGenericRecord record = new WritableGenericRecord(this.recordBuilder.build());
+	    this.processedCounter.increment(1);
+	    if(this.stripe != null) { this.stripe.begin(value.getLength()); }
+
+	    if(this.batches != null) {
+		// Parse and validate only, the fields go into the batch of their year
+		this.converter.decode(value.getBytes(), value.getLength());
+		this.batchRecord(this.converter.getStationCode(),
+				 this.converter.getId(),
+				 this.converter.getYear(),
+				 this.converter.getMonth(),
+				 this.converter.getDay(),
+				 this.converter.getValue(),
+				 context);
+		return;
+	    }
 
-	    // Dispatch data		
-	    context.write(new Text(dailyYear.toString()), record);
+	    // Parse, validate and generate AVRO record
+	    GenericRecord dailyRecord = this.converter.convert(value.getBytes(), value.getLength());
+	    this.dispatch(dailyRecord,
+			  this.converter.getId(),
+			  this.converter.getYear(),
+			  this.converter.getMonth(),
+			  this.converter.getDay(),
+			  this.converter.getValue(),
+			  key.get(),
+			  context);
 	}
 	catch(JsonProcessingException jpe) {
-	    // Increment how many tuples failed parsing
-	    context.getCounter(JsonlDailyETL.COUNTERS.FAILED_PARSING).increment(1);
+	    if(this.stripe != null) { this.stripe.error(); }
+	    this.parsingError(key.get(), jpe, context);
 
 	    // this.writeParserError(value, jpe);
 	}
+	catch(JsonlDailyValidationException.FastFail ff) {
+	    if(this.stripe != null) { this.stripe.error(); }
+	    this.fastFailError(key.get(), value, ff, context);
+	}
 	catch(JsonlDailyValidationException jve) {
-
-
-	    /* (ProcessingMessage JSON node value in text:
-	    { level="error", 
-	      schema={"loadingURI":"#","pointer":"/properties/year"}, 
-              instance={"pointer":"/year"}, 
-              domain="validation", 
-              keyword="minimum", 
-              message="number is lower than the required minimum", 
-              minimum=1900, 
-              found=1895}
-	    */
-
-	    for(ProcessingMessage pm : jve) {
-		JsonNode processingMessageNode = pm.asJson();
-		JsonNode instanceNode = processingMessageNode.get("instance");
-		JsonNode keywordNode = processingMessageNode.get("keyword");
-		String keywordValue = keywordNode.asText();
-
-		switch(keywordValue) {
-		case "type":
-		    // Type error
-		    context.getCounter(JsonlDailyETL.COUNTERS.TYPE_ERROR).increment(1);
-
-		    /*
-		      JsonNode pointerNode = instanceNode.get("pointer");
-		      String pointerValue = pointerNode.asText();
-		    */
-		    break;
-		case "required":
-		    // Missing field
-		    context.getCounter(JsonlDailyETL.COUNTERS.FIELD_MISSING).increment(1);
-		    break;
-		case "pattern":
-		case "maximum":
-		case "minimum":
-		    // Semantic error (Wrong string format, illegal value
-		    context.getCounter(JsonlDailyETL.COUNTERS.VALUE_ERROR).increment(1);
-
-		    /*
-		      JsonNode pointerNode = instanceNode.get("pointer");
-		      String pointerValue = pointerNode.asText();
-		    */
-		    break;
-		default:
-		    // Other faile validation
-		    context.getCounter(JsonlDailyETL.COUNTERS.OTHER_VALIDATION).increment(1);
-		}
-		
-		this.outputStreams.write("validation", 
-					 NullWritable.get(), 
-					 value + " -> " + processingMessageNode.toString(),
-					 "errors/validation");	
-	    }
+	    if(this.stripe != null) { this.stripe.error(); }
+	    this.validationError(key.get(), value, jve, context);
 
 	    // this.writeValidationError(value, jve);
 	}
 	catch(Exception e) {
-	    this.writeFrameworkError(e);
+	    if(this.stripe != null) { this.stripe.error(); }
+	    this.frameworkError(key.get(), e, context);
 	}
     }
 
     @Override
     protected void cleanup(Context context) throws IOException, InterruptedException {
+	// Ship the partially filled batches (batched mode)
+	if(this.batches != null) {
+	    for(JsonlDailyRecordBatch batch : this.batches.values()) {
+		if(batch.size() > 0) { context.write(this.yearKey(batch.getYear()), batch); }
+	    }
+	}
+
+	// Ship the remaining partial rollups (rollup mode)
+	if(this.rollups != null && this.rollups.size() > 0) {
+	    this.spillRollups(context);
+	}
+
+	// Close open partition writers (map-only mode)
+	if(this.partitionWriters != null) {
+	    this.partitionWriters.close();
+	}
+
+	// Write sampled errors (structured error mode)
+	if(this.errorSink != null) {
+	    this.errorSink.close();
+	}
+
+	// Publish stage timings (metrics mode)
+	if(this.metrics != null) {
+	    this.metrics.publish(context, this.outputBytes(context));
+	}
+
 	// Close multiple outputs!
 	this.outputStreams.close();
     }
 
+    /*---------------------------------------------------------------------------------------------------*/
+    /* DISPATCH HELPERS                                                                                  */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private void dispatch(GenericRecord dailyRecord, CharSequence id, int year, int month, int day, float value, long offset, Context context) throws IOException, InterruptedException {
+	if(this.enricher != null && !this.enricher.enrich(dailyRecord, id)) {
+	    this.unknownStations.increment(1);
+	}
+
+	if(this.partitionWriters != null) {
+	    if(this.seenKeys != null && this.seenKeys.put(id, year, month, day)) {
+		this.probableDuplicates.increment(1);
+	    }
+
+	    // Write AVRO record straight into its year partition
+	    this.yearKey(year);
+	    this.partitionWriters.write(this.yearPartition, dailyRecord);
+	    if(this.stripe != null) { this.stripe.lap(JsonlDailyMetrics.STAGE.WRITE); }
+	    return;
+	}
+
+	// Wrap AVRO record to be writable
+	this.outputRecord.setRecord(dailyRecord);
+
+	// Dispatch data
+	if(this.sortKey != null) {
+	    this.sortKey.set(year, id, month, day);
+	    if(this.dedupKey != null) {
+		this.dedupKey.setVersion(this.combinedVersions ? this.inputVersion(context) : this.inputVersion, offset);
+	    }
+	    context.write(this.sortKey, this.outputRecord);
+	}
+	else {
+	    context.write(this.yearKey(year), this.outputRecord);
+	}
+	if(this.stripe != null) { this.stripe.lap(JsonlDailyMetrics.STAGE.WRITE); }
+
+	// Combine into the monthly rollup of the station, a full table is shipped first
+	if(this.rollups != null && !this.rollups.add(id, year, month, value)) {
+	    this.spillRollups(context);
+	    this.rollups.add(id, year, month, value);
+	}
+    }
+
+    private void writeBatch(JsonlDailyMapPipeline.Batch batch, Context context) throws IOException, InterruptedException {
+	// Lines of a combined split are batched per input file
+	this.batchInputFile = batch.getInputFile();
+	this.processedCounter.increment(batch.size());
+
+	for(int row = 0; row < batch.size(); row++) {
+	    long offset = batch.getOffset(row);
+	    Exception failure = batch.getFailure(row);
+
+	    try {
+		if(failure instanceof JsonProcessingException) {
+		    this.parsingError(offset, (JsonProcessingException) failure, context);
+		}
+		else if(failure instanceof JsonlDailyValidationException) {
+		    this.validationError(offset, batch.getLine(row), (JsonlDailyValidationException) failure, context);
+		}
+		else if(failure != null) {
+		    this.frameworkError(offset, failure, context);
+		}
+		else if(batch.getFastFailKeyword(row) != null) {
+		    // Explained, if at all, by validating the line again on this thread
+		    this.replayedLine = batch.getLine(row);
+		    this.fastFailError(offset, batch.getLine(row), this.replayedFailure.reset(batch.getFastFailKeyword(row), this.replayer), context);
+		}
+		else if(this.batches != null) {
+		    // Station codes of the workers differ, the batch interns the ids itself
+		    this.batchRecord(JsonlDailyStationDictionary.NO_CODE,
+				     batch.getId(row),
+				     batch.getYear(row),
+				     batch.getMonth(row),
+				     batch.getDay(row),
+				     batch.getValue(row),
+				     context);
+		}
+		else {
+		    this.recordBuilder.set("id"   , batch.getId(row));
+		    this.recordBuilder.set("year" , JsonlDailyObservation.box(batch.getYear(row)));
+		    this.recordBuilder.set("month", JsonlDailyObservation.box(batch.getMonth(row)));
+		    this.recordBuilder.set("day"  , JsonlDailyObservation.box(batch.getDay(row)));
+		    this.recordBuilder.set("value", Float.valueOf(batch.getValue(row)));
+
+		    this.dispatch(this.recordBuilder.build(),
+				  batch.getId(row),
+				  batch.getYear(row),
+				  batch.getMonth(row),
+				  batch.getDay(row),
+				  batch.getValue(row),
+				  offset,
+				  context);
+		}
+	    }
+	    catch(Exception e) {
+		this.frameworkError(offset, e, context);
+	    }
+	}
+    }
+
+    private Iterable<ProcessingMessage> replay() {
+	List<ProcessingMessage> messages = new ArrayList<ProcessingMessage>();
+
+	try {
+	    this.converter.decode(this.replayedLine.getBytes(), this.replayedLine.getLength());
+	}
+	catch(JsonlDailyValidationException jve) {
+	    // Copied, the exception of the converter is reused by the next replay
+	    for(ProcessingMessage pm : jve) { messages.add(pm); }
+	}
+	catch(Exception e) {
+	    // Not rejected by validation on this thread, nothing to explain
+	}
+
+	return messages;
+    }
+
     /*---------------------------------------------------------------------------------------------------*/
     /* PARSING HELPERS                                                                                   */
     /*---------------------------------------------------------------------------------------------------*/
 
-    private JsonNode parseJsonInstance(String jsonString) throws Exception, JsonProcessingException {
-	return this.objectMapper.readTree(jsonString);
+    private void parsingError(long offset, JsonProcessingException jpe, Context context) throws IOException {
+	// Increment how many tuples failed parsing
+	context.getCounter(JsonlDailyETL.COUNTERS.FAILED_PARSING).increment(1);
+
+	if(this.errorSink != null) {
+	    this.updateInputFile(context);
+	    this.errorSink.parsingError(offset, jpe);
+	}
+    }
+
+    private String inputFileName(Context context) {
+	// Multithreaded mode: the file of the lines being written, the reader may have moved on
+	if(this.batchInputFile != null) {
+	    return this.batchInputFile;
+	}
+
+	// Plain file splits know their file, other splits leave it in the configuration
+	if(context.getInputSplit() instanceof FileSplit) {
+	    return ((FileSplit) context.getInputSplit()).getPath().toString();
+	}
+
+	return context.getConfiguration().get("mapreduce.map.input.file", "");
+    }
+
+    private void updateInputFile(Context context) {
+	// Combined splits switch files while the task runs, only looked up on the error path
+	if(this.combinedInput) {
+	    this.errorSink.setInputFile(this.inputFileName(context));
+	}
+    }
+
+    private long inputVersion(Context context) throws IOException {
+	String inputFile = this.inputFileName(context);
+
+	// Combined splits switch files while the task runs, each file is looked up once
+	if(!inputFile.equals(this.versionFile)) {
+	    this.inputVersion = 0L;
+	    if(!inputFile.isEmpty()) {
+		Path inputPath = new Path(inputFile);
+		this.inputVersion = inputPath.getFileSystem(context.getConfiguration()).getFileStatus(inputPath).getModificationTime();
+	    }
+	    this.versionFile = inputFile;
+	}
+
+	return this.inputVersion;
+    }
+
+    private void batchRecord(int stationCode, CharSequence id, int dailyYear, int month, int day, float value, Context context) throws IOException, InterruptedException {
+	JsonlDailyRecordBatch batch = this.lastBatch;
+
+	// Input is mostly ordered by station and date, so the batch rarely changes
+	if(batch == null || batch.getYear() != dailyYear) {
+	    batch = this.batches.get(dailyYear);
+	    if(batch == null) {
+		batch = new JsonlDailyRecordBatch(dailyYear);
+		this.batches.put(dailyYear, batch);
+	    }
+
+	    this.lastBatch = batch;
+	}
+
+	batch.add(stationCode, id, month, day, value);
+	if(this.stripe != null) { this.stripe.lap(JsonlDailyMetrics.STAGE.BUILD); }
+
+	if(batch.size() >= this.batchSize) {
+	    context.write(this.yearKey(dailyYear), batch);
+	    batch.clear();
+	    if(this.stripe != null) { this.stripe.lap(JsonlDailyMetrics.STAGE.WRITE); }
+	}
+    }
+
+    private void spillRollups(Context context) throws IOException, InterruptedException {
+	for(int entry = 0; entry < this.rollups.size(); entry++) {
+	    this.outputRecord.setRecord(this.rollups.partial(entry, this.rollupRecord));
+
+	    if(this.sortKey != null) {
+		// Day 0 sorts the partial rollups of a station month before its days
+		this.sortKey.set(this.rollups.getYear(entry), this.rollups.getId(entry), this.rollups.getMonth(entry), 0);
+		context.write(this.sortKey, this.outputRecord);
+	    }
+	    else {
+		context.write(this.yearKey(this.rollups.getYear(entry)), this.outputRecord);
+	    }
+	}
+
+	context.getCounter(JsonlDailyRollups.COUNTERS.SPILLS).increment(1);
+	context.getCounter(JsonlDailyRollups.COUNTERS.PARTIALS).increment(this.rollups.size());
+	this.rollups.clear();
+    }
+
+    private long outputBytes(Context context) throws IOException, InterruptedException {
+	// Map output is counted by the framework, map-only partitions are measured once closed
+	if(this.partitionWriters == null) {
+	    return context.getCounter(TaskCounter.MAP_OUTPUT_BYTES).getValue();
+	}
+
+	return JsonlDailyMetrics.partitionBytes(context);
+    }
+
+    private Text yearKey(int year) {
+	// Input is mostly ordered by station and date, so the key rarely changes
+	if(year != this.yearKeyValue) {
+	    this.yearPartition = Integer.toString(year);
+	    this.yearKey.set(this.yearPartition);
+	    this.yearKeyValue = year;
+	}
+
+	return this.yearKey;
     }
 
     private void writeParserError(Text value, JsonProcessingException jpe) throws IOException, InterruptedException {
@@ -211,15 +565,54 @@ public class JsonlDailyETLMapper extends Mapper<LongWritable, Text, Text, Writab
     /* VALIDATION HELPERS                                                                                */
     /*---------------------------------------------------------------------------------------------------*/
     
-    private boolean validateJsonInstance(JsonNode jsonNode) throws Exception, JsonlDailyValidationException {
-	ProcessingReport validationReport = this.inputSchema.validate(jsonNode);
-	if(!validationReport.isSuccess()) { 
-	    throw new JsonlDailyValidationException(validationReport); 
+    private void fastFailError(long offset, Text value, JsonlDailyValidationException.FastFail ff, Context context) throws IOException, InterruptedException {
+	// First violation only, classified without building any message
+	context.getCounter(JsonlDailyConverter.classify(ff.getKeyword())).increment(1);
+
+	if(this.errorSink != null) {
+	    this.updateInputFile(context);
+	    this.errorSink.validationError(offset, ff);
 	}
+	else if(this.explained < this.maxExplained) {
+	    this.explained++;
 
-	return true;
+	    for(ProcessingMessage pm : ff) {
+		this.outputStreams.write("validation", NullWritable.get(), value + " -> " + pm.asJson().toString(), "errors/validation");
+	    }
+	}
     }
-    
+
+    private void validationError(long offset, Text value, JsonlDailyValidationException jve, Context context) throws IOException, InterruptedException {
+	/* (ProcessingMessage JSON node value in text:
+	{ level="error", 
+	  schema={"loadingURI":"#","pointer":"/properties/year"}, 
+	  instance={"pointer":"/year"}, 
+	  domain="validation", 
+	  keyword="minimum", 
+	  message="number is lower than the required minimum", 
+	  minimum=1900, 
+	  found=1895}
+	*/
+
+	Iterator<String> keywords = jve.getKeywords().iterator();
+
+	for(ProcessingMessage pm : jve) {
+	    // Type error, missing field, semantic error or other failed validation, classified by keyword
+	    context.getCounter(JsonlDailyConverter.classify(keywords.next())).increment(1);
+
+	    if(this.errorSink != null) {
+		this.updateInputFile(context);
+		this.errorSink.validationError(offset, pm);
+		continue;
+	    }
+
+	    this.outputStreams.write("validation", 
+				     NullWritable.get(), 
+				     value + " -> " + pm.asJson().toString(),
+				     "errors/validation");
+	}
+    }
+
     private void writeValidationError(Text value, JsonlDailyValidationException jve) throws IOException, InterruptedException {
 	this.outputStreams.write("validation", NullWritable.get(), value, "errors/validation");
 	
@@ -235,6 +628,16 @@ public class JsonlDailyETLMapper extends Mapper<LongWritable, Text, Text, Writab
     /* FRAMEWORK HELPERS                                                                                 */
     /*---------------------------------------------------------------------------------------------------*/   
 
+    private void frameworkError(long offset, Exception e, Context context) throws IOException, InterruptedException {
+	if(this.errorSink != null) {
+	    this.updateInputFile(context);
+	    this.errorSink.frameworkError(offset, e);
+	}
+	else {
+	    this.writeFrameworkError(e);
+	}
+    }
+
     private void writeFrameworkError(Exception e) throws IOException, InterruptedException {
 	this.outputStreams.write("framework", 
 				 NullWritable.get(), 
@@ -8,19 +8,28 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 
 // MapReduce & Hadoop
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskCounter;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
+import org.apache.hadoop.fs.Path;
+
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
 
 // AVRO
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 
 // AVRO UTILS
+import se.phaseshift.hadoop.util.ConfiguredWritableGenericRecord;
+import se.phaseshift.hadoop.util.ParquetPartitionWriterPool;
 import se.phaseshift.hadoop.util.WritableGenericRecord;
 
 // Parquet
@@ -31,17 +40,60 @@ import org.apache.log4j.Logger;
 
 // XXX Generic record does not implement Writable, thus this will fail!
 // XXX http://stackoverflow.com/questions/22135566/not-understanding-a-mapreduce-npe
-public class JsonlDailyETLReducer extends Reducer<Text, WritableGenericRecord, Void, GenericRecord> {
+public class JsonlDailyETLReducer extends Reducer<WritableComparable, WritableGenericRecord, Void, GenericRecord> {
     private MultipleOutputs outputStreams = null;
+    private JsonlDailyMetrics metrics = null;
+    private JsonlDailyMetrics.Stripe stripe = null;
+    private int partitionYear = Integer.MIN_VALUE;
+    private String partitionPath = null;
+    private Counter duplicates = null;
+    private String rollupPartitionPath = null;
+    private int idField = 0;
+    private int valueField = 0;
+    private Schema partialSchema = null;
+    private JsonlDailyRollups monthlyRollups = null;
+    private JsonlDailyRollups yearlyRollups = null;
+    private ParquetPartitionWriterPool monthlyWriters = null;
+    private ParquetPartitionWriterPool yearlyWriters = null;
+    private GenericData.Record monthlyRecord = null;
+    private GenericData.Record yearlyRecord = null;
 
     @Override
-    public void setup(Context context) {
+    public void setup(Context context) throws IOException, InterruptedException {
 	// Get configuration
 	Configuration conf = context.getConfiguration();
 	conf.setBoolean("mapred.output.compress", false);
 	
-	// Create multiple outputs 
-	this.outputStreams = new MultipleOutputs(context);
+	// Create multiple outputs, written by encoder threads in async output mode
+	this.outputStreams = JsonlDailyETL.createOutputs(context);
+
+	// Sampled write timings, published when the task ends
+	this.metrics = JsonlDailyMetrics.create(conf);
+	if(this.metrics != null) {
+	    this.stripe = this.metrics.stripe();
+	}
+
+	// Dedup mode keeps the first (newest) version of a date
+	this.duplicates = context.getCounter(JsonlDailyETL.COUNTERS.DUPLICATES);
+
+	// Partial rollups of the mappers are merged per year and written next to the partitions
+	if(conf.getBoolean(JsonlDailyRollups.ENABLED_KEY, false)) {
+	    Path rollupsPath = new Path(FileOutputFormat.getWorkOutputPath(context), "rollups");
+	    String fileName = FileOutputFormat.getUniqueFile(context, "rollups", "");
+
+	    Schema shuffleSchema = ConfiguredWritableGenericRecord.getSchema(conf);
+	    this.partialSchema = JsonlDailyRollups.partialSchema(shuffleSchema);
+
+	    // Dedup mode rolls up the kept daily records, the first branch of the shuffle schema
+	    this.idField = shuffleSchema.getTypes().get(0).getField("id").pos();
+	    this.valueField = shuffleSchema.getTypes().get(0).getField("value").pos();
+	    this.monthlyRollups = new JsonlDailyRollups(Integer.MAX_VALUE);
+	    this.yearlyRollups = new JsonlDailyRollups(Integer.MAX_VALUE);
+	    this.monthlyWriters = new ParquetPartitionWriterPool(conf, new Path(rollupsPath, "monthly"), fileName, JsonlDailyRollups.MONTHLY_SCHEMA);
+	    this.yearlyWriters = new ParquetPartitionWriterPool(conf, new Path(rollupsPath, "yearly"), fileName, JsonlDailyRollups.YEARLY_SCHEMA);
+	    this.monthlyRecord = new GenericData.Record(JsonlDailyRollups.MONTHLY_SCHEMA);
+	    this.yearlyRecord = new GenericData.Record(JsonlDailyRollups.YEARLY_SCHEMA);
+	}
 
 	/*
 	try {
@@ -57,10 +109,46 @@ public class JsonlDailyETLReducer extends Reducer<Text, WritableGenericRecord, V
     }
 
     @Override
-    public void reduce(Text key, Iterable<WritableGenericRecord> records, Context context) throws IOException, InterruptedException {
+    public void reduce(WritableComparable key, Iterable<WritableGenericRecord> records, Context context) throws IOException, InterruptedException {
+	String partitionPath = this.partitionPath(key);
+	boolean dedup = (key instanceof JsonlDailyDedupKey);
+	boolean kept = false;
+
+	// Rollups of a year are complete once the reducer moves on to another year
+	if(this.monthlyRollups != null && !partitionPath.equals(this.rollupPartitionPath)) {
+	    if(this.monthlyRollups.size() > 0) { this.writeRollups(context); }
+	    this.rollupPartitionPath = partitionPath;
+	}
+
 	for(WritableGenericRecord record: records) {
-	    // Dispatch data
-	    this.outputStreams.write("partitions", null, record.getRecord(), "partitions/" + key.toString() + "/data");
+	    // Records read with the partial rollup branch of the shuffle schema are merged, not written
+	    if(this.partialSchema != null && record.getRecord().getSchema() == this.partialSchema) {
+		this.monthlyRollups.merge(record.getRecord());
+		continue;
+	    }
+
+	    // Dedup mode: the versions of a date arrive newest first, the key follows the values
+	    if(dedup) {
+		if(kept) {
+		    this.duplicates.increment(1);
+		    continue;
+		}
+		kept = true;
+
+		if(this.monthlyRollups != null) {
+		    JsonlDailySortKey date = (JsonlDailySortKey) key;
+		    this.monthlyRollups.add((CharSequence) record.getRecord().get(this.idField),
+					    date.getYear(),
+					    date.getMonth(),
+					    (Float) record.getRecord().get(this.valueField));
+		}
+	    }
+
+	    if(this.stripe != null) { this.stripe.begin(0); }
+
+	    // Dispatch data (sorted layout: in station and date order)
+	    this.outputStreams.write("partitions", null, record.getRecord(), partitionPath);
+	    if(this.stripe != null) { this.stripe.lap(JsonlDailyMetrics.STAGE.WRITE); }
 	    // context.write(null, record.getRecord());
 	}
     }
@@ -69,5 +157,51 @@ public class JsonlDailyETLReducer extends Reducer<Text, WritableGenericRecord, V
     protected void cleanup(Context context) throws IOException, InterruptedException {
 	// Close multiple outputs!
 	this.outputStreams.close();
+
+	// Write the rollups of the last year and close rollup writers (rollup mode)
+	if(this.monthlyWriters != null) {
+	    if(this.monthlyRollups.size() > 0) { this.writeRollups(context); }
+	    this.monthlyWriters.close();
+	    this.yearlyWriters.close();
+	}
+
+	// Publish write timings (metrics mode), partitions are complete once closed
+	if(this.metrics != null) {
+	    this.stripe.addBytesIn(context.getCounter(TaskCounter.REDUCE_SHUFFLE_BYTES).getValue());
+	    this.metrics.publish(context, JsonlDailyMetrics.partitionBytes(context));
+	}
+    }
+
+    private void writeRollups(Context context) throws IOException {
+	String partition = Integer.toString(this.monthlyRollups.getYear(0));
+
+	for(int entry = 0; entry < this.monthlyRollups.size(); entry++) {
+	    this.monthlyWriters.write(partition, this.monthlyRollups.monthly(entry, this.monthlyRecord));
+	    this.yearlyRollups.rollUp(this.monthlyRollups, entry);
+	}
+
+	for(int entry = 0; entry < this.yearlyRollups.size(); entry++) {
+	    this.yearlyWriters.write(partition, this.yearlyRollups.yearly(entry, this.yearlyRecord));
+	}
+
+	context.getCounter(JsonlDailyRollups.COUNTERS.MONTHLY_ROWS).increment(this.monthlyRollups.size());
+	context.getCounter(JsonlDailyRollups.COUNTERS.YEARLY_ROWS).increment(this.yearlyRollups.size());
+	this.monthlyRollups.clear();
+	this.yearlyRollups.clear();
+    }
+
+    private String partitionPath(WritableComparable key) {
+	if(!(key instanceof JsonlDailySortKey)) {
+	    return "partitions/" + key.toString() + "/data";
+	}
+
+	// Sorted layout groups by year, the year of the first key holds for the whole group
+	int year = ((JsonlDailySortKey) key).getYear();
+	if(year != this.partitionYear) {
+	    this.partitionYear = year;
+	    this.partitionPath = "partitions/" + year + "/data";
+	}
+
+	return this.partitionPath;
     }
 }
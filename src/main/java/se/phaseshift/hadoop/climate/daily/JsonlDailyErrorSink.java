@@ -0,0 +1,236 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// JSON parser
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+
+// JSON Schema validator
+import com.github.fge.jsonschema.report.ProcessingMessage;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+// AVRO
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+// Parquet
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetOutputFormat;
+import org.apache.parquet.hadoop.ParquetWriter;
+
+/**
+ * Structured, bounded sink for the parsing, validation and framework errors of one input split.
+ *
+ * Errors are kept as compact Avro records (file, line offset, field pointer, keyword, found value
+ * and message) instead of text lines. At most maxErrors parsing and validation errors are kept,
+ * chosen by reservoir sampling over all errors of the split, so the cost of a badly corrupted
+ * split is bounded. Framework exceptions are deduplicated on class, message and throwing frame
+ * and written once with their number of occurrences. Nothing is written until the sink is
+ * closed, a split without errors leaves no file behind.
+ */
+public class JsonlDailyErrorSink implements Closeable {
+    public static final String FORMAT_TEXT    = "text";
+    public static final String FORMAT_PARQUET = "parquet";
+
+    public static final String MAX_ERRORS_KEY     = "climate.daily.errors.max";
+    public static final String MAX_FRAMEWORK_KEY  = "climate.daily.errors.framework.max";
+
+    public static final String KIND_PARSING    = "parsing";
+    public static final String KIND_VALIDATION = "validation";
+    public static final String KIND_FRAMEWORK  = "framework";
+
+    public static final Schema SCHEMA = new Schema.Parser().parse(
+	"{ \"type\" : \"record\", \"namespace\" : \"climate\", \"name\" : \"daily_error\", \"fields\" : [" +
+	"  { \"name\" : \"kind\"    , \"type\" : \"string\" }," +
+	"  { \"name\" : \"file\"    , \"type\" : \"string\" }," +
+	"  { \"name\" : \"offset\"  , \"type\" : \"long\" }," +
+	"  { \"name\" : \"pointer\" , \"type\" : [\"null\", \"string\"], \"default\" : null }," +
+	"  { \"name\" : \"keyword\" , \"type\" : [\"null\", \"string\"], \"default\" : null }," +
+	"  { \"name\" : \"found\"   , \"type\" : [\"null\", \"string\"], \"default\" : null }," +
+	"  { \"name\" : \"message\" , \"type\" : [\"null\", \"string\"], \"default\" : null }," +
+	"  { \"name\" : \"count\"   , \"type\" : \"long\" }" +
+	"] }");
+
+    private static final int KIND    = 0;
+    private static final int FILE    = 1;
+    private static final int OFFSET  = 2;
+    private static final int POINTER = 3;
+    private static final int KEYWORD = 4;
+    private static final int FOUND   = 5;
+    private static final int MESSAGE = 6;
+    private static final int COUNT   = 7;
+
+    private final Configuration conf;
+    private final Path file;
+    private String inputFile;
+    private final int maxErrors;
+    private final int maxFramework;
+    private final Random random;
+
+    private final List<GenericData.Record> reservoir = new ArrayList<GenericData.Record>();
+    private final Map<String, GenericData.Record> framework = new LinkedHashMap<String, GenericData.Record>();
+    private long errorsSeen = 0L;
+
+    public JsonlDailyErrorSink(Configuration conf, Path file, String inputFile, long seed) {
+	this.conf = conf;
+	this.file = file;
+	this.inputFile = (inputFile != null) ? inputFile : "";
+	this.maxErrors = conf.getInt(MAX_ERRORS_KEY, 1000);
+	this.maxFramework = conf.getInt(MAX_FRAMEWORK_KEY, 100);
+	this.random = new Random(seed);
+    }
+
+    public void parsingError(long offset, JsonProcessingException jpe) {
+	GenericData.Record record = this.sample();
+	if(record == null) { return; }
+
+	JsonLocation location = jpe.getLocation();
+	this.fill(record, KIND_PARSING, offset);
+	record.put(FOUND, (location != null) ? "column " + location.getColumnNr() : null);
+	record.put(MESSAGE, jpe.getOriginalMessage());
+    }
+
+    /* One validation message of the line at offset, its JSON is only built if sampled */
+    public void validationError(long offset, ProcessingMessage processingMessage) {
+	GenericData.Record record = this.sample();
+	if(record == null) { return; }
+
+	this.fillValidation(record, offset, processingMessage.asJson());
+    }
+
+    /* Fast fail rejection of the line at offset, its messages are only built if sampled */
+    public void validationError(long offset, JsonlDailyValidationException.FastFail fastFail) {
+	GenericData.Record record = this.sample();
+	if(record == null) { return; }
+
+	Iterator<ProcessingMessage> messages = fastFail.iterator();
+	if(messages.hasNext()) {
+	    this.fillValidation(record, offset, messages.next().asJson());
+	}
+	else {
+	    this.fill(record, KIND_VALIDATION, offset);
+	}
+
+	record.put(KEYWORD, fastFail.getKeyword());
+    }
+
+    public void frameworkError(long offset, Exception e) {
+	StackTraceElement[] stackTrace = e.getStackTrace();
+	String frame = (stackTrace.length > 0) ? stackTrace[0].toString() : "";
+	String key = e.getClass().getName() + "\t" + e.getMessage() + "\t" + frame;
+
+	GenericData.Record record = this.framework.get(key);
+	if(record != null) {
+	    record.put(COUNT, (Long) record.get(COUNT) + 1L);
+	    return;
+	}
+
+	if(this.framework.size() >= this.maxFramework) { return; }
+
+	// First occurrence keeps the offset and the throwing frame
+	record = new GenericData.Record(SCHEMA);
+	this.fill(record, KIND_FRAMEWORK, offset);
+	record.put(POINTER, frame);
+	record.put(KEYWORD, e.getClass().getName());
+	record.put(MESSAGE, e.getMessage());
+	this.framework.put(key, record);
+    }
+
+    /* Input file of the following errors, for splits combining several files */
+    public void setInputFile(String inputFile) {
+	this.inputFile = (inputFile != null) ? inputFile : "";
+    }
+
+    public long getErrorsSeen() {
+	return this.errorsSeen;
+    }
+
+    @Override
+    public void close() throws IOException {
+	if(this.reservoir.isEmpty() && this.framework.isEmpty()) { return; }
+
+	ParquetWriter<GenericRecord> writer = AvroParquetWriter.<GenericRecord>builder(this.file)
+	    .withSchema(SCHEMA)
+	    .withConf(this.conf)
+	    .withCompressionCodec(ParquetOutputFormat.getCompression(this.conf))
+	    .withDictionaryEncoding(true)
+	    .build();
+	try {
+	    for(GenericData.Record record : this.reservoir) { writer.write(record); }
+	    for(GenericData.Record record : this.framework.values()) { writer.write(record); }
+	}
+	finally {
+	    writer.close();
+	}
+
+	this.reservoir.clear();
+	this.framework.clear();
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* SAMPLING HELPERS                                                                                  */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    /* Record to fill in for the next error, null if the error is left out of the sample */
+    private GenericData.Record sample() {
+	long seen = this.errorsSeen++;
+
+	if(seen < this.maxErrors) {
+	    GenericData.Record record = new GenericData.Record(SCHEMA);
+	    this.reservoir.add(record);
+	    return record;
+	}
+
+	// Reservoir sampling, every error of the split is kept with the same probability
+	long slot = (long) (this.random.nextDouble() * (seen + 1));
+	return (slot < this.maxErrors) ? this.reservoir.get((int) slot) : null;
+    }
+
+    private void fill(GenericData.Record record, String kind, long offset) {
+	record.put(KIND, kind);
+	record.put(FILE, this.inputFile);
+	record.put(OFFSET, offset);
+	record.put(POINTER, null);
+	record.put(KEYWORD, null);
+	record.put(FOUND, null);
+	record.put(MESSAGE, null);
+	record.put(COUNT, 1L);
+    }
+
+    private void fillValidation(GenericData.Record record, long offset, JsonNode processingMessageNode) {
+	JsonNode instanceNode = processingMessageNode.get("instance");
+	JsonNode keywordNode = processingMessageNode.get("keyword");
+	JsonNode foundNode = processingMessageNode.get(foundField((keywordNode != null) ? keywordNode.asText() : null));
+	JsonNode messageNode = processingMessageNode.get("message");
+
+	this.fill(record, KIND_VALIDATION, offset);
+	record.put(POINTER, (instanceNode != null && instanceNode.has("pointer")) ? instanceNode.get("pointer").asText() : null);
+	record.put(KEYWORD, (keywordNode != null) ? keywordNode.asText() : null);
+	record.put(FOUND, (foundNode != null) ? foundNode.toString() : null);
+	record.put(MESSAGE, (messageNode != null) ? messageNode.asText() : null);
+    }
+
+    /* Message field holding the offending value, it is named after what the keyword checks */
+    private static String foundField(String keyword) {
+	if("pattern".equals(keyword)) { return "string"; }
+	if("required".equals(keyword)) { return "missing"; }
+	if("enum".equals(keyword)) { return "value"; }
+
+	// minimum, maximum, type and the other value checks
+	return "found";
+    }
+}
@@ -0,0 +1,64 @@
+package se.phaseshift.hadoop.climate.daily;
+
+// JSON parser
+import com.fasterxml.jackson.databind.JsonNode;
+
+// JSON Schema validator
+import com.github.fge.jsonschema.exceptions.ProcessingException;
+import com.github.fge.jsonschema.main.JsonSchema;
+import com.github.fge.jsonschema.main.JsonSchemaFactory;
+import com.github.fge.jsonschema.report.ProcessingMessage;
+import com.github.fge.jsonschema.report.ProcessingReport;
+
+/**
+ * Reference validator, delegating every instance to the generic fge JsonSchema implementation.
+ *
+ * fge always evaluates the whole schema, so under the fast fail policy the report is still built,
+ * only the exception is preallocated and classified by its first message.
+ */
+public class JsonlDailyFgeValidator implements JsonlDailyValidator {
+    private JsonSchema inputSchema = null;
+    private boolean fastFail = false;
+    private JsonlDailyValidationException.FastFail fastFailure = new JsonlDailyValidationException.FastFail();
+    private ProcessingReport lastReport = null;
+
+    private final JsonlDailyValidationException.Explainer explainer = new JsonlDailyValidationException.Explainer() {
+	@Override
+	public Iterable<ProcessingMessage> explain() {
+	    return JsonlDailyFgeValidator.this.lastReport;
+	}
+    };
+
+    public JsonlDailyFgeValidator(JsonNode schemaNode) throws ProcessingException {
+	this.inputSchema = JsonSchemaFactory.byDefault().getJsonSchema(schemaNode);
+    }
+
+    @Override
+    public void setFastFail(boolean fastFail) {
+	this.fastFail = fastFail;
+    }
+
+    @Override
+    public void validate(JsonNode instance) throws JsonlDailyValidationException {
+	ProcessingReport validationReport = null;
+
+	try {
+	    validationReport = this.inputSchema.validate(instance);
+	}
+	catch(ProcessingException pe) {
+	    throw new IllegalStateException("JSON schema processing failed", pe);
+	}
+
+	if(!validationReport.isSuccess() && this.fastFail) {
+	    // Already built by fge, only kept for the explanation
+	    JsonNode keywordNode = validationReport.iterator().next().asJson().get("keyword");
+	    this.lastReport = validationReport;
+
+	    throw this.fastFailure.reset((keywordNode != null) ? keywordNode.asText() : "", this.explainer);
+	}
+
+	if(!validationReport.isSuccess()) {
+	    throw new JsonlDailyValidationException(validationReport);
+	}
+    }
+}
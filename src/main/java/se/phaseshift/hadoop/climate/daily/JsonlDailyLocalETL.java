@@ -0,0 +1,342 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// JSON parser
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+
+// JSON Schema validator
+import com.github.fge.jsonschema.report.ProcessingMessage;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.LineReader;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+// AVRO
+import org.apache.avro.generic.GenericRecord;
+
+// AVRO UTILS
+import se.phaseshift.hadoop.util.ParquetPartitionWriterPool;
+
+// Parquet
+import org.apache.parquet.hadoop.ParquetOutputFormat;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+/**
+ * Standalone, in-memory execution of the ETL without a MapReduce job.
+ *
+ * Takes the same arguments as JsonlDailyETL. The input files are cut into chunks (compressed
+ * files are one chunk each) which are processed by a fixed pool of worker threads. Every worker
+ * owns its converter, year partition writers and error files, so nothing is shared between the
+ * threads besides the chunk queue. The output layout matches the one of a map-only MapReduce run.
+ */
+public class JsonlDailyLocalETL extends Configured implements Tool {
+
+    public static void main(String[] args) throws Exception {
+	if(args.length >= 5) {
+	    int res = ToolRunner.run(new Configuration(), new JsonlDailyLocalETL(), args);
+	    System.exit(res);
+	} else {
+	    System.err.println("ERROR");
+	    System.exit(0);
+	}
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+	// Get paths
+	Path inputPath = new Path(args[0]);
+	Path outputPath = new Path(args[1]);
+	Path outputSchemaPath = new Path(args[2]);
+	Path inputSchemaPath = new Path(args[3]);
+
+	// Create configuration
+	Configuration conf = this.getConf();
+	FileSystem fs = FileSystem.get(conf);
+
+	// Clean output area
+	fs.delete(outputPath, true);
+
+	// Read the output (AVRO) and input (JSON) schemas
+	conf.set("climate.stations.output.schema", JsonlDailyETL.inputStreamToString(fs.open(outputSchemaPath)));
+	conf.set("climate.stations.input.schema", JsonlDailyETL.inputStreamToString(fs.open(inputSchemaPath)));
+
+	// Same Parquet settings as the MapReduce job
+	conf.set(ParquetOutputFormat.COMPRESSION, CompressionCodecName.SNAPPY.name());
+	conf.setInt(ParquetOutputFormat.BLOCK_SIZE, 500 * 1024 * 1024);
+
+	// Cut the input into chunks
+	Queue<Chunk> chunks = new ConcurrentLinkedQueue<Chunk>(this.createChunks(fs, inputPath, conf));
+	int numThreads = Math.max(1, conf.getInt("climate.daily.local.threads", Runtime.getRuntime().availableProcessors()));
+	numThreads = Math.max(1, Math.min(numThreads, chunks.size()));
+
+	System.out.printf("Local run: %d chunks, %d threads\n", chunks.size(), numThreads);
+
+	// Process the chunks, one worker per thread
+	ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+	List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+
+	try {
+	    for(int index = 0; index < numThreads; index++) {
+		results.add(executor.submit(new Worker(conf, outputPath, index, chunks)));
+	    }
+
+	    // Merge counts of the workers, failures of a worker fail the run
+	    long[] counts = new long[JsonlDailyETL.COUNTERS.values().length];
+	    for(Future<long[]> result : results) {
+		long[] workerCounts = result.get();
+		for(int counter = 0; counter < counts.length; counter++) { counts[counter] += workerCounts[counter]; }
+	    }
+
+	    System.out.printf("Tuples processed: %d\n Parse errors: %d\n Type errors: %d\n Missing fields: %d\n Illegal values: %d\n Other validation errors: %d\n",
+			      counts[JsonlDailyETL.COUNTERS.TOTAL_PROCESSED.ordinal()],
+			      counts[JsonlDailyETL.COUNTERS.FAILED_PARSING.ordinal()],
+			      counts[JsonlDailyETL.COUNTERS.TYPE_ERROR.ordinal()],
+			      counts[JsonlDailyETL.COUNTERS.FIELD_MISSING.ordinal()],
+			      counts[JsonlDailyETL.COUNTERS.VALUE_ERROR.ordinal()],
+			      counts[JsonlDailyETL.COUNTERS.OTHER_VALIDATION.ordinal()]);
+	}
+	finally {
+	    executor.shutdownNow();
+	}
+
+	return 0;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* CHUNK HELPERS                                                                                     */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private static class Chunk {
+	final Path path;
+	final long start;
+	final long end;
+	final boolean compressed;
+
+	Chunk(Path path, long start, long end, boolean compressed) {
+	    this.path = path;
+	    this.start = start;
+	    this.end = end;
+	    this.compressed = compressed;
+	}
+    }
+
+    private List<Chunk> createChunks(FileSystem fs, Path inputPath, Configuration conf) throws IOException {
+	List<Chunk> chunks = new ArrayList<Chunk>();
+	long chunkBytes = Math.max(1L, conf.getLong("climate.daily.local.chunk.bytes", 64L * 1024 * 1024));
+	CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+
+	RemoteIterator<LocatedFileStatus> files = fs.listFiles(inputPath, true);
+	while(files.hasNext()) {
+	    LocatedFileStatus file = files.next();
+	    String name = file.getPath().getName();
+	    if(name.startsWith("_") || name.startsWith(".")) { continue; }
+
+	    // Compressed files can not be split, read them in one go
+	    if(codecs.getCodec(file.getPath()) != null) {
+		chunks.add(new Chunk(file.getPath(), 0L, file.getLen(), true));
+		continue;
+	    }
+
+	    for(long start = 0L; start < file.getLen(); start += chunkBytes) {
+		chunks.add(new Chunk(file.getPath(), start, Math.min(start + chunkBytes, file.getLen()), false));
+	    }
+	}
+
+	return chunks;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* WORKER IMPLEMENTATION                                                                             */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private static class Worker implements Callable<long[]> {
+	private final Configuration conf;
+	private final Path outputPath;
+	private final int index;
+	private final Queue<Chunk> chunks;
+	private final long[] counts = new long[JsonlDailyETL.COUNTERS.values().length];
+
+	private JsonlDailyConverter converter = null;
+	private ParquetPartitionWriterPool partitionWriters = null;
+	private BufferedWriter validationErrors = null;
+	private BufferedWriter frameworkErrors = null;
+	private String yearPartition = null;
+	private int yearPartitionValue = Integer.MIN_VALUE;
+	private int maxExplained = 0;
+	private int explained = 0;
+
+	Worker(Configuration conf, Path outputPath, int index, Queue<Chunk> chunks) {
+	    this.conf = conf;
+	    this.outputPath = outputPath;
+	    this.index = index;
+	    this.chunks = chunks;
+	    this.maxExplained = conf.getInt("climate.daily.validation.explain.max", 1000);
+	}
+
+	@Override
+	public long[] call() throws Exception {
+	    FileSystem fs = FileSystem.get(this.conf);
+	    String suffix = String.format("-l-%05d", this.index);
+
+	    this.converter = JsonlDailyConverter.create(this.conf);
+	    this.partitionWriters = new ParquetPartitionWriterPool(this.conf,
+								   new Path(this.outputPath, "partitions"),
+								   "data" + suffix,
+								   this.converter.getOutputSchema());
+	    this.validationErrors = this.createErrorWriter(fs, "errors/validation" + suffix);
+	    this.frameworkErrors = this.createErrorWriter(fs, "errors/framework" + suffix);
+
+	    try {
+		Chunk chunk = null;
+		while((chunk = this.chunks.poll()) != null) {
+		    this.processChunk(fs, chunk);
+		}
+	    }
+	    finally {
+		this.partitionWriters.close();
+		this.validationErrors.close();
+		this.frameworkErrors.close();
+	    }
+
+	    return this.counts;
+	}
+
+	private void processChunk(FileSystem fs, Chunk chunk) throws IOException {
+	    Text line = new Text();
+	    InputStream in = null;
+	    FSDataInputStream fileIn = fs.open(chunk.path);
+
+	    try {
+		long pos = chunk.start;
+
+		if(chunk.compressed) {
+		    CompressionCodec codec = new CompressionCodecFactory(this.conf).getCodec(chunk.path);
+		    in = codec.createInputStream(fileIn);
+		}
+		else {
+		    fileIn.seek(chunk.start);
+		    in = fileIn;
+		}
+
+		LineReader reader = new LineReader(in, this.conf);
+
+		// Like LineRecordReader, a chunk not starting the file leaves its first line to the previous chunk
+		if(!chunk.compressed && chunk.start != 0L) {
+		    pos += reader.readLine(line);
+		}
+
+		// A line starting within the chunk is owned by it, even if it ends in the next one
+		while(chunk.compressed || pos <= chunk.end) {
+		    int read = reader.readLine(line);
+		    if(read == 0) { break; }
+
+		    pos += read;
+		    this.processLine(line);
+		}
+	    }
+	    finally {
+		if(in != null) { in.close(); }
+		fileIn.close();
+	    }
+	}
+
+	private void processLine(Text value) throws IOException {
+	    try {
+		// Increment how many tuples were processed
+		this.counts[JsonlDailyETL.COUNTERS.TOTAL_PROCESSED.ordinal()]++;
+
+		// Parse, validate and generate AVRO record
+		GenericRecord dailyRecord = this.converter.convert(value.getBytes(), value.getLength());
+		int dailyYear = this.converter.getYear();
+
+		// Input is mostly ordered by station and date, so the partition rarely changes
+		if(dailyYear != this.yearPartitionValue) {
+		    this.yearPartition = Integer.toString(dailyYear);
+		    this.yearPartitionValue = dailyYear;
+		}
+
+		this.partitionWriters.write(this.yearPartition, dailyRecord);
+	    }
+	    catch(JsonProcessingException jpe) {
+		// Increment how many tuples failed parsing
+		this.counts[JsonlDailyETL.COUNTERS.FAILED_PARSING.ordinal()]++;
+	    }
+	    catch(JsonlDailyValidationException.FastFail ff) {
+		// First violation only, explained for the first lines of the worker
+		this.counts[JsonlDailyConverter.classify(ff.getKeyword()).ordinal()]++;
+
+		if(this.explained < this.maxExplained) {
+		    this.explained++;
+
+		    for(ProcessingMessage pm : ff) {
+			this.validationErrors.write(value + " -> " + pm.asJson().toString());
+			this.validationErrors.newLine();
+		    }
+		}
+	    }
+	    catch(JsonlDailyValidationException jve) {
+		for(ProcessingMessage pm : jve) {
+		    JsonNode processingMessageNode = pm.asJson();
+
+		    // Type error, missing field, semantic error or other failed validation
+		    this.counts[JsonlDailyConverter.classify(processingMessageNode).ordinal()]++;
+
+		    this.validationErrors.write(value + " -> " + processingMessageNode.toString());
+		    this.validationErrors.newLine();
+		}
+	    }
+	    catch(IOException ioe) {
+		// Output failures abort the worker
+		throw ioe;
+	    }
+	    catch(Exception e) {
+		this.writeFrameworkError(e);
+	    }
+	}
+
+	private BufferedWriter createErrorWriter(FileSystem fs, String name) throws IOException {
+	    return new BufferedWriter(new OutputStreamWriter(fs.create(new Path(this.outputPath, name), true), StandardCharsets.UTF_8));
+	}
+
+	private void writeFrameworkError(Exception e) throws IOException {
+	    this.frameworkErrors.write(removeLineBreak(e.getMessage()));
+	    this.frameworkErrors.newLine();
+
+	    for(StackTraceElement ste : e.getStackTrace()) {
+		this.frameworkErrors.write(removeLineBreak(ste.toString()));
+		this.frameworkErrors.newLine();
+	    }
+	}
+
+	private static String removeLineBreak(String text) {
+	    return (text == null) ? "NOTHING" : text.replace("\n", "").replace("\r", "");
+	}
+    }
+}
@@ -0,0 +1,192 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.util.StringUtils;
+
+import se.phaseshift.hadoop.util.BgzfBlockIndex;
+
+/**
+ * Manifest of the input files already processed into an output directory.
+ *
+ * Every processed file is recorded as a tab separated line: path, length, modification time and
+ * checksum. A file is considered unprocessed when it is missing from the manifest, or when its
+ * length or modification time changed and its checksum (if the file system provides one) differs.
+ *
+ * The manifest is replaced by two renames (old to .bak, .tmp to manifest), a run failing between
+ * them leaves no manifest, and read() then picks the complete .tmp up.
+ */
+public class JsonlDailyManifest {
+    public static final String MANIFEST_DIR  = "_manifest";
+    public static final String MANIFEST_FILE = MANIFEST_DIR + "/processed.tsv";
+
+    private static final String NO_CHECKSUM = "-";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String BACKUP_SUFFIX = ".bak";
+
+    public static class Entry {
+	private final String path;
+	private final long length;
+	private final long modificationTime;
+	private final String checksum;
+
+	public Entry(String path, long length, long modificationTime, String checksum) {
+	    this.path = path;
+	    this.length = length;
+	    this.modificationTime = modificationTime;
+	    this.checksum = checksum;
+	}
+
+	public String getPath() {
+	    return this.path;
+	}
+
+	public long getLength() {
+	    return this.length;
+	}
+
+	public long getModificationTime() {
+	    return this.modificationTime;
+	}
+
+	public String getChecksum() {
+	    return this.checksum;
+	}
+    }
+
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /* Reads the manifest, or the one a run failing in the middle of write left behind */
+    public static JsonlDailyManifest read(FileSystem fs, Path manifestPath) throws IOException {
+	JsonlDailyManifest manifest = new JsonlDailyManifest();
+	Path temporaryPath = manifestPath.suffix(TEMPORARY_SUFFIX);
+	Path backupPath = manifestPath.suffix(BACKUP_SUFFIX);
+	Path readPath = manifestPath;
+
+	if(!fs.exists(manifestPath)) {
+	    // Without a backup a temporary manifest may be truncated, with one it was complete
+	    if(!fs.exists(backupPath)) { return manifest; }
+	    readPath = fs.exists(temporaryPath) ? temporaryPath : backupPath;
+	}
+
+	BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(readPath), StandardCharsets.UTF_8));
+	try {
+	    String line = null;
+	    while((line = reader.readLine()) != null) {
+		String[] fields = line.split("\t");
+		if(fields.length != 4) { continue; }
+
+		manifest.add(new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+	    }
+	}
+	finally {
+	    reader.close();
+	}
+
+	return manifest;
+    }
+
+    public void write(FileSystem fs, Path manifestPath) throws IOException {
+	// Write next to the manifest first, a failed run must never leave a truncated manifest
+	Path temporaryPath = manifestPath.suffix(TEMPORARY_SUFFIX);
+	Path backupPath = manifestPath.suffix(BACKUP_SUFFIX);
+	BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fs.create(temporaryPath, true), StandardCharsets.UTF_8));
+	try {
+	    for(Entry entry : this.entries.values()) {
+		writer.write(entry.path + "\t" + entry.length + "\t" + entry.modificationTime + "\t" + entry.checksum);
+		writer.newLine();
+	    }
+	}
+	finally {
+	    writer.close();
+	}
+
+	// The old manifest is moved aside, never deleted, until the new one is in place
+	if(fs.exists(manifestPath)) {
+	    fs.delete(backupPath, false);
+	    if(!fs.rename(manifestPath, backupPath)) {
+		throw new IOException("Could not back up manifest " + manifestPath);
+	    }
+	}
+
+	if(!fs.rename(temporaryPath, manifestPath)) {
+	    throw new IOException("Could not replace manifest " + manifestPath);
+	}
+
+	fs.delete(backupPath, false);
+    }
+
+    public void add(Entry entry) {
+	this.entries.put(entry.path, entry);
+    }
+
+    public int size() {
+	return this.entries.size();
+    }
+
+    /* Lists all (non hidden, non index) files matching the input path and returns the ones not yet processed */
+    public List<Entry> findUnprocessed(FileSystem fs, Path inputPath) throws IOException {
+	List<Entry> unprocessed = new ArrayList<Entry>();
+	FileStatus[] matches = fs.globStatus(inputPath);
+	if(matches == null) { return unprocessed; }
+
+	for(FileStatus match : matches) {
+	    RemoteIterator<LocatedFileStatus> files = fs.listFiles(match.getPath(), true);
+
+	    while(files.hasNext()) {
+		LocatedFileStatus file = files.next();
+		if(isHidden(file.getPath())) { continue; }
+
+		String path = file.getPath().toString();
+		Entry processed = this.entries.get(path);
+
+		if(processed != null &&
+		   processed.length == file.getLen() &&
+		   processed.modificationTime == file.getModificationTime()) {
+		    continue;
+		}
+
+		// Only files looking changed get their (possibly expensive) checksum computed
+		String checksum = checksum(fs, file.getPath());
+		if(processed != null && !NO_CHECKSUM.equals(checksum) && checksum.equals(processed.checksum)) {
+		    continue;
+		}
+
+		unprocessed.add(new Entry(path, file.getLen(), file.getModificationTime(), checksum));
+	    }
+	}
+
+	return unprocessed;
+    }
+
+    private static String checksum(FileSystem fs, Path path) throws IOException {
+	FileChecksum checksum = fs.getFileChecksum(path);
+	if(checksum == null) { return NO_CHECKSUM; }
+
+	return checksum.getAlgorithmName() + ":" + StringUtils.byteToHexString(checksum.getBytes());
+    }
+
+    /* Hidden files and BGZF index sidecars are not input, as in the input format */
+    private static boolean isHidden(Path path) {
+	String name = path.getName();
+	return name.startsWith("_") || name.startsWith(".") || BgzfBlockIndex.isIndex(path);
+    }
+}
@@ -0,0 +1,365 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.lang.InterruptedException;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.MapContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+// AVRO
+import org.apache.avro.util.Utf8;
+
+/**
+ * Order preserving multithreaded mapper mode: a reader thread copies the input lines into
+ * batches, a pool of worker threads parses and validates them, and the task thread writes the
+ * results in input order.
+ *
+ * Unlike MultithreadedMapper the map output keeps the order of the input, and the number of
+ * parsers and validators is bounded: every worker owns one JsonlDailyConverter, as converters
+ * are not thread safe. Station dictionary codes are only meaningful within a worker and are not
+ * handed on. Batches are recycled through a bounded free list, so at most 2 * workers + 2
+ * batches are in flight whatever the relative speed of the threads. A batch never spans two
+ * input files of a combined split.
+ *
+ * The reader only touches the record reader of the task and the writer only its output, as in
+ * the single threaded mapper the framework counters are the only state they share.
+ */
+public class JsonlDailyMapPipeline {
+    public static final String THREADS_KEY = "climate.daily.map.threads";
+    public static final String BATCH_LINES_KEY = "climate.daily.map.threads.batch";
+    public static final String THREADS_AUTO = "auto";
+
+    /* Writes the results of a batch, called on the task thread in input order */
+    public static interface Writer {
+	public void write(Batch batch) throws IOException, InterruptedException;
+    }
+
+    /* End of input marker of the ordered queue */
+    private static final Batch END = new Batch(0);
+
+    private final List<JsonlDailyConverter> converters;
+    private final JsonlDailyMetrics metrics;
+    private final int batchLines;
+    private volatile Throwable failure = null;
+
+    public JsonlDailyMapPipeline(List<JsonlDailyConverter> converters, JsonlDailyMetrics metrics, int batchLines) {
+	this.converters = converters;
+	this.metrics = metrics;
+	this.batchLines = Math.max(1, batchLines);
+    }
+
+    /**
+     * Worker threads of the job: a number, or auto for the vcores of a map container, at most the
+     * processors of the node. One or less disables the mode.
+     */
+    public static int threads(Configuration conf) {
+	String threads = conf.get(THREADS_KEY, "1").trim();
+	int wanted = THREADS_AUTO.equals(threads) ? conf.getInt("mapreduce.map.cpu.vcores", 1) : Integer.parseInt(threads);
+
+	return Math.min(wanted, Runtime.getRuntime().availableProcessors());
+    }
+
+    public void run(MapContext<LongWritable, Text, ?, ?> context, Writer writer) throws IOException, InterruptedException {
+	int inFlight = 2 * this.converters.size() + 2;
+	BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(inFlight);
+	BlockingQueue<Batch> ordered = new ArrayBlockingQueue<Batch>(inFlight + 1);
+	BlockingQueue<Batch> work = new LinkedBlockingQueue<Batch>();
+
+	for(int index = 0; index < inFlight; index++) {
+	    free.add(new Batch(this.batchLines));
+	}
+
+	List<Thread> threads = new ArrayList<Thread>();
+	threads.add(new Thread(new Reader(context, free, ordered, work), "JsonlDailyMapPipeline-reader"));
+	for(int index = 0; index < this.converters.size(); index++) {
+	    threads.add(new Thread(new Worker(this.converters.get(index), work), "JsonlDailyMapPipeline-worker-" + index));
+	}
+
+	for(Thread thread : threads) {
+	    thread.setDaemon(true);
+	    thread.start();
+	}
+
+	try {
+	    // Batches are taken in input order, each once its worker is done with it
+	    for(Batch batch = ordered.take(); batch != END; batch = ordered.take()) {
+		batch.await();
+		if(batch.failure != null) { this.failure = batch.failure; }
+		if(this.failure != null) { break; }
+
+		writer.write(batch);
+		batch.clear();
+		free.put(batch);
+	    }
+
+	    if(this.failure instanceof IOException) { throw (IOException) this.failure; }
+	    if(this.failure != null) { throw new IOException("Map pipeline failed", this.failure); }
+	}
+	finally {
+	    // Workers wait for work until interrupted, the reader only if the writer gave up
+	    for(Thread thread : threads) { thread.interrupt(); }
+	    for(Thread thread : threads) { thread.join(); }
+	}
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* PIPELINE HELPERS                                                                                  */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    /**
+     * Lines of the input and, once completed by a worker, the decoded fields of every line or the
+     * exception it failed with. Ids are stable, they are not reused by later lines.
+     */
+    public static class Batch {
+	private final Text[] lines;
+	private final long[] offsets;
+	private final CharSequence[] ids;
+	private final int[] years;
+	private final int[] months;
+	private final int[] days;
+	private final float[] values;
+	private final Exception[] failures;
+	private final String[] fastFailKeywords;
+	private String inputFile = null;
+	private int size = 0;
+	private boolean done = false;
+	private Throwable failure = null;
+
+	Batch(int capacity) {
+	    this.lines = new Text[capacity];
+	    this.offsets = new long[capacity];
+	    this.ids = new CharSequence[capacity];
+	    this.years = new int[capacity];
+	    this.months = new int[capacity];
+	    this.days = new int[capacity];
+	    this.values = new float[capacity];
+	    this.failures = new Exception[capacity];
+	    this.fastFailKeywords = new String[capacity];
+
+	    for(int row = 0; row < capacity; row++) { this.lines[row] = new Text(); }
+	}
+
+	public int size() {
+	    return this.size;
+	}
+
+	/* Input file of the lines of a combined split, null for the file of the split */
+	public String getInputFile() {
+	    return this.inputFile;
+	}
+
+	public Text getLine(int row) {
+	    return this.lines[row];
+	}
+
+	public long getOffset(int row) {
+	    return this.offsets[row];
+	}
+
+	/* Exception the line failed with, null if decoded or rejected by the fast fail policy */
+	public Exception getFailure(int row) {
+	    return this.failures[row];
+	}
+
+	/* Keyword of a fast fail rejection, whose exception is reused by the worker, or null */
+	public String getFastFailKeyword(int row) {
+	    return this.fastFailKeywords[row];
+	}
+
+	public CharSequence getId(int row) {
+	    return this.ids[row];
+	}
+
+	public int getYear(int row) {
+	    return this.years[row];
+	}
+
+	public int getMonth(int row) {
+	    return this.months[row];
+	}
+
+	public int getDay(int row) {
+	    return this.days[row];
+	}
+
+	public float getValue(int row) {
+	    return this.values[row];
+	}
+
+	private boolean isFull() {
+	    return this.size == this.lines.length;
+	}
+
+	private void add(long offset, Text line) {
+	    this.offsets[this.size] = offset;
+	    this.lines[this.size].set(line);
+	    this.size++;
+	}
+
+	private synchronized void complete(Throwable failure) {
+	    this.failure = failure;
+	    this.done = true;
+	    this.notifyAll();
+	}
+
+	private synchronized void await() throws InterruptedException {
+	    while(!this.done) { this.wait(); }
+	}
+
+	private synchronized void clear() {
+	    Arrays.fill(this.ids, 0, this.size, null);
+	    Arrays.fill(this.failures, 0, this.size, null);
+	    Arrays.fill(this.fastFailKeywords, 0, this.size, null);
+	    this.inputFile = null;
+	    this.size = 0;
+	    this.done = false;
+	    this.failure = null;
+	}
+    }
+
+    private class Reader implements Runnable {
+	private final MapContext<LongWritable, Text, ?, ?> context;
+	private final BlockingQueue<Batch> free;
+	private final BlockingQueue<Batch> ordered;
+	private final BlockingQueue<Batch> work;
+
+	Reader(MapContext<LongWritable, Text, ?, ?> context, BlockingQueue<Batch> free, BlockingQueue<Batch> ordered, BlockingQueue<Batch> work) {
+	    this.context = context;
+	    this.free = free;
+	    this.ordered = ordered;
+	    this.work = work;
+	}
+
+	@Override
+	public void run() {
+	    // Combined splits switch files while the task runs
+	    boolean combined = !(this.context.getInputSplit() instanceof FileSplit);
+	    Configuration conf = this.context.getConfiguration();
+	    Batch batch = null;
+
+	    try {
+		try {
+		    while(this.context.nextKeyValue()) {
+			String inputFile = combined ? conf.get("mapreduce.map.input.file", "") : null;
+
+			if(batch != null && (batch.isFull() || (combined && !inputFile.equals(batch.inputFile)))) {
+			    this.dispatch(batch);
+			    batch = null;
+			}
+
+			if(batch == null) {
+			    batch = this.free.take();
+			    batch.inputFile = inputFile;
+			}
+
+			batch.add(this.context.getCurrentKey().get(), this.context.getCurrentValue());
+		    }
+
+		    if(batch != null) { this.dispatch(batch); }
+		}
+		catch(InterruptedException ie) {
+		    // The writer gave up
+		    return;
+		}
+		catch(Throwable t) {
+		    JsonlDailyMapPipeline.this.failure = t;
+		}
+
+		this.ordered.put(END);
+	    }
+	    catch(InterruptedException ie) {
+		// The writer gave up
+	    }
+	}
+
+	private void dispatch(Batch batch) throws InterruptedException {
+	    this.ordered.put(batch);
+	    this.work.put(batch);
+	}
+    }
+
+    private class Worker implements Runnable {
+	private final JsonlDailyConverter converter;
+	private final BlockingQueue<Batch> work;
+
+	Worker(JsonlDailyConverter converter, BlockingQueue<Batch> work) {
+	    this.converter = converter;
+	    this.work = work;
+	}
+
+	@Override
+	public void run() {
+	    // Stage timings into the stripe of this thread
+	    JsonlDailyMetrics.Stripe stripe = null;
+	    if(JsonlDailyMapPipeline.this.metrics != null) {
+		stripe = JsonlDailyMapPipeline.this.metrics.stripe();
+		this.converter.setMetrics(stripe);
+	    }
+
+	    try {
+		while(true) {
+		    Batch batch = this.work.take();
+		    Throwable failure = null;
+
+		    try {
+			for(int row = 0; row < batch.size; row++) {
+			    if(stripe != null) { stripe.begin(batch.lines[row].getLength()); }
+			    this.decode(batch, row);
+			    if(stripe != null && batch.ids[row] == null) { stripe.error(); }
+			}
+		    }
+		    catch(Throwable t) {
+			failure = t;
+		    }
+
+		    batch.complete(failure);
+		}
+	    }
+	    catch(InterruptedException ie) {
+		// End of input
+	    }
+	}
+
+	private void decode(Batch batch, int row) {
+	    Text line = batch.lines[row];
+
+	    try {
+		this.converter.decode(line.getBytes(), line.getLength());
+	    }
+	    catch(JsonlDailyValidationException.FastFail ff) {
+		// Reset by the next rejected line, only the keyword is handed on
+		batch.fastFailKeywords[row] = ff.getKeyword();
+		return;
+	    }
+	    catch(Exception e) {
+		batch.failures[row] = e;
+		return;
+	    }
+
+	    // Interned ids are shared by the station, others are reused by the next line
+	    CharSequence id = this.converter.getId();
+	    if(this.converter.getStationCode() == JsonlDailyStationDictionary.NO_CODE && id instanceof Utf8) {
+		Utf8 utf8 = (Utf8) id;
+		id = new Utf8(Arrays.copyOf(utf8.getBytes(), utf8.getByteLength()));
+	    }
+
+	    batch.ids[row] = id;
+	    batch.years[row] = this.converter.getYear();
+	    batch.months[row] = this.converter.getMonth();
+	    batch.days[row] = this.converter.getDay();
+	    batch.values[row] = this.converter.getValue();
+	}
+    }
+}
@@ -0,0 +1,287 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// JSON parser
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Low overhead metrics of the mapper and reducer hot path.
+ *
+ * Every thread records into its own Stripe, so the hot path neither synchronizes nor shares cache
+ * lines. Stage timings are sampled: one record out of sampleInterval is timed with System.nanoTime
+ * at each stage boundary, the others only cost a counter decrement. Sampled stage times go into a
+ * sum and a log2 histogram per stage. Error rates are bucketed per window of records, so a burst of
+ * corrupt input shows up even when the task average looks healthy.
+ *
+ * At the end of the task the stripes are merged and published as counters of the GROUP counter
+ * group, prefixed by MAP or REDUCE, and as a JSON summary in metrics/ of the task output.
+ */
+public class JsonlDailyMetrics {
+    public static final String ENABLED_KEY = "climate.daily.metrics";
+    public static final String SAMPLE_KEY  = "climate.daily.metrics.sample";
+    public static final String WINDOW_KEY  = "climate.daily.metrics.window";
+
+    public static final String GROUP = "JsonlDailyMetrics";
+
+    /* Counter name prefixes, mapper and reducer metrics are kept apart */
+    public static final String MAP    = "MAP_";
+    public static final String REDUCE = "REDUCE_";
+
+    public static enum STAGE {
+	PARSE,
+	VALIDATE,
+	BUILD,
+	WRITE
+    }
+
+    /* Error rate window buckets: no error, up to 0.1%, up to 1%, up to 10%, above 10% */
+    public static final String[] ERROR_RATE_BUCKETS = { "NONE", "UPTO_0_1PCT", "UPTO_1PCT", "UPTO_10PCT", "OVER_10PCT" };
+
+    private static final int LATENCY_BUCKETS = 40;
+
+    private final int sampleInterval;
+    private final int window;
+    private final long startNanos = System.nanoTime();
+    private final List<Stripe> stripes = new ArrayList<Stripe>();
+
+    private final ThreadLocal<Stripe> localStripe = new ThreadLocal<Stripe>() {
+	@Override
+	protected Stripe initialValue() {
+	    Stripe stripe = new Stripe(JsonlDailyMetrics.this.sampleInterval, JsonlDailyMetrics.this.window);
+	    synchronized(JsonlDailyMetrics.this.stripes) { JsonlDailyMetrics.this.stripes.add(stripe); }
+	    return stripe;
+	}
+    };
+
+    public JsonlDailyMetrics(int sampleInterval, int window) {
+	this.sampleInterval = Math.max(1, sampleInterval);
+	this.window = Math.max(1, window);
+    }
+
+    /* Metrics of the task, null unless enabled */
+    public static JsonlDailyMetrics create(Configuration conf) {
+	if(!conf.getBoolean(ENABLED_KEY, false)) { return null; }
+
+	return new JsonlDailyMetrics(conf.getInt(SAMPLE_KEY, 64), conf.getInt(WINDOW_KEY, 10000));
+    }
+
+    /* Stripe of the calling thread, look it up once per thread and keep it */
+    public Stripe stripe() {
+	return this.localStripe.get();
+    }
+
+    /**
+     * Publishes the merged stripes as counters and writes the JSON summary of the task. Must be
+     * called once, after every thread is done recording.
+     */
+    public void publish(TaskInputOutputContext<?, ?, ?, ?> context, long bytesOut) throws IOException, InterruptedException {
+	Stripe total = new Stripe(this.sampleInterval, this.window);
+	synchronized(this.stripes) {
+	    for(Stripe stripe : this.stripes) { total.merge(stripe); }
+	}
+
+	long elapsedMillis = (System.nanoTime() - this.startNanos) / 1000000L;
+
+	String prefix = (context.getTaskAttemptID().getTaskType() == TaskType.MAP) ? MAP : REDUCE;
+
+	context.getCounter(GROUP, prefix + "RECORDS").increment(total.records);
+	context.getCounter(GROUP, prefix + "ERRORS").increment(total.errors);
+	context.getCounter(GROUP, prefix + "BYTES_IN").increment(total.bytesIn);
+	context.getCounter(GROUP, prefix + "BYTES_OUT").increment(bytesOut);
+	context.getCounter(GROUP, prefix + "TASK_MILLIS").increment(elapsedMillis);
+
+	for(STAGE stage : STAGE.values()) {
+	    context.getCounter(GROUP, prefix + stage + "_SAMPLES").increment(total.stageSamples[stage.ordinal()]);
+	    context.getCounter(GROUP, prefix + stage + "_NANOS").increment(total.stageNanos[stage.ordinal()]);
+	}
+
+	for(int bucket = 0; bucket < ERROR_RATE_BUCKETS.length; bucket++) {
+	    context.getCounter(GROUP, prefix + "ERROR_WINDOWS_" + ERROR_RATE_BUCKETS[bucket]).increment(total.errorWindows[bucket]);
+	}
+
+	Path file = new Path(FileOutputFormat.getWorkOutputPath(context),
+			     "metrics/" + FileOutputFormat.getUniqueFile(context, "metrics", ".json"));
+	this.writeSummary(context.getConfiguration(), file, context.getTaskAttemptID().toString(), total, elapsedMillis, bytesOut);
+    }
+
+    /* Bytes written into partitions/ of the task output, call once the partition writers are closed */
+    public static long partitionBytes(TaskInputOutputContext<?, ?, ?, ?> context) throws IOException, InterruptedException {
+	Path partitionsPath = new Path(FileOutputFormat.getWorkOutputPath(context), "partitions");
+	FileSystem fs = partitionsPath.getFileSystem(context.getConfiguration());
+
+	return fs.exists(partitionsPath) ? fs.getContentSummary(partitionsPath).getLength() : 0L;
+    }
+
+    /* Mean nanoseconds of a stage over the sampled records of a job, -1 if never sampled */
+    public static double meanNanos(Counters counters, String prefix, STAGE stage) {
+	long samples = counters.findCounter(GROUP, prefix + stage + "_SAMPLES").getValue();
+	if(samples == 0L) { return -1.0; }
+
+	return counters.findCounter(GROUP, prefix + stage + "_NANOS").getValue() / (double) samples;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* SUMMARY HELPERS                                                                                   */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private void writeSummary(Configuration conf, Path file, String attempt, Stripe total, long elapsedMillis, long bytesOut) throws IOException {
+	ObjectMapper objectMapper = new ObjectMapper();
+	ObjectNode summary = objectMapper.createObjectNode();
+
+	summary.put("attempt", attempt);
+	summary.put("elapsedMillis", elapsedMillis);
+	summary.put("records", total.records);
+	summary.put("recordsPerSecond", (elapsedMillis > 0L) ? total.records * 1000.0 / elapsedMillis : 0.0);
+	summary.put("bytesIn", total.bytesIn);
+	summary.put("bytesOut", bytesOut);
+	summary.put("errors", total.errors);
+	summary.put("errorRate", (total.records > 0L) ? total.errors / (double) total.records : 0.0);
+	summary.put("sampleInterval", this.sampleInterval);
+
+	ObjectNode stages = summary.putObject("stages");
+	for(STAGE stage : STAGE.values()) {
+	    int index = stage.ordinal();
+	    ObjectNode stageNode = stages.putObject(stage.toString());
+	    stageNode.put("samples", total.stageSamples[index]);
+	    stageNode.put("sampledNanos", total.stageNanos[index]);
+	    stageNode.put("meanNanos", (total.stageSamples[index] > 0L) ? total.stageNanos[index] / (double) total.stageSamples[index] : 0.0);
+
+	    // Bucket b holds the samples below 2^b nanoseconds, empty buckets left out
+	    ArrayNode histogram = stageNode.putArray("histogram");
+	    for(int bucket = 0; bucket < LATENCY_BUCKETS; bucket++) {
+		if(total.stageHistograms[index][bucket] == 0L) { continue; }
+		histogram.addObject().put("belowNanos", 1L << bucket).put("count", total.stageHistograms[index][bucket]);
+	    }
+	}
+
+	ObjectNode errorWindows = summary.putObject("errorRateWindows");
+	errorWindows.put("window", this.window);
+	for(int bucket = 0; bucket < ERROR_RATE_BUCKETS.length; bucket++) {
+	    errorWindows.put(ERROR_RATE_BUCKETS[bucket], total.errorWindows[bucket]);
+	}
+
+	OutputStream out = file.getFileSystem(conf).create(file, true);
+
+	try {
+	    objectMapper.writerWithDefaultPrettyPrinter().writeValue(out, summary);
+	}
+	finally {
+	    out.close();
+	}
+    }
+
+    /**
+     * Accumulators of one thread, not thread safe.
+     */
+    public static class Stripe {
+	private final int sampleInterval;
+	private final int window;
+	private int countdown = 1;
+	private long mark = 0L;
+
+	private long records = 0L;
+	private long errors = 0L;
+	private long bytesIn = 0L;
+
+	private final long[] stageNanos = new long[STAGE.values().length];
+	private final long[] stageSamples = new long[STAGE.values().length];
+	private final long[][] stageHistograms = new long[STAGE.values().length][LATENCY_BUCKETS];
+
+	private long windowRecords = 0L;
+	private long windowErrors = 0L;
+	private final long[] errorWindows = new long[ERROR_RATE_BUCKETS.length];
+
+	Stripe(int sampleInterval, int window) {
+	    this.sampleInterval = sampleInterval;
+	    this.window = window;
+	}
+
+	/* Starts a record of the given size, timing its stages if it is sampled */
+	public void begin(int bytes) {
+	    if(this.windowRecords == this.window) { this.closeWindow(); }
+
+	    this.records++;
+	    this.windowRecords++;
+	    this.bytesIn += bytes;
+
+	    if(--this.countdown > 0) {
+		this.mark = 0L;
+		return;
+	    }
+
+	    this.countdown = this.sampleInterval;
+	    this.mark = System.nanoTime();
+	}
+
+	/* Ends a stage of the current record, the next stage starts now */
+	public void lap(STAGE stage) {
+	    if(this.mark == 0L) { return; }
+
+	    long now = System.nanoTime();
+	    long nanos = now - this.mark;
+	    int index = stage.ordinal();
+
+	    this.stageNanos[index] += nanos;
+	    this.stageSamples[index]++;
+	    this.stageHistograms[index][Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))]++;
+	    this.mark = now;
+	}
+
+	/* Input bytes not seen record by record, like the shuffled bytes of a reducer */
+	public void addBytesIn(long bytes) {
+	    this.bytesIn += bytes;
+	}
+
+	/* Marks the current record as failed */
+	public void error() {
+	    this.errors++;
+	    this.windowErrors++;
+	}
+
+	private void closeWindow() {
+	    double rate = this.windowErrors / (double) this.windowRecords;
+	    int bucket = (this.windowErrors == 0L) ? 0 : (rate <= 0.001) ? 1 : (rate <= 0.01) ? 2 : (rate <= 0.1) ? 3 : 4;
+
+	    this.errorWindows[bucket]++;
+	    this.windowRecords = 0L;
+	    this.windowErrors = 0L;
+	}
+
+	private void merge(Stripe other) {
+	    // The last, partial window counts like a full one
+	    if(other.windowRecords > 0L) { other.closeWindow(); }
+
+	    this.records += other.records;
+	    this.errors += other.errors;
+	    this.bytesIn += other.bytesIn;
+
+	    for(int index = 0; index < this.stageNanos.length; index++) {
+		this.stageNanos[index] += other.stageNanos[index];
+		this.stageSamples[index] += other.stageSamples[index];
+		for(int bucket = 0; bucket < LATENCY_BUCKETS; bucket++) {
+		    this.stageHistograms[index][bucket] += other.stageHistograms[index][bucket];
+		}
+	    }
+
+	    for(int bucket = 0; bucket < this.errorWindows.length; bucket++) {
+		this.errorWindows[bucket] += other.errorWindows[bucket];
+	    }
+	}
+    }
+}
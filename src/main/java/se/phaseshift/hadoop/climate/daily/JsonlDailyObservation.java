@@ -0,0 +1,223 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.nio.charset.StandardCharsets;
+
+// JSON parser
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+// AVRO
+import org.apache.avro.util.Utf8;
+
+// AVRO UTILS
+import se.phaseshift.hadoop.util.ByteCharSequence;
+
+/**
+ * Reusable, primitive holder of one decoded daily JSON line (id, year, month, day, value).
+ *
+ * Each field slot records the JSON type found (using the type bits of JsonlDailyCompiledValidator,
+ * zero when missing) together with its primitive value. Strings are views into the decoded line
+ * bytes, so decoding a line does not allocate a String, a JsonNode tree or any boxed number.
+ */
+public class JsonlDailyObservation {
+    public static final int ID    = 0;
+    public static final int YEAR  = 1;
+    public static final int MONTH = 2;
+    public static final int DAY   = 3;
+    public static final int VALUE = 4;
+    public static final int FIELD_COUNT = 5;
+
+    public static final String[] FIELD_NAMES = { "id", "year", "month", "day", "value" };
+
+    private static final byte[][] FIELD_BYTES = new byte[FIELD_COUNT][];
+    static {
+	for(int slot = 0; slot < FIELD_COUNT; slot++) {
+	    FIELD_BYTES[slot] = FIELD_NAMES[slot].getBytes(StandardCharsets.US_ASCII);
+	}
+    }
+
+    /* Boxed year, month and day values shared by all records */
+    private static final Integer[] BOXED = new Integer[4096];
+    static {
+	for(int value = 0; value < BOXED.length; value++) { BOXED[value] = Integer.valueOf(value); }
+    }
+
+    private int rootType;
+
+    private final int[] types = new int[FIELD_COUNT];
+    private final long[] longs = new long[FIELD_COUNT];
+    private final double[] doubles = new double[FIELD_COUNT];
+    private final boolean[] exactLongs = new boolean[FIELD_COUNT];
+    private final boolean[] asciiTexts = new boolean[FIELD_COUNT];
+    private final ByteCharSequence[] texts = new ByteCharSequence[FIELD_COUNT];
+
+    private byte[] scratch = new byte[256];
+    private int scratchLength = 0;
+
+    private final Utf8 idUtf8 = new Utf8();
+
+    public JsonlDailyObservation() {
+	for(int slot = 0; slot < FIELD_COUNT; slot++) { this.texts[slot] = new ByteCharSequence(); }
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* DECODER INTERFACE                                                                                 */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    public static int fieldIndex(String name) {
+	for(int slot = 0; slot < FIELD_COUNT; slot++) {
+	    if(FIELD_NAMES[slot].equals(name)) { return slot; }
+	}
+
+	return -1;
+    }
+
+    static int fieldIndex(byte[] bytes, int offset, int length) {
+	for(int slot = 0; slot < FIELD_COUNT; slot++) {
+	    byte[] name = FIELD_BYTES[slot];
+	    if(name.length != length) { continue; }
+
+	    int index = 0;
+	    while(index < length && name[index] == bytes[offset + index]) { index++; }
+	    if(index == length) { return slot; }
+	}
+
+	return -1;
+    }
+
+    void reset(int rootType) {
+	this.rootType = rootType;
+	this.scratchLength = 0;
+
+	for(int slot = 0; slot < FIELD_COUNT; slot++) { this.types[slot] = 0; }
+    }
+
+    void setType(int slot, int type) {
+	this.types[slot] = type;
+    }
+
+    void setNumber(int slot, int type, boolean exactLong, long longValue, double doubleValue) {
+	this.types[slot] = type;
+	this.exactLongs[slot] = exactLong;
+	this.longs[slot] = longValue;
+	this.doubles[slot] = doubleValue;
+    }
+
+    void setText(int slot, byte[] bytes, int offset, int length, boolean ascii) {
+	this.types[slot] = JsonlDailyCompiledValidator.TYPE_STRING;
+	this.asciiTexts[slot] = ascii;
+	this.texts[slot].set(bytes, offset, length);
+    }
+
+    /* Scratch area holding unescaped strings of the current line */
+    byte[] scratch(int capacity) {
+	if(this.scratchLength + capacity > this.scratch.length) {
+	    byte[] grown = new byte[Math.max(this.scratch.length * 2, this.scratchLength + capacity)];
+	    System.arraycopy(this.scratch, 0, grown, 0, this.scratchLength);
+	    this.scratch = grown;
+	}
+
+	return this.scratch;
+    }
+
+    int scratchLength() {
+	return this.scratchLength;
+    }
+
+    void scratchLength(int scratchLength) {
+	this.scratchLength = scratchLength;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* VALIDATOR INTERFACE                                                                               */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    public int getRootType() {
+	return this.rootType;
+    }
+
+    public int getType(int slot) {
+	return this.types[slot];
+    }
+
+    public boolean isExactLong(int slot) {
+	return this.exactLongs[slot];
+    }
+
+    public long getLong(int slot) {
+	return this.longs[slot];
+    }
+
+    public double getDouble(int slot) {
+	return this.doubles[slot];
+    }
+
+    public CharSequence getText(int slot) {
+	// Non ASCII strings are rare, decode them to keep regex semantics exact
+	if(!this.asciiTexts[slot]) {
+	    ByteCharSequence text = this.texts[slot];
+	    return new String(text.getBytes(), text.getOffset(), text.length(), StandardCharsets.UTF_8);
+	}
+
+	return this.texts[slot];
+    }
+
+    /* Undecoded (UTF-8) bytes of a string slot, a view into the line bytes */
+    public ByteCharSequence getTextBytes(int slot) {
+	return this.texts[slot];
+    }
+
+    /* Only used when reporting validation errors */
+    public JsonNode toJsonNode(int slot) {
+	JsonNodeFactory factory = JsonNodeFactory.instance;
+
+	switch(this.types[slot]) {
+	case JsonlDailyCompiledValidator.TYPE_STRING:
+	    return factory.textNode(this.getText(slot).toString());
+	case JsonlDailyCompiledValidator.TYPE_INTEGER:
+	    return this.exactLongs[slot] ? factory.numberNode(this.longs[slot]) : factory.numberNode(this.doubles[slot]);
+	case JsonlDailyCompiledValidator.TYPE_NUMBER:
+	    return factory.numberNode(this.doubles[slot]);
+	case JsonlDailyCompiledValidator.TYPE_BOOLEAN:
+	    return factory.booleanNode(this.longs[slot] != 0L);
+	case JsonlDailyCompiledValidator.TYPE_OBJECT:
+	    return factory.objectNode();
+	case JsonlDailyCompiledValidator.TYPE_ARRAY:
+	    return factory.arrayNode();
+	default:
+	    return factory.nullNode();
+	}
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* RECORD INTERFACE (valid observations only)                                                        */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    /* Reused between lines, the record must be serialized before the next line is decoded */
+    public Utf8 getIdUtf8() {
+	ByteCharSequence text = this.texts[ID];
+	this.idUtf8.setByteLength(text.length());
+	System.arraycopy(text.getBytes(), text.getOffset(), this.idUtf8.getBytes(), 0, text.length());
+	return this.idUtf8;
+    }
+
+    public int getYear() {
+	return (int) this.longs[YEAR];
+    }
+
+    public int getMonth() {
+	return (int) this.longs[MONTH];
+    }
+
+    public int getDay() {
+	return (int) this.longs[DAY];
+    }
+
+    public float getValue() {
+	return (float) this.doubles[VALUE];
+    }
+
+    public static Integer box(int value) {
+	return (value >= 0 && value < BOXED.length) ? BOXED[value] : Integer.valueOf(value);
+    }
+}
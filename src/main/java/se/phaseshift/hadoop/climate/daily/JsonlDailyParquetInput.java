@@ -0,0 +1,133 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.mapreduce.Job;
+
+// AVRO
+import org.apache.avro.Schema;
+
+// Parquet
+import org.apache.parquet.avro.AvroParquetInputFormat;
+import org.apache.parquet.avro.AvroReadSupport;
+import org.apache.parquet.avro.AvroSchemaConverter;
+import org.apache.parquet.avro.GenericDataSupplier;
+import org.apache.parquet.hadoop.Footer;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.schema.MessageType;
+
+/**
+ * Parquet side input: re-shapes year partitions written by an earlier run onto the current
+ * output schema, without parsing or validating JSON again.
+ *
+ * Only the output schema fields present in every input file are requested from Parquet, so no
+ * other column is read. Records are materialized with the output schema as Avro read schema,
+ * fields missing from the files (added since) get their schema default.
+ */
+public class JsonlDailyParquetInput {
+    public static final String SUFFIX = ".parquet";
+
+    /* Output directories next to the partitions holding Parquet files which are not data */
+    private static final String[] SIDE_DIRS = { "errors", "metrics", "rollups" };
+
+    /* Parquet data files below the input path (a glob), skipping hidden files and side outputs */
+    public static List<FileStatus> listInputs(FileSystem fs, Path inputPath) throws IOException {
+	List<FileStatus> inputs = new ArrayList<FileStatus>();
+	FileStatus[] matches = fs.globStatus(inputPath);
+	if(matches == null) { return inputs; }
+
+	for(FileStatus match : matches) {
+	    if(!match.isDirectory()) {
+		if(isInput(match.getPath())) { inputs.add(match); }
+		continue;
+	    }
+
+	    RemoteIterator<LocatedFileStatus> files = fs.listFiles(match.getPath(), true);
+	    while(files.hasNext()) {
+		LocatedFileStatus file = files.next();
+		if(isInput(file.getPath())) { inputs.add(file); }
+	    }
+	}
+
+	return inputs;
+    }
+
+    public static boolean isInput(Path file) {
+	if(!file.getName().endsWith(SUFFIX)) { return false; }
+
+	for(Path path = file; path != null && !path.isRoot(); path = path.getParent()) {
+	    String name = path.getName();
+	    if(name.startsWith("_") || name.startsWith(".")) { return false; }
+
+	    for(String sideDir : SIDE_DIRS) {
+		if(path != file && name.equals(sideDir)) { return false; }
+	    }
+	}
+
+	return true;
+    }
+
+    /**
+     * Configures the projection and the read schema of the job, returns the projection.
+     *
+     * Throws IllegalArgumentException if an output field is in no input file and has no default.
+     */
+    public static Schema configure(Job job, List<FileStatus> inputs, Schema outputSchema) throws IOException {
+	Configuration conf = job.getConfiguration();
+	List<Schema.Field> projectedFields = new ArrayList<Schema.Field>();
+	List<String> droppedFields = new ArrayList<String>();
+
+	// Footers only, like the split computation of ParquetInputFormat
+	List<Schema> fileSchemas = new ArrayList<Schema>();
+	for(Footer footer : ParquetFileReader.readAllFootersInParallel(conf, inputs)) {
+	    MessageType fileType = footer.getParquetMetadata().getFileMetaData().getSchema();
+	    fileSchemas.add(new AvroSchemaConverter(conf).convert(fileType));
+	}
+
+	for(Schema.Field field : outputSchema.getFields()) {
+	    Schema.Field fileField = null;
+	    int found = 0;
+
+	    for(Schema fileSchema : fileSchemas) {
+		Schema.Field candidate = fileSchema.getField(field.name());
+		if(candidate != null) { fileField = candidate; found++; }
+	    }
+
+	    if(found > 0 && found == fileSchemas.size()) {
+		// Requested with the file type, converted into the output type by schema resolution
+		projectedFields.add(new Schema.Field(fileField.name(), fileField.schema(), fileField.doc(), fileField.defaultValue()));
+		continue;
+	    }
+
+	    if(field.defaultValue() == null) {
+		throw new IllegalArgumentException("Output field " + field.name() + " is missing from " +
+						   (fileSchemas.size() - found) + " input files and has no default");
+	    }
+
+	    if(found > 0) { droppedFields.add(field.name()); }
+	}
+
+	if(!droppedFields.isEmpty()) {
+	    System.out.println("Parquet input: fields missing from some input files read as defaults: " + droppedFields);
+	}
+
+	Schema projection = Schema.createRecord(outputSchema.getName(), outputSchema.getDoc(), outputSchema.getNamespace(), false);
+	projection.setFields(projectedFields);
+
+	AvroReadSupport.setAvroDataSupplier(conf, GenericDataSupplier.class);
+	AvroParquetInputFormat.setRequestedProjection(job, projection);
+	AvroParquetInputFormat.setAvroReadSchema(job, outputSchema);
+
+	return projection;
+    }
+}
@@ -0,0 +1,183 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.lang.InterruptedException;
+
+import java.io.IOException;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+// AVRO
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+// AVRO UTILS
+import se.phaseshift.hadoop.util.ConfiguredWritableGenericRecord;
+import se.phaseshift.hadoop.util.ParquetPartitionWriterPool;
+import se.phaseshift.hadoop.util.WritableGenericRecord;
+
+/**
+ * Mapper of the Parquet side input mode (see JsonlDailyParquetInput).
+ *
+ * Records arrive already projected onto the output schema and were validated when first
+ * converted, so they are dispatched like the records of JsonlDailyETLMapper without parsing,
+ * validation or building. Batched map output does not apply to this mode.
+ */
+public class JsonlDailyParquetMapper extends Mapper<Void, GenericRecord, WritableComparable, Writable> {
+    private WritableGenericRecord outputRecord = null;
+    private ParquetPartitionWriterPool partitionWriters = null;
+    private JsonlDailySortKey sortKey = null;
+    private JsonlDailyDedupKey dedupKey = null;
+    private long inputVersion = 0L;
+    private long sequence = 0L;
+    private JsonlDailyBloomFilter seenKeys = null;
+    private Counter probableDuplicates = null;
+    private JsonlDailyMetrics metrics = null;
+    private JsonlDailyMetrics.Stripe stripe = null;
+    private Text yearKey = new Text();
+    private String yearPartition = null;
+    private int yearKeyValue = Integer.MIN_VALUE;
+    private int idField = 0;
+    private int yearField = 0;
+    private int monthField = 0;
+    private int dayField = 0;
+    private JsonlDailyStationEnricher enricher = null;
+    private Counter unknownStations = null;
+
+    @Override
+    public void setup(Context context) throws IOException {
+	// Get configuration
+	Configuration conf = context.getConfiguration();
+	conf.setBoolean("mapred.output.compress", false);
+
+	// Records are read with the output schema
+	Schema outputSchema = ConfiguredWritableGenericRecord.getSchema(conf);
+	this.idField = outputSchema.getField("id").pos();
+	this.yearField = outputSchema.getField("year").pos();
+	this.monthField = outputSchema.getField("month").pos();
+	this.dayField = outputSchema.getField("day").pos();
+
+	// Map-only mode writes the year partitions directly into the task work directory
+	if(JsonlDailyETL.MODE_MAP_ONLY.equals(conf.get("climate.daily.mode", JsonlDailyETL.MODE_SHUFFLE))) {
+	    Path partitionsPath = new Path(FileOutputFormat.getWorkOutputPath(context), "partitions");
+	    String fileName = FileOutputFormat.getUniqueFile(context, "data", "");
+	    this.partitionWriters = new ParquetPartitionWriterPool(conf, partitionsPath, fileName, outputSchema);
+	}
+	else {
+	    // Create the (reused) writable wrapper of the configured map output value class
+	    this.outputRecord = (WritableGenericRecord) ReflectionUtils.newInstance(context.getMapOutputValueClass(), conf);
+	}
+
+	// Dedup mode shuffles on (year, id, month, day, version, sequence), newest version first
+	boolean dedup = conf.getBoolean("climate.daily.dedup", false);
+	if(dedup && this.partitionWriters == null) {
+	    Path inputPath = ((FileSplit) context.getInputSplit()).getPath();
+	    this.inputVersion = inputPath.getFileSystem(conf).getFileStatus(inputPath).getModificationTime();
+	    this.dedupKey = new JsonlDailyDedupKey();
+	    this.sortKey = this.dedupKey;
+	}
+	// Sorted layout shuffles on (year, id, month, day) instead of year
+	else if(JsonlDailyETL.LAYOUT_SORTED.equals(conf.get("climate.daily.layout", JsonlDailyETL.LAYOUT_ARRIVAL))) {
+	    this.sortKey = new JsonlDailySortKey();
+	}
+
+	// Map-only dedup can only count the probable duplicates within the task
+	if(dedup && this.partitionWriters != null) {
+	    long expectedKeys = context.getInputSplit().getLength() / Math.max(1, conf.getInt("climate.daily.dedup.bloom.line.bytes", 64));
+	    this.seenKeys = new JsonlDailyBloomFilter(expectedKeys, conf.getFloat("climate.daily.dedup.bloom.fpp", 0.01f));
+	    this.probableDuplicates = context.getCounter(JsonlDailyETL.COUNTERS.PROBABLE_DUPLICATES);
+	}
+
+	// Partitions of an earlier run get the attributes of the current station table
+	JsonlDailyStationTable stationTable = JsonlDailyStationTable.get(conf);
+	if(stationTable != null) {
+	    this.enricher = new JsonlDailyStationEnricher(stationTable, outputSchema);
+	    this.unknownStations = context.getCounter(JsonlDailyStationEnricher.COUNTERS.UNKNOWN_STATIONS);
+	}
+
+	// Sampled write timings, published when the task ends
+	this.metrics = JsonlDailyMetrics.create(conf);
+	if(this.metrics != null) {
+	    this.stripe = this.metrics.stripe();
+	}
+    }
+
+    @Override
+    public void map(Void key, GenericRecord record, Context context) throws IOException, InterruptedException {
+	context.getCounter(JsonlDailyETL.COUNTERS.TOTAL_PROCESSED).increment(1);
+	if(this.stripe != null) { this.stripe.begin(0); }
+
+	int dailyYear = (Integer) record.get(this.yearField);
+
+	if(this.enricher != null && !this.enricher.enrich(record, (CharSequence) record.get(this.idField))) {
+	    this.unknownStations.increment(1);
+	}
+
+	if(this.partitionWriters != null) {
+	    if(this.seenKeys != null &&
+	       this.seenKeys.put((CharSequence) record.get(this.idField), dailyYear,
+				 (Integer) record.get(this.monthField), (Integer) record.get(this.dayField))) {
+		this.probableDuplicates.increment(1);
+	    }
+
+	    // Write AVRO record straight into its year partition
+	    this.yearKey(dailyYear);
+	    this.partitionWriters.write(this.yearPartition, record);
+	}
+	else if(this.sortKey != null) {
+	    this.outputRecord.setRecord(record);
+	    this.sortKey.set(dailyYear,
+			     (CharSequence) record.get(this.idField),
+			     (Integer) record.get(this.monthField),
+			     (Integer) record.get(this.dayField));
+	    if(this.dedupKey != null) {
+		// Records of a split are read in file order
+		this.dedupKey.setVersion(this.inputVersion, this.sequence++);
+	    }
+	    context.write(this.sortKey, this.outputRecord);
+	}
+	else {
+	    this.outputRecord.setRecord(record);
+	    context.write(this.yearKey(dailyYear), this.outputRecord);
+	}
+
+	if(this.stripe != null) { this.stripe.lap(JsonlDailyMetrics.STAGE.WRITE); }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+	// Close open partition writers (map-only mode)
+	if(this.partitionWriters != null) {
+	    this.partitionWriters.close();
+	}
+
+	// Publish write timings (metrics mode)
+	if(this.metrics != null) {
+	    this.stripe.addBytesIn(context.getInputSplit().getLength());
+	    long bytesOut = (this.partitionWriters != null) ?
+		JsonlDailyMetrics.partitionBytes(context) : context.getCounter(TaskCounter.MAP_OUTPUT_BYTES).getValue();
+	    this.metrics.publish(context, bytesOut);
+	}
+    }
+
+    private Text yearKey(int year) {
+	// Partitions are mostly read year by year, so the key rarely changes
+	if(year != this.yearKeyValue) {
+	    this.yearPartition = Integer.toString(year);
+	    this.yearKey.set(this.yearPartition);
+	    this.yearKeyValue = year;
+	}
+
+	return this.yearKey;
+    }
+}
@@ -0,0 +1,260 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+// AVRO
+import org.apache.avro.util.Utf8;
+
+/**
+ * Batch of daily records of one year, shipped as a single map output value.
+ *
+ * Records are kept in primitive columns (month, day, value) plus an id column of codes into a
+ * per batch id dictionary, so the framework overhead of context.write, serialization and sorting
+ * is paid once per batch instead of once per line. Serialized as variable length integers, each
+ * distinct id once.
+ */
+public class JsonlDailyRecordBatch implements Writable {
+    private int year = 0;
+    private int size = 0;
+
+    private int[] idCodes = new int[256];
+    private int[] months = new int[256];
+    private int[] days = new int[256];
+    private float[] values = new float[256];
+
+    /* Per batch id dictionary */
+    private byte[][] ids = new byte[64][];
+    private int[] idLengths = new int[64];
+    private Utf8[] idUtf8s = new Utf8[64];
+    private int idCount = 0;
+
+    /* Station dictionary code to batch id code, open addressing on code + 1 */
+    private int[] stationKeys = new int[128];
+    private int[] stationCodes = new int[128];
+    private int lastStationCode = JsonlDailyStationDictionary.NO_CODE;
+    private int lastIdCode = -1;
+
+    public JsonlDailyRecordBatch() {}
+
+    public JsonlDailyRecordBatch(int year) {
+	this.year = year;
+    }
+
+    public int getYear() {
+	return this.year;
+    }
+
+    public int size() {
+	return this.size;
+    }
+
+    public void clear() {
+	this.size = 0;
+	this.idCount = 0;
+	this.lastStationCode = JsonlDailyStationDictionary.NO_CODE;
+	this.lastIdCode = -1;
+	Arrays.fill(this.stationKeys, 0);
+    }
+
+    /* Adds a record, stationCode is the JsonlDailyStationDictionary code of the id or NO_CODE */
+    public void add(int stationCode, CharSequence id, int month, int day, float value) {
+	if(this.size == this.months.length) {
+	    int capacity = this.size * 2;
+	    this.idCodes = Arrays.copyOf(this.idCodes, capacity);
+	    this.months = Arrays.copyOf(this.months, capacity);
+	    this.days = Arrays.copyOf(this.days, capacity);
+	    this.values = Arrays.copyOf(this.values, capacity);
+	}
+
+	this.idCodes[this.size] = this.idCode(stationCode, id);
+	this.months[this.size] = month;
+	this.days[this.size] = day;
+	this.values[this.size] = value;
+	this.size++;
+    }
+
+    /* Id of a record, the Utf8 is shared by all records of the same id in this batch */
+    public Utf8 getId(int row) {
+	int code = this.idCodes[row];
+	Utf8 utf8 = this.idUtf8s[code];
+
+	if(utf8 == null) {
+	    utf8 = new Utf8(Arrays.copyOf(this.ids[code], this.idLengths[code]));
+	    this.idUtf8s[code] = utf8;
+	}
+
+	return utf8;
+    }
+
+    public int getMonth(int row) {
+	return this.months[row];
+    }
+
+    public int getDay(int row) {
+	return this.days[row];
+    }
+
+    public float getValue(int row) {
+	return this.values[row];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+	WritableUtils.writeVInt(out, this.year);
+	WritableUtils.writeVInt(out, this.idCount);
+	for(int code = 0; code < this.idCount; code++) {
+	    WritableUtils.writeVInt(out, this.idLengths[code]);
+	    out.write(this.ids[code], 0, this.idLengths[code]);
+	}
+
+	WritableUtils.writeVInt(out, this.size);
+	for(int row = 0; row < this.size; row++) {
+	    WritableUtils.writeVInt(out, this.idCodes[row]);
+	    WritableUtils.writeVInt(out, this.months[row]);
+	    WritableUtils.writeVInt(out, this.days[row]);
+	    out.writeFloat(this.values[row]);
+	}
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+	this.clear();
+	this.year = WritableUtils.readVInt(in);
+
+	int idCount = WritableUtils.readVInt(in);
+	for(int code = 0; code < idCount; code++) {
+	    int length = WritableUtils.readVInt(in);
+	    byte[] id = this.nextId(length);
+	    in.readFully(id, 0, length);
+	}
+
+	int size = WritableUtils.readVInt(in);
+	if(size > this.months.length) {
+	    this.idCodes = new int[size];
+	    this.months = new int[size];
+	    this.days = new int[size];
+	    this.values = new float[size];
+	}
+
+	for(int row = 0; row < size; row++) {
+	    this.idCodes[row] = WritableUtils.readVInt(in);
+	    this.months[row] = WritableUtils.readVInt(in);
+	    this.days[row] = WritableUtils.readVInt(in);
+	    this.values[row] = in.readFloat();
+	}
+
+	this.size = size;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* DICTIONARY HELPERS                                                                                */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private int idCode(int stationCode, CharSequence id) {
+	// Input is ordered by station, most records repeat the id of the previous one
+	if(stationCode != JsonlDailyStationDictionary.NO_CODE && stationCode == this.lastStationCode) {
+	    return this.lastIdCode;
+	}
+
+	int code = -1;
+	int slot = -1;
+
+	if(stationCode != JsonlDailyStationDictionary.NO_CODE) {
+	    int mask = this.stationKeys.length - 1;
+	    slot = (stationCode * 0x9e3779b9 >>> 7) & mask;
+
+	    while(this.stationKeys[slot] != 0) {
+		if(this.stationKeys[slot] == stationCode + 1) { code = this.stationCodes[slot]; break; }
+		slot = (slot + 1) & mask;
+	    }
+	}
+
+	if(code < 0) {
+	    code = this.addId(id, stationCode == JsonlDailyStationDictionary.NO_CODE);
+
+	    if(stationCode != JsonlDailyStationDictionary.NO_CODE) {
+		this.stationKeys[slot] = stationCode + 1;
+		this.stationCodes[slot] = code;
+		if(this.idCount * 2 > this.stationKeys.length) { this.growStations(); }
+	    }
+	}
+
+	this.lastStationCode = stationCode;
+	this.lastIdCode = code;
+
+	return code;
+    }
+
+    private int addId(CharSequence id, boolean reuseLast) {
+	byte[] bytes = null;
+	int length = 0;
+
+	if(id instanceof Utf8) {
+	    bytes = ((Utf8) id).getBytes();
+	    length = ((Utf8) id).getByteLength();
+	}
+	else {
+	    bytes = id.toString().getBytes(StandardCharsets.UTF_8);
+	    length = bytes.length;
+	}
+
+	// Ids without station code are only compared with the previous one
+	if(reuseLast && this.lastIdCode >= 0 && this.idLengths[this.lastIdCode] == length) {
+	    byte[] last = this.ids[this.lastIdCode];
+	    int index = 0;
+	    while(index < length && last[index] == bytes[index]) { index++; }
+	    if(index == length) { return this.lastIdCode; }
+	}
+
+	System.arraycopy(bytes, 0, this.nextId(length), 0, length);
+
+	return this.idCount - 1;
+    }
+
+    /* Buffer of the next id, reused from previous batches when large enough */
+    private byte[] nextId(int length) {
+	if(this.idCount == this.ids.length) {
+	    int capacity = this.idCount * 2;
+	    this.ids = Arrays.copyOf(this.ids, capacity);
+	    this.idLengths = Arrays.copyOf(this.idLengths, capacity);
+	    this.idUtf8s = Arrays.copyOf(this.idUtf8s, capacity);
+	}
+
+	int code = this.idCount++;
+	if(this.ids[code] == null || this.ids[code].length < length) {
+	    this.ids[code] = new byte[Math.max(16, length)];
+	}
+
+	this.idLengths[code] = length;
+	this.idUtf8s[code] = null;
+
+	return this.ids[code];
+    }
+
+    private void growStations() {
+	int[] keys = this.stationKeys;
+	int[] codes = this.stationCodes;
+	this.stationKeys = new int[keys.length * 2];
+	this.stationCodes = new int[keys.length * 2];
+	int mask = this.stationKeys.length - 1;
+
+	for(int index = 0; index < keys.length; index++) {
+	    if(keys[index] == 0) { continue; }
+
+	    int slot = ((keys[index] - 1) * 0x9e3779b9 >>> 7) & mask;
+	    while(this.stationKeys[slot] != 0) { slot = (slot + 1) & mask; }
+	    this.stationKeys[slot] = keys[index];
+	    this.stationCodes[slot] = codes[index];
+	}
+    }
+}
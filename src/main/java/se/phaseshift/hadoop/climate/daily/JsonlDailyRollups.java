@@ -0,0 +1,312 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.util.Arrays;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.io.Text;
+
+// AVRO
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+
+/**
+ * Hash aggregation of the monthly station rollups: count, min, max and sum of the values per
+ * (station, year, month), kept in primitive arrays.
+ *
+ * Mappers combine their records into a table of at most maxEntries keys. When a new key does not
+ * fit, the table is spilled into the shuffle as PARTIAL_SCHEMA records, shipped in the same union
+ * as the daily records (see shuffleSchema), and cleared. Reducers merge the partials of a year
+ * into an unbounded table, write it as the monthly rollups and roll the months up into the yearly
+ * rollups (month 0), next to partitions/ in rollups/monthly/<year> and rollups/yearly/<year>.
+ *
+ * Station ids are keyed by their packed code (see JsonlDailySortKey), ids which do not pack are
+ * kept as Strings. Rollups of separate (incremental) runs are combined by summing count and sum
+ * and taking min of min and max of max.
+ */
+public class JsonlDailyRollups {
+    public static final String ENABLED_KEY     = "climate.daily.rollups";
+    public static final String MAX_ENTRIES_KEY = "climate.daily.rollups.entries";
+
+    public static enum COUNTERS {
+	SPILLS,
+	PARTIALS,
+	MONTHLY_ROWS,
+	YEARLY_ROWS
+    }
+
+    public static final Schema PARTIAL_SCHEMA = new Schema.Parser().parse(
+	"{ \"type\" : \"record\", \"namespace\" : \"climate\", \"name\" : \"daily_rollup_partial\", \"fields\" : [" +
+	"  { \"name\" : \"id\"    , \"type\" : \"string\" }," +
+	"  { \"name\" : \"year\"  , \"type\" : \"int\" }," +
+	"  { \"name\" : \"month\" , \"type\" : \"int\" }," +
+	"  { \"name\" : \"count\" , \"type\" : \"long\" }," +
+	"  { \"name\" : \"min\"   , \"type\" : \"float\" }," +
+	"  { \"name\" : \"max\"   , \"type\" : \"float\" }," +
+	"  { \"name\" : \"sum\"   , \"type\" : \"double\" }" +
+	"] }");
+
+    public static final Schema MONTHLY_SCHEMA = new Schema.Parser().parse(
+	"{ \"type\" : \"record\", \"namespace\" : \"climate\", \"name\" : \"daily_rollup_monthly\", \"fields\" : [" +
+	"  { \"name\" : \"id\"    , \"type\" : \"string\" }," +
+	"  { \"name\" : \"year\"  , \"type\" : \"int\" }," +
+	"  { \"name\" : \"month\" , \"type\" : \"int\" }," +
+	"  { \"name\" : \"count\" , \"type\" : \"long\" }," +
+	"  { \"name\" : \"min\"   , \"type\" : \"float\" }," +
+	"  { \"name\" : \"max\"   , \"type\" : \"float\" }," +
+	"  { \"name\" : \"sum\"   , \"type\" : \"double\" }," +
+	"  { \"name\" : \"mean\"  , \"type\" : \"double\" }" +
+	"] }");
+
+    public static final Schema YEARLY_SCHEMA = new Schema.Parser().parse(
+	"{ \"type\" : \"record\", \"namespace\" : \"climate\", \"name\" : \"daily_rollup_yearly\", \"fields\" : [" +
+	"  { \"name\" : \"id\"     , \"type\" : \"string\" }," +
+	"  { \"name\" : \"year\"   , \"type\" : \"int\" }," +
+	"  { \"name\" : \"months\" , \"type\" : \"int\" }," +
+	"  { \"name\" : \"count\"  , \"type\" : \"long\" }," +
+	"  { \"name\" : \"min\"    , \"type\" : \"float\" }," +
+	"  { \"name\" : \"max\"    , \"type\" : \"float\" }," +
+	"  { \"name\" : \"sum\"    , \"type\" : \"double\" }," +
+	"  { \"name\" : \"mean\"   , \"type\" : \"double\" }" +
+	"] }");
+
+    /* Field positions, shared by the three schemas (MONTH holds the months of a yearly rollup) */
+    private static final int ID    = 0;
+    private static final int YEAR  = 1;
+    private static final int MONTH = 2;
+    private static final int COUNT = 3;
+    private static final int MIN   = 4;
+    private static final int MAX   = 5;
+    private static final int SUM   = 6;
+    private static final int MEAN  = 7;
+
+    private static final int EMPTY = -1;
+    private static final int INITIAL_ENTRIES = 1024;
+
+    private final int maxEntries;
+    private int size = 0;
+
+    /* Open addressing, linear probing, slots hold entry indexes */
+    private int[] slots;
+    private int mask;
+
+    /* Entries, dense in insertion order */
+    private long[] idCodes;
+    private String[] ids;
+    private int[] years;
+    private int[] months;
+    private int[] parts;
+    private long[] counts;
+    private float[] mins;
+    private float[] maxs;
+    private double[] sums;
+
+    private final Text idText = new Text();
+
+    public JsonlDailyRollups(int maxEntries) {
+	this.maxEntries = Math.max(1, maxEntries);
+	this.allocate(Math.min(this.maxEntries, INITIAL_ENTRIES));
+    }
+
+    /* Map output value schema of the rollup mode: the daily records or partial rollups */
+    public static Schema shuffleSchema(Schema outputSchema) {
+	return Schema.createUnion(Arrays.asList(outputSchema, PARTIAL_SCHEMA));
+    }
+
+    /* The partial rollup branch of a shuffle schema, records read with it carry this instance */
+    public static Schema partialSchema(Schema shuffleSchema) {
+	for(Schema branch : shuffleSchema.getTypes()) {
+	    if(PARTIAL_SCHEMA.getFullName().equals(branch.getFullName())) { return branch; }
+	}
+
+	throw new IllegalArgumentException("No partial rollups in the shuffle schema " + shuffleSchema);
+    }
+
+    /* Adds a value, false if its key is new and the table is full */
+    public boolean add(CharSequence id, int year, int month, float value) {
+	return this.merge(id, year, month, 1L, value, value, value);
+    }
+
+    /* Merges a partial rollup record, false if its key is new and the table is full */
+    public boolean merge(GenericRecord partial) {
+	return this.merge((CharSequence) partial.get(ID),
+			  (Integer) partial.get(YEAR),
+			  (Integer) partial.get(MONTH),
+			  (Long) partial.get(COUNT),
+			  (Float) partial.get(MIN),
+			  (Float) partial.get(MAX),
+			  (Double) partial.get(SUM));
+    }
+
+    public boolean merge(CharSequence id, int year, int month, long count, float min, float max, double sum) {
+	long idCode = 0L;
+
+	// Streaming decoder ids are Utf8, their bytes are packed without encoding
+	if(id instanceof Utf8) {
+	    Utf8 utf8 = (Utf8) id;
+	    idCode = JsonlDailySortKey.pack(utf8.getBytes(), 0, utf8.getByteLength());
+	}
+	else {
+	    this.idText.set(id.toString());
+	    idCode = JsonlDailySortKey.pack(this.idText.getBytes(), 0, this.idText.getLength());
+	}
+
+	String unpackedId = (idCode == JsonlDailySortKey.UNPACKED) ? id.toString() : null;
+
+	return this.merge(idCode, unpackedId, year, month, 1, count, min, max, sum);
+    }
+
+    /* Rolls a (monthly) entry of another table up into the yearly entry of its station, month 0 */
+    public boolean rollUp(JsonlDailyRollups monthly, int entry) {
+	return this.merge(monthly.idCodes[entry], monthly.ids[entry], monthly.years[entry], 0, 1,
+			  monthly.counts[entry], monthly.mins[entry], monthly.maxs[entry], monthly.sums[entry]);
+    }
+
+    public int size() {
+	return this.size;
+    }
+
+    public void clear() {
+	Arrays.fill(this.slots, EMPTY);
+	Arrays.fill(this.ids, 0, this.size, null);
+	this.size = 0;
+    }
+
+    public String getId(int entry) {
+	return (this.ids[entry] != null) ? this.ids[entry] : JsonlDailySortKey.unpack(this.idCodes[entry]);
+    }
+
+    public int getYear(int entry) {
+	return this.years[entry];
+    }
+
+    public int getMonth(int entry) {
+	return this.months[entry];
+    }
+
+    public GenericData.Record partial(int entry, GenericData.Record reuse) {
+	this.fill(entry, reuse);
+	reuse.put(MONTH, JsonlDailyObservation.box(this.months[entry]));
+	return reuse;
+    }
+
+    public GenericData.Record monthly(int entry, GenericData.Record reuse) {
+	this.fill(entry, reuse);
+	reuse.put(MONTH, JsonlDailyObservation.box(this.months[entry]));
+	reuse.put(MEAN, Double.valueOf(this.sums[entry] / this.counts[entry]));
+	return reuse;
+    }
+
+    /* Yearly rollup of an entry filled by rollUp, with the number of months holding values */
+    public GenericData.Record yearly(int entry, GenericData.Record reuse) {
+	this.fill(entry, reuse);
+	reuse.put(MONTH, JsonlDailyObservation.box(this.parts[entry]));
+	reuse.put(MEAN, Double.valueOf(this.sums[entry] / this.counts[entry]));
+	return reuse;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* TABLE HELPERS                                                                                     */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private boolean merge(long idCode, String unpackedId, int year, int month, int parts, long count, float min, float max, double sum) {
+	int slot = hash(idCode, unpackedId, year, month) & this.mask;
+
+	// Probe up to the entry of the key or the free slot where it goes
+	for(int entry = this.slots[slot]; entry != EMPTY; entry = this.slots[slot]) {
+	    if(this.idCodes[entry] == idCode && this.years[entry] == year && this.months[entry] == month &&
+	       (unpackedId == null || unpackedId.equals(this.ids[entry]))) {
+		this.parts[entry] += parts;
+		this.counts[entry] += count;
+		if(min < this.mins[entry]) { this.mins[entry] = min; }
+		if(max > this.maxs[entry]) { this.maxs[entry] = max; }
+		this.sums[entry] += sum;
+		return true;
+	    }
+
+	    slot = (slot + 1) & this.mask;
+	}
+
+	if(this.size == this.maxEntries) { return false; }
+
+	if(this.size == this.idCodes.length) {
+	    this.grow();
+	    return this.merge(idCode, unpackedId, year, month, parts, count, min, max, sum);
+	}
+
+	int entry = this.size++;
+	this.slots[slot] = entry;
+	this.idCodes[entry] = idCode;
+	this.ids[entry] = unpackedId;
+	this.years[entry] = year;
+	this.months[entry] = month;
+	this.parts[entry] = parts;
+	this.counts[entry] = count;
+	this.mins[entry] = min;
+	this.maxs[entry] = max;
+	this.sums[entry] = sum;
+
+	return true;
+    }
+
+    private void fill(int entry, GenericData.Record reuse) {
+	reuse.put(ID, this.getId(entry));
+	reuse.put(YEAR, JsonlDailyObservation.box(this.years[entry]));
+	reuse.put(COUNT, Long.valueOf(this.counts[entry]));
+	reuse.put(MIN, Float.valueOf(this.mins[entry]));
+	reuse.put(MAX, Float.valueOf(this.maxs[entry]));
+	reuse.put(SUM, Double.valueOf(this.sums[entry]));
+    }
+
+    private static int hash(long idCode, String unpackedId, int year, int month) {
+	long h = (unpackedId != null) ? unpackedId.hashCode() : idCode;
+	h = h * 31 + year * 16 + month;
+
+	// Spread the bits, station codes differ in their low digits only
+	h *= 0x9E3779B97F4A7C15L;
+	return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity) {
+	// At most half of the slots are used
+	this.slots = new int[Integer.highestOneBit(Math.max(2, capacity) - 1) << 2];
+	this.mask = this.slots.length - 1;
+	Arrays.fill(this.slots, EMPTY);
+
+	this.idCodes = new long[capacity];
+	this.ids = new String[capacity];
+	this.years = new int[capacity];
+	this.months = new int[capacity];
+	this.parts = new int[capacity];
+	this.counts = new long[capacity];
+	this.mins = new float[capacity];
+	this.maxs = new float[capacity];
+	this.sums = new double[capacity];
+    }
+
+    private void grow() {
+	int capacity = (int) Math.min((long) this.maxEntries, 2L * this.idCodes.length);
+
+	this.slots = new int[Integer.highestOneBit(capacity - 1) << 2];
+	this.mask = this.slots.length - 1;
+	Arrays.fill(this.slots, EMPTY);
+
+	this.idCodes = Arrays.copyOf(this.idCodes, capacity);
+	this.ids = Arrays.copyOf(this.ids, capacity);
+	this.years = Arrays.copyOf(this.years, capacity);
+	this.months = Arrays.copyOf(this.months, capacity);
+	this.parts = Arrays.copyOf(this.parts, capacity);
+	this.counts = Arrays.copyOf(this.counts, capacity);
+	this.mins = Arrays.copyOf(this.mins, capacity);
+	this.maxs = Arrays.copyOf(this.maxs, capacity);
+	this.sums = Arrays.copyOf(this.sums, capacity);
+
+	// Rehash the entries into the larger slot table
+	for(int entry = 0; entry < this.size; entry++) {
+	    int slot = hash(this.idCodes[entry], this.ids[entry], this.years[entry], this.months[entry]) & this.mask;
+	    while(this.slots[slot] != EMPTY) { slot = (slot + 1) & this.mask; }
+	    this.slots[slot] = entry;
+	}
+    }
+}
@@ -0,0 +1,271 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+// AVRO
+import org.apache.avro.util.Utf8;
+
+/**
+ * Shuffle key of the sorted output layout: (year, id, month, day).
+ *
+ * Records are partitioned and grouped by year only, so every reducer call gets all records of a
+ * year, sorted by station and date. hashCode() depends on the year only for the same reason.
+ *
+ * Station ids of up to 12 digits and upper case letters (all GHCND ids) are packed into an order
+ * preserving base 37 long, other ids sort after them and are carried as Text. Serialized as year,
+ * packed id, the Text id only when not packed, month and day, compared on the serialized bytes.
+ */
+public class JsonlDailySortKey implements WritableComparable<JsonlDailySortKey> {
+    /* Packed code of the ids carried as Text, sorts after every packed id */
+    static final long UNPACKED = Long.MAX_VALUE;
+
+    private static final int PACKED_LENGTH = 12;
+
+    private int year = 0;
+    private long idCode = UNPACKED;
+    private Text id = new Text();
+    private boolean idValid = true;
+    private int month = 0;
+    private int day = 0;
+
+    static {
+	WritableComparator.define(JsonlDailySortKey.class, new Comparator());
+    }
+
+    public void set(int year, CharSequence id, int month, int day) {
+	this.year = year;
+	this.month = month;
+	this.day = day;
+
+	// Streaming decoder ids are Utf8, their bytes are used without encoding
+	if(id instanceof Utf8) {
+	    Utf8 utf8 = (Utf8) id;
+	    this.idCode = pack(utf8.getBytes(), 0, utf8.getByteLength());
+	    if(this.idCode == UNPACKED) { this.id.set(utf8.getBytes(), 0, utf8.getByteLength()); }
+	}
+	else {
+	    this.id.set(id.toString());
+	    this.idCode = pack(this.id.getBytes(), 0, this.id.getLength());
+	}
+
+	this.idValid = (this.idCode == UNPACKED);
+    }
+
+    public int getYear() {
+	return this.year;
+    }
+
+    public Text getId() {
+	// Packed ids are only unpacked on demand
+	if(!this.idValid) {
+	    this.id.set(unpack(this.idCode));
+	    this.idValid = true;
+	}
+
+	return this.id;
+    }
+
+    public int getMonth() {
+	return this.month;
+    }
+
+    public int getDay() {
+	return this.day;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+	out.writeInt(this.year);
+	out.writeLong(this.idCode);
+	if(this.idCode == UNPACKED) { this.id.write(out); }
+	out.writeInt(this.month);
+	out.writeInt(this.day);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+	this.year = in.readInt();
+	this.idCode = in.readLong();
+	if(this.idCode == UNPACKED) { this.id.readFields(in); }
+	this.idValid = (this.idCode == UNPACKED);
+	this.month = in.readInt();
+	this.day = in.readInt();
+    }
+
+    @Override
+    public int compareTo(JsonlDailySortKey other) {
+	return this.compareDate(other);
+    }
+
+    /* Order on (year, id, month, day) only, for keys extending the date with more fields */
+    int compareDate(JsonlDailySortKey other) {
+	if(this.year != other.year) { return (this.year < other.year) ? -1 : 1; }
+
+	if(this.idCode != other.idCode) { return (this.idCode < other.idCode) ? -1 : 1; }
+	if(this.idCode == UNPACKED) {
+	    int c = this.id.compareTo(other.id);
+	    if(c != 0) { return c; }
+	}
+
+	if(this.month != other.month) { return (this.month < other.month) ? -1 : 1; }
+	if(this.day != other.day) { return (this.day < other.day) ? -1 : 1; }
+
+	return 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+	return (other instanceof JsonlDailySortKey) && this.compareTo((JsonlDailySortKey) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+	return this.year;
+    }
+
+    @Override
+    public String toString() {
+	return this.year + "\t" + this.getId() + "\t" + this.month + "\t" + this.day;
+    }
+
+    /* Base 37 code of the id, zero padded to 12 characters, UNPACKED if it does not fit */
+    static long pack(byte[] bytes, int offset, int length) {
+	if(length > PACKED_LENGTH) { return UNPACKED; }
+
+	long code = 0L;
+	for(int index = 0; index < PACKED_LENGTH; index++) {
+	    int digit = 0;
+
+	    if(index < length) {
+		byte b = bytes[offset + index];
+		if(b >= '0' && b <= '9')      { digit = b - '0' + 1; }
+		else if(b >= 'A' && b <= 'Z') { digit = b - 'A' + 11; }
+		else                          { return UNPACKED; }
+	    }
+
+	    code = code * 37 + digit;
+	}
+
+	return code;
+    }
+
+    /* Base 37 code of a decoded id, as of its (ASCII) bytes */
+    static long pack(CharSequence chars) {
+	if(chars.length() > PACKED_LENGTH) { return UNPACKED; }
+
+	long code = 0L;
+	for(int index = 0; index < PACKED_LENGTH; index++) {
+	    int digit = 0;
+
+	    if(index < chars.length()) {
+		char c = chars.charAt(index);
+		if(c >= '0' && c <= '9')      { digit = c - '0' + 1; }
+		else if(c >= 'A' && c <= 'Z') { digit = c - 'A' + 11; }
+		else                          { return UNPACKED; }
+	    }
+
+	    code = code * 37 + digit;
+	}
+
+	return code;
+    }
+
+    static String unpack(long code) {
+	char[] chars = new char[PACKED_LENGTH];
+	int length = 0;
+
+	for(int index = PACKED_LENGTH - 1; index >= 0; index--) {
+	    int digit = (int) (code % 37);
+	    code /= 37;
+
+	    chars[index] = (digit == 0) ? ' ' : (digit <= 10) ? (char) ('0' + digit - 1) : (char) ('A' + digit - 11);
+	    if(digit != 0 && length == 0) { length = index + 1; }
+	}
+
+	return new String(chars, 0, length);
+    }
+
+    /**
+     * Sort order on the serialized keys: year, packed id, Text id (not packed only), month and day.
+     */
+    public static class Comparator extends WritableComparator {
+	public Comparator() {
+	    super(JsonlDailySortKey.class);
+	}
+
+	@Override
+	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+	    int year1 = readInt(b1, s1);
+	    int year2 = readInt(b2, s2);
+	    if(year1 != year2) { return (year1 < year2) ? -1 : 1; }
+
+	    long code1 = readLong(b1, s1 + 4);
+	    long code2 = readLong(b2, s2 + 4);
+	    if(code1 != code2) { return (code1 < code2) ? -1 : 1; }
+
+	    try {
+		// Month and day follow the packed id, or the Text id if not packed
+		int date1 = s1 + 12;
+		int date2 = s2 + 12;
+
+		if(code1 == UNPACKED) {
+		    int idLength1 = readVInt(b1, date1);
+		    int idLength2 = readVInt(b2, date2);
+		    int id1 = date1 + WritableUtils.decodeVIntSize(b1[date1]);
+		    int id2 = date2 + WritableUtils.decodeVIntSize(b2[date2]);
+
+		    int c = compareBytes(b1, id1, idLength1, b2, id2, idLength2);
+		    if(c != 0) { return c; }
+
+		    date1 = id1 + idLength1;
+		    date2 = id2 + idLength2;
+		}
+
+		int month1 = readInt(b1, date1);
+		int month2 = readInt(b2, date2);
+		if(month1 != month2) { return (month1 < month2) ? -1 : 1; }
+
+		int day1 = readInt(b1, date1 + 4);
+		int day2 = readInt(b2, date2 + 4);
+		return (day1 < day2) ? -1 : ((day1 == day2) ? 0 : 1);
+	    }
+	    catch(IOException ioe) {
+		throw new IllegalArgumentException(ioe);
+	    }
+	}
+    }
+
+    /**
+     * Grouping order, all keys of a year are equal.
+     */
+    public static class YearComparator extends WritableComparator {
+	public YearComparator() {
+	    super(JsonlDailySortKey.class, true);
+	}
+
+	@Override
+	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+	    int year1 = readInt(b1, s1);
+	    int year2 = readInt(b2, s2);
+
+	    return (year1 < year2) ? -1 : ((year1 == year2) ? 0 : 1);
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public int compare(WritableComparable k1, WritableComparable k2) {
+	    int year1 = ((JsonlDailySortKey) k1).year;
+	    int year2 = ((JsonlDailySortKey) k2).year;
+
+	    return (year1 < year2) ? -1 : ((year1 == year2) ? 0 : 1);
+	}
+    }
+}
@@ -0,0 +1,135 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.util.Arrays;
+
+// AVRO
+import org.apache.avro.util.Utf8;
+
+/**
+ * Per task dictionary of station ids, mapping the id bytes of a line to a dense int code.
+ *
+ * GHCND lines repeat the same few tens of thousands of station ids, so every distinct id is
+ * stored once: its bytes, an Utf8 shared by all records of the station and the cached verdict of
+ * the id pattern check. Lookups hash the line bytes directly (open addressing, linear probing)
+ * and allocate nothing for known ids. Once maxStations ids are interned, new ids get no code and
+ * are handled like without dictionary.
+ */
+public class JsonlDailyStationDictionary {
+    public static final String MAX_STATIONS_KEY = "climate.daily.stations.max";
+
+    public static final int NO_CODE = -1;
+
+    public static final byte VERDICT_UNKNOWN  = 0;
+    public static final byte VERDICT_MATCH    = 1;
+    public static final byte VERDICT_MISMATCH = 2;
+
+    private final int maxStations;
+
+    private int[] table = new int[4096];
+    private int mask = this.table.length - 1;
+
+    private byte[][] ids = new byte[1024][];
+    private int[] hashes = new int[1024];
+    private Utf8[] utf8s = new Utf8[1024];
+    private byte[] verdicts = new byte[1024];
+    private int size = 0;
+
+    public JsonlDailyStationDictionary(int maxStations) {
+	this.maxStations = maxStations;
+    }
+
+    /* Code of the id bytes[offset, offset + length), NO_CODE if the dictionary is full */
+    public int intern(byte[] bytes, int offset, int length) {
+	int hash = hash(bytes, offset, length);
+	int index = hash & this.mask;
+
+	// Table slots hold code + 1, zero is an empty slot
+	for(int slot = this.table[index]; slot != 0; slot = this.table[index]) {
+	    int code = slot - 1;
+	    if(this.hashes[code] == hash && equals(this.ids[code], bytes, offset, length)) { return code; }
+	    index = (index + 1) & this.mask;
+	}
+
+	if(this.size >= this.maxStations) { return NO_CODE; }
+
+	int code = this.add(hash, Arrays.copyOfRange(bytes, offset, offset + length));
+	this.table[index] = code + 1;
+
+	// Keep the load factor at or below one half
+	if(this.size * 2 > this.table.length) { this.rehash(this.table.length * 2); }
+
+	return code;
+    }
+
+    /* Shared, never modified Utf8 of the station id */
+    public Utf8 getUtf8(int code) {
+	return this.utf8s[code];
+    }
+
+    public byte[] getBytes(int code) {
+	return this.ids[code];
+    }
+
+    public byte getVerdict(int code) {
+	return this.verdicts[code];
+    }
+
+    public void setVerdict(int code, boolean match) {
+	this.verdicts[code] = match ? VERDICT_MATCH : VERDICT_MISMATCH;
+    }
+
+    public int size() {
+	return this.size;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* TABLE HELPERS                                                                                     */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private int add(int hash, byte[] id) {
+	if(this.size == this.ids.length) {
+	    int capacity = this.ids.length * 2;
+	    this.ids = Arrays.copyOf(this.ids, capacity);
+	    this.hashes = Arrays.copyOf(this.hashes, capacity);
+	    this.utf8s = Arrays.copyOf(this.utf8s, capacity);
+	    this.verdicts = Arrays.copyOf(this.verdicts, capacity);
+	}
+
+	int code = this.size++;
+	this.ids[code] = id;
+	this.hashes[code] = hash;
+	this.utf8s[code] = new Utf8(id);
+	this.verdicts[code] = VERDICT_UNKNOWN;
+
+	return code;
+    }
+
+    private void rehash(int capacity) {
+	this.table = new int[capacity];
+	this.mask = capacity - 1;
+
+	for(int code = 0; code < this.size; code++) {
+	    int index = this.hashes[code] & this.mask;
+	    while(this.table[index] != 0) { index = (index + 1) & this.mask; }
+	    this.table[index] = code + 1;
+	}
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+	int hash = 1;
+	for(int index = offset; index < offset + length; index++) { hash = 31 * hash + bytes[index]; }
+
+	// Spread the low bits, ids mostly differ in their last characters
+	return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] id, byte[] bytes, int offset, int length) {
+	if(id.length != length) { return false; }
+
+	for(int index = 0; index < length; index++) {
+	    if(id[index] != bytes[offset + index]) { return false; }
+	}
+
+	return true;
+    }
+}
@@ -0,0 +1,107 @@
+package se.phaseshift.hadoop.climate.daily;
+
+// AVRO
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+
+/**
+ * Adds the station attributes of the station table to output records: country, latitude,
+ * longitude and elevation, the (optional) fields of the enriched output schema.
+ *
+ * Fields missing from the output schema are skipped, attributes of unknown stations and unknown
+ * elevations are left null. Input is mostly ordered by station, so the boxed attributes of the
+ * last station are kept and shared by its records. Not thread safe, one per task.
+ */
+public class JsonlDailyStationEnricher {
+    public static enum COUNTERS {
+	UNKNOWN_STATIONS
+    }
+
+    private final JsonlDailyStationTable table;
+    private final int countryField;
+    private final int latitudeField;
+    private final int longitudeField;
+    private final int elevationField;
+
+    private String lastId = null;
+    private boolean lastFound = false;
+    private Utf8 country = null;
+    private Float latitude = null;
+    private Float longitude = null;
+    private Float elevation = null;
+
+    public JsonlDailyStationEnricher(JsonlDailyStationTable table, Schema outputSchema) {
+	this.table = table;
+	this.countryField = position(outputSchema, "country");
+	this.latitudeField = position(outputSchema, "latitude");
+	this.longitudeField = position(outputSchema, "longitude");
+	this.elevationField = position(outputSchema, "elevation");
+    }
+
+    /* True if the output schema has any of the station fields */
+    public static boolean isEnriched(Schema outputSchema) {
+	return outputSchema.getField("country") != null || outputSchema.getField("latitude") != null ||
+	    outputSchema.getField("longitude") != null || outputSchema.getField("elevation") != null;
+    }
+
+    /* Sets the station fields of the record, false if the station is unknown */
+    public boolean enrich(GenericRecord record, CharSequence id) {
+	if(this.lastId == null || !this.sameId(id)) {
+	    this.lookUp(id);
+	}
+
+	if(this.countryField >= 0)   { record.put(this.countryField, this.country); }
+	if(this.latitudeField >= 0)  { record.put(this.latitudeField, this.latitude); }
+	if(this.longitudeField >= 0) { record.put(this.longitudeField, this.longitude); }
+	if(this.elevationField >= 0) { record.put(this.elevationField, this.elevation); }
+
+	return this.lastFound;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* ENRICHMENT HELPERS                                                                                */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private boolean sameId(CharSequence id) {
+	if(id.length() != this.lastId.length()) { return false; }
+
+	// Utf8 ids are compared on their bytes, GHCND ids are ASCII
+	if(id instanceof Utf8) {
+	    byte[] bytes = ((Utf8) id).getBytes();
+	    for(int index = 0; index < this.lastId.length(); index++) {
+		if(bytes[index] != this.lastId.charAt(index)) { return false; }
+	    }
+	    return true;
+	}
+
+	return this.lastId.contentEquals(id);
+    }
+
+    private void lookUp(CharSequence id) {
+	int slot = this.table.find(id);
+
+	this.lastId = id.toString();
+	this.lastFound = (slot != JsonlDailyStationTable.NOT_FOUND);
+
+	if(this.lastFound) {
+	    float stationElevation = this.table.getElevation(slot);
+
+	    this.country = new Utf8(this.table.getCountry(slot));
+	    this.latitude = Float.valueOf(this.table.getLatitude(slot));
+	    this.longitude = Float.valueOf(this.table.getLongitude(slot));
+	    this.elevation = Float.isNaN(stationElevation) ? null : Float.valueOf(stationElevation);
+	}
+	else {
+	    this.country = null;
+	    this.latitude = null;
+	    this.longitude = null;
+	    this.elevation = null;
+	}
+    }
+
+    private static int position(Schema schema, String name) {
+	Schema.Field field = schema.getField(name);
+	return (field != null) ? field.pos() : -1;
+    }
+}
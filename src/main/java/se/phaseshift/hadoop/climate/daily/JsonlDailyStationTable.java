@@ -0,0 +1,302 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+// AVRO
+import org.apache.avro.util.Utf8;
+
+/**
+ * Station metadata of the GHCND stations file (ghcnd-stations.txt) as a read only binary hash
+ * table, memory mapped by the tasks.
+ *
+ * The driver converts the fixed width text file once into a table file next to it, rebuilt only
+ * when the stations file is newer, and ships the table through the distributed cache. Tasks map
+ * the localized file once per JVM: the pages live in the page cache, outside the heap, and are
+ * shared by all tasks of the node reading the same localized file.
+ *
+ * Slots are keyed by the packed station id (JsonlDailySortKey.pack), open addressing with linear
+ * probing at a load factor of at most one half, so a lookup costs one hash and usually one probe.
+ * Lookups use absolute reads only and are thread safe.
+ */
+public class JsonlDailyStationTable {
+    public static final String PATH_KEY = "climate.daily.stations.path";
+    public static final String TABLE_KEY = "climate.daily.stations.table";
+    public static final String TABLE_SUFFIX = ".table";
+    public static final String CACHE_NAME = "climate-daily-stations.table";
+
+    public static final int NOT_FOUND = -1;
+
+    private static final int MAGIC = 0x47485354;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    // Packed id (0 for an empty slot), latitude, longitude, elevation, padded to 8 byte slots
+    private static final int SLOT_BYTES = 24;
+
+    // Elevation of the stations file for unknown elevations
+    private static final float MISSING_ELEVATION = -999.9f;
+
+    private static final ConcurrentMap<String, JsonlDailyStationTable> TABLES = new ConcurrentHashMap<String, JsonlDailyStationTable>();
+
+    private final ByteBuffer slots;
+    private final int mask;
+    private final int size;
+
+    private JsonlDailyStationTable(ByteBuffer buffer) throws IOException {
+	if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) { throw new IOException("Not a station table"); }
+
+	int capacity = buffer.getInt(8);
+	this.size = buffer.getInt(12);
+	this.mask = capacity - 1;
+	this.slots = buffer;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* DRIVER SIDE                                                                                       */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    /**
+     * Ships the table of the configured stations file with the job, building it first if it is
+     * missing or older than the stations file. False if no stations file is configured.
+     */
+    public static boolean configure(Job job) throws IOException {
+	Configuration conf = job.getConfiguration();
+	String stations = conf.get(PATH_KEY);
+	if(stations == null) { return false; }
+
+	Path stationsPath = new Path(stations);
+	FileSystem fs = stationsPath.getFileSystem(conf);
+	Path tablePath = new Path(stationsPath.getParent(), stationsPath.getName() + TABLE_SUFFIX);
+
+	FileStatus stationsStatus = fs.getFileStatus(stationsPath);
+	if(!fs.exists(tablePath) || fs.getFileStatus(tablePath).getModificationTime() < stationsStatus.getModificationTime()) {
+	    int size = build(fs, stationsPath, tablePath);
+	    System.out.printf("Station table: %d stations of %s\n", size, stationsPath);
+	}
+
+	tablePath = fs.makeQualified(tablePath);
+	conf.set(TABLE_KEY, tablePath.toString());
+	job.addCacheFile(tablePath.toUri().resolve("#" + CACHE_NAME));
+
+	return true;
+    }
+
+    /* Converts the fixed width stations file into a table file, returns the number of stations */
+    public static int build(FileSystem fs, Path stationsPath, Path tablePath) throws IOException {
+	long[] ids = new long[1 << 16];
+	float[] latitudes = new float[ids.length];
+	float[] longitudes = new float[ids.length];
+	float[] elevations = new float[ids.length];
+	int size = 0;
+
+	// ID 1-11, LATITUDE 13-20, LONGITUDE 22-30, ELEVATION 32-37, then state and name
+	BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(stationsPath), StandardCharsets.US_ASCII));
+	try {
+	    for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+		if(line.length() < 37) { continue; }
+
+		long id = JsonlDailySortKey.pack(line.substring(0, 11).trim());
+		if(id == JsonlDailySortKey.UNPACKED || id == 0L) { continue; }
+
+		if(size == ids.length) {
+		    ids = Arrays.copyOf(ids, size * 2);
+		    latitudes = Arrays.copyOf(latitudes, size * 2);
+		    longitudes = Arrays.copyOf(longitudes, size * 2);
+		    elevations = Arrays.copyOf(elevations, size * 2);
+		}
+
+		ids[size] = id;
+		latitudes[size] = Float.parseFloat(line.substring(12, 20).trim());
+		longitudes[size] = Float.parseFloat(line.substring(21, 30).trim());
+		elevations[size] = Float.parseFloat(line.substring(31, 37).trim());
+		size++;
+	    }
+	}
+	finally {
+	    reader.close();
+	}
+
+	int capacity = 16;
+	while(capacity < size * 2) { capacity *= 2; }
+
+	ByteBuffer table = ByteBuffer.allocate(HEADER_BYTES + capacity * SLOT_BYTES);
+	table.putInt(0, MAGIC);
+	table.putInt(4, VERSION);
+	table.putInt(8, capacity);
+
+	int stored = 0;
+	for(int station = 0; station < size; station++) {
+	    int slot = (int) mix(ids[station]) & (capacity - 1);
+	    while(table.getLong(offset(slot)) != 0L && table.getLong(offset(slot)) != ids[station]) {
+		slot = (slot + 1) & (capacity - 1);
+	    }
+
+	    // Later lines of a repeated id are ignored
+	    int offset = offset(slot);
+	    if(table.getLong(offset) != 0L) { continue; }
+
+	    table.putLong(offset, ids[station]);
+	    table.putFloat(offset + 8, latitudes[station]);
+	    table.putFloat(offset + 12, longitudes[station]);
+	    table.putFloat(offset + 16, elevations[station]);
+	    stored++;
+	}
+	table.putInt(12, stored);
+
+	// Written aside and renamed, a task never maps a partly written table
+	Path temporary = new Path(tablePath.getParent(), "_" + tablePath.getName() + "." + System.nanoTime());
+	DataOutputStream out = fs.create(temporary, true);
+	try {
+	    out.write(table.array());
+	}
+	finally {
+	    out.close();
+	}
+
+	fs.delete(tablePath, false);
+	if(!fs.rename(temporary, tablePath)) {
+	    fs.delete(temporary, false);
+	    throw new IOException("Could not write station table " + tablePath);
+	}
+
+	return stored;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* TASK SIDE                                                                                         */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    /**
+     * Table of the job, mapped once per JVM: the localized copy of the distributed cache, or a
+     * local copy of the table file when the task runs without one.
+     */
+    public static JsonlDailyStationTable get(Configuration conf) throws IOException {
+	String table = conf.get(TABLE_KEY);
+	if(table == null) { return null; }
+
+	JsonlDailyStationTable stations = TABLES.get(table);
+	if(stations == null) {
+	    synchronized(TABLES) {
+		stations = TABLES.get(table);
+		if(stations == null) {
+		    stations = map(localFile(conf, new Path(table)));
+		    TABLES.put(table, stations);
+		}
+	    }
+	}
+
+	return stations;
+    }
+
+    public static JsonlDailyStationTable map(File file) throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+	try {
+	    // The mapping stays valid once the channel is closed
+	    MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+	    return new JsonlDailyStationTable(buffer);
+	}
+	finally {
+	    raf.close();
+	}
+    }
+
+    /* Slot of the station, NOT_FOUND if it is not in the stations file */
+    public int find(CharSequence id) {
+	long key = 0L;
+
+	// Streaming decoder ids are Utf8, their bytes are packed without decoding
+	if(id instanceof Utf8) {
+	    Utf8 utf8 = (Utf8) id;
+	    key = JsonlDailySortKey.pack(utf8.getBytes(), 0, utf8.getByteLength());
+	}
+	else {
+	    key = JsonlDailySortKey.pack(id);
+	}
+
+	if(key == JsonlDailySortKey.UNPACKED || key == 0L) { return NOT_FOUND; }
+
+	for(int slot = (int) mix(key) & this.mask; ; slot = (slot + 1) & this.mask) {
+	    long slotKey = this.slots.getLong(offset(slot));
+	    if(slotKey == key) { return slot; }
+	    if(slotKey == 0L) { return NOT_FOUND; }
+	}
+    }
+
+    public float getLatitude(int slot) {
+	return this.slots.getFloat(offset(slot) + 8);
+    }
+
+    public float getLongitude(int slot) {
+	return this.slots.getFloat(offset(slot) + 12);
+    }
+
+    /* Elevation in meters, NaN if unknown */
+    public float getElevation(int slot) {
+	float elevation = this.slots.getFloat(offset(slot) + 16);
+	return (elevation == MISSING_ELEVATION) ? Float.NaN : elevation;
+    }
+
+    /* FIPS country code, the first two characters of the station id */
+    public String getCountry(int slot) {
+	String id = JsonlDailySortKey.unpack(this.slots.getLong(offset(slot)));
+	return id.substring(0, Math.min(2, id.length()));
+    }
+
+    public int size() {
+	return this.size;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* TABLE HELPERS                                                                                     */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private static File localFile(Configuration conf, Path table) throws IOException {
+	// Linked into the working directory of the task by the distributed cache
+	File cached = new File(CACHE_NAME);
+	if(cached.exists()) { return cached; }
+
+	FileSystem fs = table.getFileSystem(conf);
+	if("file".equals(fs.getUri().getScheme())) { return new File(table.toUri().getPath()); }
+
+	File copy = File.createTempFile("climate-daily-stations", TABLE_SUFFIX);
+	copy.deleteOnExit();
+	fs.copyToLocalFile(table, new Path(copy.getAbsolutePath()));
+	return copy;
+    }
+
+    private static int offset(int slot) {
+	return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    /* Final mix of MurmurHash3, spreads the low digits of the station codes over all bits */
+    private static long mix(long h) {
+	h ^= h >>> 33;
+	h *= 0xff51afd7ed558ccdL;
+	h ^= h >>> 33;
+	h *= 0xc4ceb9fe1a85ec53L;
+	h ^= h >>> 33;
+	return h;
+    }
+}
@@ -1,21 +1,115 @@
 package se.phaseshift.hadoop.climate.daily;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
 
 import com.github.fge.jsonschema.report.ProcessingReport;
 import com.github.fge.jsonschema.report.ProcessingMessage;
 
 public class JsonlDailyValidationException extends Exception implements Iterable<ProcessingMessage> {
-    private ProcessingReport processingReport;
+    private Iterable<ProcessingMessage> processingMessages;
+    private List<String> keywords = null;
 
     public JsonlDailyValidationException(ProcessingReport processingReport) {
+	this((Iterable<ProcessingMessage>) processingReport);
+    }
+
+    public JsonlDailyValidationException(Iterable<ProcessingMessage> processingMessages) {
 	super("JSON Validation Exception");
-	this.processingReport = processingReport;
+	this.processingMessages = processingMessages;
+    }
+
+    /* Messages with the keyword of each message, in the same order */
+    public JsonlDailyValidationException(Iterable<ProcessingMessage> processingMessages, List<String> keywords) {
+	this(processingMessages);
+	this.keywords = keywords;
+    }
+
+    /* Stackless, without suppressed exceptions, for the preallocated FastFail */
+    private JsonlDailyValidationException() {
+	super("JSON Validation Exception", null, false, false);
     }
 
     public Iterator<ProcessingMessage> iterator() {        
-        Iterator<ProcessingMessage> ipm = this.processingReport.iterator();
+        Iterator<ProcessingMessage> ipm = this.processingMessages.iterator();
         return ipm; 
     }
-}
 
+    /* Keyword of the first violation */
+    public String getKeyword() {
+	if(this.keywords != null) { return this.keywords.isEmpty() ? "" : this.keywords.get(0); }
+
+	Iterator<ProcessingMessage> messages = this.iterator();
+	JsonNode keywordNode = messages.hasNext() ? messages.next().asJson().get("keyword") : null;
+
+	return (keywordNode != null) ? keywordNode.asText() : "";
+    }
+
+    /* Keywords of all violations in message order, read from the message JSON unless given */
+    public List<String> getKeywords() {
+	if(this.keywords != null) { return this.keywords; }
+
+	List<String> messageKeywords = new ArrayList<String>();
+	for(ProcessingMessage message : this) {
+	    JsonNode keywordNode = message.asJson().get("keyword");
+	    messageKeywords.add((keywordNode != null) ? keywordNode.asText() : "");
+	}
+
+	return messageKeywords;
+    }
+
+    /* True if the messages are only built when iterated */
+    public boolean isFastFail() {
+	return false;
+    }
+
+    /**
+     * Builds the messages of a fast failure on demand.
+     */
+    public static interface Explainer {
+	public Iterable<ProcessingMessage> explain();
+    }
+
+    /**
+     * Violation of the fast fail policy: the first violation rejects the line.
+     *
+     * One instance per validator is reused for every rejected line, so it must be handled before
+     * the next line is validated. Only the keyword of the first violation is known up front, the
+     * full messages are built by the Explainer when first iterated.
+     */
+    public static class FastFail extends JsonlDailyValidationException {
+	private String keyword = "";
+	private Explainer explainer = null;
+	private Iterable<ProcessingMessage> explained = null;
+
+	public FastFail() {
+	    super();
+	}
+
+	public FastFail reset(String keyword, Explainer explainer) {
+	    this.keyword = keyword;
+	    this.explainer = explainer;
+	    this.explained = null;
+	    return this;
+	}
+
+	@Override
+	public Iterator<ProcessingMessage> iterator() {
+	    if(this.explained == null) { this.explained = this.explainer.explain(); }
+	    return this.explained.iterator();
+	}
+
+	@Override
+	public String getKeyword() {
+	    return this.keyword;
+	}
+
+	@Override
+	public boolean isFastFail() {
+	    return true;
+	}
+    }
+}
@@ -0,0 +1,28 @@
+package se.phaseshift.hadoop.climate.daily;
+
+// JSON parser
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Validates a parsed JSON line instance against the daily input (JSON) schema.
+ *
+ * Implementations report violations by throwing a JsonlDailyValidationException carrying
+ * fge styled ProcessingMessages, so that the mapper can classify them by keyword
+ * (type, required, pattern, maximum, minimum) regardless of the engine in use.
+ *
+ * Under the fast fail policy the first violation rejects the line with a preallocated
+ * JsonlDailyValidationException.FastFail, whose messages are only built when iterated.
+ */
+public interface JsonlDailyValidator {
+
+    public static final String ENGINE_FGE      = "fge";
+    public static final String ENGINE_COMPILED = "compiled";
+
+    public static final String POLICY_KEY       = "climate.daily.validation.policy";
+    public static final String POLICY_FULL      = "full";
+    public static final String POLICY_FAST_FAIL = "fastfail";
+
+    public void validate(JsonNode instance) throws JsonlDailyValidationException;
+
+    public void setFastFail(boolean fastFail);
+}
@@ -0,0 +1,141 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Partitioner balancing the estimated record volume of the year keys across the reducers.
+ *
+ * The year histogram is sampled by JsonlDailyYearSampler before the job is submitted and stored in
+ * the Configuration. Since all records of a year go to one reducer, years are assigned with the
+ * longest processing time rule: largest year first, each to the currently least loaded reducer.
+ * Years missing from the histogram are hashed, exactly like the HashPartitioner would do.
+ *
+ * Keys are either Text years or JsonlDailySortKeys (sorted layout), partitioned on their year.
+ */
+public class JsonlDailyYearPartitioner<K, V> extends Partitioner<K, V> implements Configurable {
+    public static final String HISTOGRAM_KEY = "climate.daily.partitioner.histogram";
+
+    private Configuration conf = null;
+    private List<long[]> histogram = new ArrayList<long[]>();
+    private int minYear = 0;
+    private int[] partitions = null;
+    private int numPartitions = -1;
+
+    public static void setHistogram(Configuration conf, Map<Integer, Long> histogram) {
+	StringBuilder buffer = new StringBuilder();
+
+	for(Map.Entry<Integer, Long> entry : histogram.entrySet()) {
+	    if(buffer.length() > 0) { buffer.append(','); }
+	    buffer.append(entry.getKey()).append(':').append(entry.getValue());
+	}
+
+	conf.set(HISTOGRAM_KEY, buffer.toString());
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+	this.conf = conf;
+	this.histogram.clear();
+	this.numPartitions = -1;
+
+	for(String entry : conf.getTrimmedStrings(HISTOGRAM_KEY)) {
+	    int separator = entry.indexOf(':');
+	    this.histogram.add(new long[] { Long.parseLong(entry.substring(0, separator)),
+					    Long.parseLong(entry.substring(separator + 1)) });
+	}
+    }
+
+    @Override
+    public Configuration getConf() {
+	return this.conf;
+    }
+
+    @Override
+    public int getPartition(K key, V value, int numPartitions) {
+	if(numPartitions != this.numPartitions) { this.assignPartitions(numPartitions); }
+
+	int year = (key instanceof JsonlDailySortKey) ? ((JsonlDailySortKey) key).getYear() : parseYear((Text) key);
+	int index = year - this.minYear;
+
+	if(year != Integer.MIN_VALUE && index >= 0 && index < this.partitions.length && this.partitions[index] >= 0) {
+	    return this.partitions[index];
+	}
+
+	return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* ASSIGNMENT HELPERS                                                                                */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private void assignPartitions(int numPartitions) {
+	this.numPartitions = numPartitions;
+
+	if(this.histogram.isEmpty()) {
+	    this.partitions = new int[0];
+	    return;
+	}
+
+	// Largest year first, ties broken by year to stay deterministic in every task
+	List<long[]> years = new ArrayList<long[]>(this.histogram);
+	Collections.sort(years, new Comparator<long[]>() {
+		@Override
+		public int compare(long[] y1, long[] y2) {
+		    if(y1[1] != y2[1]) { return (y1[1] > y2[1]) ? -1 : 1; }
+		    return (y1[0] < y2[0]) ? -1 : ((y1[0] == y2[0]) ? 0 : 1);
+		}
+	    });
+
+	int min = Integer.MAX_VALUE;
+	int max = Integer.MIN_VALUE;
+	for(long[] year : years) {
+	    min = Math.min(min, (int) year[0]);
+	    max = Math.max(max, (int) year[0]);
+	}
+
+	this.minYear = min;
+	this.partitions = new int[max - min + 1];
+	Arrays.fill(this.partitions, -1);
+
+	long[] loads = new long[numPartitions];
+	for(long[] year : years) {
+	    int target = 0;
+	    for(int partition = 1; partition < numPartitions; partition++) {
+		if(loads[partition] < loads[target]) { target = partition; }
+	    }
+
+	    loads[target] += year[1];
+	    this.partitions[(int) year[0] - min] = target;
+	}
+    }
+
+    /* Parses the decimal year key without creating a String, MIN_VALUE if not a number */
+    private static int parseYear(Text key) {
+	byte[] bytes = key.getBytes();
+	int length = key.getLength();
+	int index = 0;
+	boolean negative = false;
+	int year = 0;
+
+	if(length > 0 && bytes[0] == '-') { negative = true; index++; }
+	if(index == length || length > 10) { return Integer.MIN_VALUE; }
+
+	for(; index < length; index++) {
+	    if(bytes[index] < '0' || bytes[index] > '9') { return Integer.MIN_VALUE; }
+	    year = year * 10 + (bytes[index] - '0');
+	}
+
+	return negative ? -year : year;
+    }
+}
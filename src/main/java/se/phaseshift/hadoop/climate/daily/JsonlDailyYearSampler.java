@@ -0,0 +1,229 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.io.IOException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// MapReduce & Hadoop
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+
+// AVRO
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Pre-pass estimating the number of records per year and the total input size of a job.
+ *
+ * A number of evenly spaced input splits are sampled and the year of the sampled records decoded
+ * (without validation). Input is mostly ordered by station and date, so the first records of a
+ * split would only show its first years: the sample is spread over the whole split instead.
+ * Uncompressed text splits are read in evenly spaced probes, each a short sub-split starting at
+ * its own line, like the chunks of InputSampler.IntervalSampler but without reading the gaps.
+ * Other splits (compressed, combined or Parquet) are read up to a byte budget and every record at
+ * a fixed interval of the reader progress is decoded, the others are only skipped. Splits larger
+ * than the budget are only sampled over their first part, which is reported.
+ *
+ * Counts are weighted by the records each sampled record stands for and scaled by the ratio
+ * between total and sampled split length into estimated records per year. Records of the Parquet
+ * side input carry their year and are counted without decoding. Years missing from the sample
+ * are hashed by JsonlDailyYearPartitioner.
+ */
+public class JsonlDailyYearSampler {
+    /* Years outside this range are rejected by validation and would only blow up the partition table */
+    private static final int MIN_YEAR = 0;
+    private static final int MAX_YEAR = 9999;
+
+    /* Probes per text split, each at least a few lines long */
+    private static final int MAX_PROBES = 32;
+    private static final long MIN_PROBE_BYTES = 64L * 1024;
+
+    private final int maxSplits;
+    private final int recordsPerSplit;
+    private final long bytesPerSplit;
+
+    private final JsonlDailyDecoder decoder = new JsonlDailyDecoder();
+    private final JsonlDailyObservation observation = new JsonlDailyObservation();
+
+    private long inputBytes = 0L;
+    private int truncatedSplits = 0;
+    private Map<Integer, Long> histogram = new TreeMap<Integer, Long>();
+
+    public JsonlDailyYearSampler(int maxSplits, int recordsPerSplit, long bytesPerSplit) {
+	this.maxSplits = maxSplits;
+	this.recordsPerSplit = recordsPerSplit;
+	this.bytesPerSplit = bytesPerSplit;
+    }
+
+    public long getInputBytes() {
+	return this.inputBytes;
+    }
+
+    public Map<Integer, Long> getHistogram() {
+	return this.histogram;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void sample(Job job) throws IOException, InterruptedException {
+	Configuration conf = job.getConfiguration();
+	InputFormat<Object, Object> inputFormat = (InputFormat<Object, Object>) ReflectionUtils.newInstance(job.getInputFormatClass(), conf);
+	List<InputSplit> splits = inputFormat.getSplits(job);
+
+	this.inputBytes = 0L;
+	this.truncatedSplits = 0;
+	this.histogram.clear();
+	for(InputSplit split : splits) { this.inputBytes += split.getLength(); }
+
+	if(splits.isEmpty() || this.maxSplits <= 0) { return; }
+
+	Map<Integer, Double> counts = new TreeMap<Integer, Double>();
+	CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+	long sampledBytes = 0L;
+
+	// Evenly spaced splits, like InputSampler.SplitSampler
+	int sampledSplits = Math.min(this.maxSplits, splits.size());
+	int step = splits.size() / sampledSplits;
+
+	for(int index = 0; index < sampledSplits; index++) {
+	    InputSplit split = splits.get(index * step);
+
+	    // Lines can be read from any offset of uncompressed text files, bgzip and combined splits can not
+	    if(inputFormat instanceof TextInputFormat && split.getClass() == FileSplit.class &&
+	       codecs.getCodec(((FileSplit) split).getPath()) == null) {
+		FileSplit fileSplit = (FileSplit) split;
+		int probes = (int) Math.max(1L, Math.min(MAX_PROBES, fileSplit.getLength() / MIN_PROBE_BYTES));
+		int recordsPerProbe = Math.max(1, this.recordsPerSplit / probes);
+		long probeLength = fileSplit.getLength() / probes;
+
+		for(int probe = 0; probe < probes; probe++) {
+		    long start = fileSplit.getStart() + probe * probeLength;
+		    long length = (probe == probes - 1) ? fileSplit.getStart() + fileSplit.getLength() - start : probeLength;
+
+		    sampledBytes += this.read(inputFormat, new FileSplit(fileSplit.getPath(), start, length, fileSplit.getLocations()),
+					      conf, recordsPerProbe, false, counts);
+		}
+	    }
+	    else {
+		sampledBytes += this.read(inputFormat, split, conf, this.recordsPerSplit, true, counts);
+	    }
+	}
+
+	if(this.truncatedSplits > 0) {
+	    System.out.printf("Year sampler: %d of %d sampled splits read up to %d bytes only\n",
+			      this.truncatedSplits, sampledSplits, this.bytesPerSplit);
+	}
+
+	// Scale sampled counts to the whole input
+	double scale = (sampledBytes > 0L) ? (double) this.inputBytes / sampledBytes : 1.0;
+	for(Map.Entry<Integer, Double> entry : counts.entrySet()) {
+	    this.histogram.put(entry.getKey(), Math.max(1L, Math.round(entry.getValue() * scale)));
+	}
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* SAMPLING HELPERS                                                                                  */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    /**
+     * Samples up to the given number of records of a split into the counts, returns the split length
+     * the counts stand for. Without interval, the first records are sampled. With interval, the
+     * split is read up to the byte budget and a record is sampled each time the progress passes
+     * the next mark, the marks being spread over the budget.
+     */
+    private long read(InputFormat<Object, Object> inputFormat, InputSplit split, Configuration conf,
+		      int maxRecords, boolean interval, Map<Integer, Double> counts) throws IOException, InterruptedException {
+	TaskAttemptContext samplingContext = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+	RecordReader<Object, Object> reader = inputFormat.createRecordReader(split, samplingContext);
+	Map<Integer, Double> splitCounts = new TreeMap<Integer, Double>();
+	long records = 0L;
+	long sampled = 0L;
+	float progress = 0.0f;
+	boolean truncated = false;
+
+	// Share of the split within the byte budget, assuming progress grows with the bytes read
+	float budget = interval ? (float) Math.min(1.0, (double) this.bytesPerSplit / Math.max(1L, split.getLength())) : 1.0f;
+
+	try {
+	    reader.initialize(split, samplingContext);
+
+	    float nextMark = 0.0f;
+	    while((interval || sampled < maxRecords) && reader.nextKeyValue()) {
+		records++;
+
+		if(interval) {
+		    float readProgress = reader.getProgress();
+		    if(budget < 1.0f && readProgress >= budget) {
+			records--;
+			truncated = true;
+			break;
+		    }
+
+		    // Skipped without decoding until the progress passes the next mark
+		    if(readProgress < nextMark) { continue; }
+		    nextMark += budget / maxRecords;
+		}
+
+		sampled++;
+		this.sample(reader.getCurrentValue(), splitCounts);
+	    }
+
+	    // Whole split length if it was read completely, otherwise the share of records read
+	    progress = (!truncated && (interval || sampled < maxRecords)) ? 1.0f : Math.max(reader.getProgress(), 1e-6f);
+	}
+	finally {
+	    reader.close();
+	}
+
+	if(truncated) { this.truncatedSplits++; }
+
+	// Each sampled record stands for the records skipped since the previous one
+	double weight = (sampled > 0L) ? (double) records / sampled : 0.0;
+	for(Map.Entry<Integer, Double> entry : splitCounts.entrySet()) {
+	    Double count = counts.get(entry.getKey());
+	    counts.put(entry.getKey(), ((count == null) ? 0.0 : count) + entry.getValue() * weight);
+	}
+
+	return (long) (split.getLength() * progress);
+    }
+
+    private void sample(Object value, Map<Integer, Double> counts) {
+	// Parquet side input records carry their year already
+	if(value instanceof GenericRecord) {
+	    Object year = ((GenericRecord) value).get("year");
+	    if(year instanceof Integer) { count(counts, (Integer) year); }
+	    return;
+	}
+
+	if(!(value instanceof Text)) { return; }
+
+	try {
+	    Text line = (Text) value;
+	    this.decoder.decode(line.getBytes(), 0, line.getLength(), this.observation);
+
+	    if(this.observation.getType(JsonlDailyObservation.YEAR) == JsonlDailyCompiledValidator.TYPE_INTEGER) {
+		long year = this.observation.getLong(JsonlDailyObservation.YEAR);
+		if(year >= MIN_YEAR && year <= MAX_YEAR) { count(counts, (int) year); }
+	    }
+	}
+	catch(IOException ioe) {
+	    // Unparsable line, skipped by the sample
+	}
+    }
+
+    private static void count(Map<Integer, Double> counts, int year) {
+	Double count = counts.get(year);
+	counts.put(year, (count == null) ? 1.0 : count + 1.0);
+    }
+}
@@ -0,0 +1,245 @@
+package se.phaseshift.hadoop.util;
+
+import java.io.IOException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * MultipleOutputs writing on encoder threads, so that encoding, compression and I/O of the
+ * outputs overlap with the computation of the task.
+ *
+ * Every named output gets a bounded queue and a dedicated encoder thread, which owns a plain
+ * MultipleOutputs and thus the record writers of its named output: record writers are never
+ * shared between threads. Keys and values are copied when queued, as tasks reuse their objects.
+ * Copies are pooled per encoder: written entries go back to the task thread through a return
+ * queue and later records are copied into them, Avro records field by field (reusing their Utf8s)
+ * and Writables through their serialization, so no record graph is allocated per record. A full
+ * queue blocks the task thread until the encoder catches up, bounding the memory held by queued
+ * records. Failures of an encoder are thrown by the next write or by close, which drains the
+ * queues and closes all record writers.
+ *
+ * Time spent copying, encoding and blocked on full queues is published in the COUNTERS when closed.
+ */
+public class AsyncMultipleOutputs<KEYOUT, VALUEOUT> extends MultipleOutputs<KEYOUT, VALUEOUT> {
+    public static enum COUNTERS {
+	RECORDS,
+	COPY_MILLIS,
+	ENCODE_MILLIS,
+	BLOCKED_WRITES,
+	BLOCKED_MILLIS
+    }
+
+    /* End of output marker of the queues */
+    private static final Entry END = new Entry();
+
+    private final TaskInputOutputContext<?, ?, KEYOUT, VALUEOUT> context;
+    private final int queueCapacity;
+    private final Map<String, Encoder> encoders = new HashMap<String, Encoder>();
+    private long copyNanos = 0L;
+    private long blockedWrites = 0L;
+    private long blockedNanos = 0L;
+    private volatile Throwable failure = null;
+
+    public AsyncMultipleOutputs(TaskInputOutputContext<?, ?, KEYOUT, VALUEOUT> context, int queueCapacity) {
+	super(context);
+	this.context = context;
+	this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    @Override
+    public <K, V> void write(String namedOutput, K key, V value) throws IOException, InterruptedException {
+	this.write(namedOutput, key, value, namedOutput);
+    }
+
+    @Override
+    public <K, V> void write(String namedOutput, K key, V value, String baseOutputPath) throws IOException, InterruptedException {
+	this.checkFailure();
+
+	Encoder encoder = this.encoders.get(namedOutput);
+	if(encoder == null) {
+	    encoder = new Encoder(namedOutput);
+	    encoder.thread.start();
+	    this.encoders.put(namedOutput, encoder);
+	}
+
+	// Copied into an entry the encoder is done with, if any
+	long copyStart = System.nanoTime();
+	Entry entry = encoder.free.poll();
+	if(entry == null) { entry = new Entry(); }
+
+	entry.key = this.copy(key, entry.key);
+	entry.value = this.copy(value, entry.value);
+	entry.baseOutputPath = baseOutputPath;
+	this.copyNanos += System.nanoTime() - copyStart;
+
+	// Backpressure: wait for the encoder to make room, unless it failed
+	if(!encoder.queue.offer(entry)) {
+	    long start = System.nanoTime();
+	    while(!encoder.queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+		this.checkFailure();
+	    }
+	    this.blockedWrites++;
+	    this.blockedNanos += System.nanoTime() - start;
+	}
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+	long records = 0L;
+	long encodeNanos = 0L;
+
+	try {
+	    // Encoders write what is queued, then close their record writers
+	    for(Encoder encoder : this.encoders.values()) {
+		while(encoder.thread.isAlive() && !encoder.queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+		    // A failed encoder no longer drains its queue
+		}
+	    }
+	}
+	finally {
+	    for(Encoder encoder : this.encoders.values()) {
+		encoder.thread.join();
+		records += encoder.records;
+		encodeNanos += encoder.encodeNanos;
+	    }
+	}
+
+	this.context.getCounter(COUNTERS.RECORDS).increment(records);
+	this.context.getCounter(COUNTERS.COPY_MILLIS).increment(TimeUnit.NANOSECONDS.toMillis(this.copyNanos));
+	this.context.getCounter(COUNTERS.ENCODE_MILLIS).increment(TimeUnit.NANOSECONDS.toMillis(encodeNanos));
+	this.context.getCounter(COUNTERS.BLOCKED_WRITES).increment(this.blockedWrites);
+	this.context.getCounter(COUNTERS.BLOCKED_MILLIS).increment(TimeUnit.NANOSECONDS.toMillis(this.blockedNanos));
+
+	super.close();
+	this.checkFailure();
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* ENCODER HELPERS                                                                                   */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    /* Copy of the object, made into the copy of an earlier record if it has the same type */
+    private Object copy(Object object, Object reused) throws IOException {
+	if(object instanceof GenericRecord) {
+	    return this.copyRecord((GenericRecord) object, reused);
+	}
+	else if(object instanceof Text) {
+	    Text copy = (reused instanceof Text) ? (Text) reused : new Text();
+	    copy.set((Text) object);
+	    return copy;
+	}
+	else if(object instanceof Writable && !(object instanceof NullWritable)) {
+	    Writable copy = (reused != null && reused.getClass() == object.getClass()) ?
+		(Writable) reused : (Writable) ReflectionUtils.newInstance(object.getClass(), this.context.getConfiguration());
+	    return ReflectionUtils.copy(this.context.getConfiguration(), (Writable) object, copy);
+	}
+
+	// Immutable (strings, boxed values, null keys)
+	return object;
+    }
+
+    private GenericData.Record copyRecord(GenericRecord record, Object reused) {
+	Schema schema = record.getSchema();
+	GenericData.Record copy = (reused instanceof GenericData.Record && ((GenericData.Record) reused).getSchema() == schema) ?
+	    (GenericData.Record) reused : new GenericData.Record(schema);
+
+	for(Schema.Field field : schema.getFields()) {
+	    Object value = record.get(field.pos());
+	    Object copied = copy.get(field.pos());
+
+	    if(value instanceof Utf8) {
+		Utf8 utf8 = (Utf8) value;
+		Utf8 copyUtf8 = (copied instanceof Utf8) ? (Utf8) copied : new Utf8();
+		copyUtf8.setByteLength(utf8.getByteLength());
+		System.arraycopy(utf8.getBytes(), 0, copyUtf8.getBytes(), 0, utf8.getByteLength());
+		copy.put(field.pos(), copyUtf8);
+	    }
+	    else if(value instanceof GenericRecord) {
+		copy.put(field.pos(), this.copyRecord((GenericRecord) value, copied));
+	    }
+	    else if(value == null || value instanceof String || value instanceof Number ||
+		    value instanceof Boolean || value instanceof GenericData.EnumSymbol) {
+		// Immutable
+		copy.put(field.pos(), value);
+	    }
+	    else {
+		// Arrays, maps, bytes and fixed
+		copy.put(field.pos(), GenericData.get().deepCopy(field.schema(), value));
+	    }
+	}
+
+	return copy;
+    }
+
+    private void checkFailure() throws IOException {
+	if(this.failure instanceof IOException) { throw (IOException) this.failure; }
+	if(this.failure != null) { throw new IOException("Async output failed", this.failure); }
+    }
+
+    private static class Entry {
+	private Object key = null;
+	private Object value = null;
+	private String baseOutputPath = null;
+    }
+
+    private class Encoder implements Runnable {
+	private final String namedOutput;
+	private final BlockingQueue<Entry> queue;
+	private final BlockingQueue<Entry> free;
+	private final Thread thread;
+	private long records = 0L;
+	private long encodeNanos = 0L;
+
+	Encoder(String namedOutput) {
+	    this.namedOutput = namedOutput;
+	    this.queue = new ArrayBlockingQueue<Entry>(AsyncMultipleOutputs.this.queueCapacity);
+	    this.free = new ArrayBlockingQueue<Entry>(AsyncMultipleOutputs.this.queueCapacity + 1);
+	    this.thread = new Thread(this, "AsyncMultipleOutputs-" + namedOutput);
+	    this.thread.setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+	    MultipleOutputs<KEYOUT, VALUEOUT> outputs = new MultipleOutputs<KEYOUT, VALUEOUT>(AsyncMultipleOutputs.this.context);
+
+	    try {
+		for(Entry entry = this.queue.take(); entry != END; entry = this.queue.take()) {
+		    long start = System.nanoTime();
+		    outputs.write(this.namedOutput, entry.key, entry.value, entry.baseOutputPath);
+		    this.encodeNanos += System.nanoTime() - start;
+		    this.records++;
+
+		    // Written, its copies are reused for a later record
+		    this.free.offer(entry);
+		}
+	    }
+	    catch(Throwable t) {
+		AsyncMultipleOutputs.this.failure = t;
+	    }
+	    finally {
+		try {
+		    outputs.close();
+		}
+		catch(Throwable t) {
+		    if(AsyncMultipleOutputs.this.failure == null) { AsyncMultipleOutputs.this.failure = t; }
+		}
+	    }
+	}
+    }
+}
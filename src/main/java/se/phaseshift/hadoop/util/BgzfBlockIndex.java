@@ -0,0 +1,241 @@
+package se.phaseshift.hadoop.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+
+/**
+ * Block index of a BGZF (blocked gzip, as written by bgzip) file.
+ *
+ * A BGZF file is a series of gzip members of at most 64 KB, each holding its own compressed size
+ * in a "BC" extra field. Members can be inflated independently, so the file can be split at any
+ * member start. The index lists the compressed and uncompressed start offset of every member.
+ *
+ * Indexes are stored in the .gzi format of bgzip -i: a little endian count followed by offset
+ * pairs, the first member (0, 0) left out. An index is taken from a file.gzi next to the file if
+ * present, otherwise from the index cache directory, otherwise built by walking the member headers
+ * (without inflating) and stored into the cache directory if one is configured.
+ */
+public class BgzfBlockIndex {
+    public static final String INDEX_DIR_KEY = "phaseshift.bgzf.index.dir";
+    public static final String INDEX_SUFFIX = ".gzi";
+
+    static final int MAX_BLOCK_SIZE = 65536;
+    static final int HEADER_SIZE = 12;
+    static final int TRAILER_SIZE = 8;
+
+    private final long[] compressedOffsets;
+    private final long[] uncompressedOffsets;
+
+    private BgzfBlockIndex(long[] compressedOffsets, long[] uncompressedOffsets) {
+	this.compressedOffsets = compressedOffsets;
+	this.uncompressedOffsets = uncompressedOffsets;
+    }
+
+    /* Compressed start offsets of all members, starting with 0 */
+    public long[] getBlockStarts() {
+	return this.compressedOffsets;
+    }
+
+    public long[] getUncompressedStarts() {
+	return this.uncompressedOffsets;
+    }
+
+    public static BgzfBlockIndex load(Configuration conf, FileSystem fs, FileStatus file) throws IOException {
+	Path sidecarPath = file.getPath().suffix(INDEX_SUFFIX);
+	if(fs.exists(sidecarPath)) {
+	    return read(fs, sidecarPath);
+	}
+
+	// Cached index is only valid for the file version it was built from
+	String indexDir = conf.get(INDEX_DIR_KEY);
+	Path cachePath = null;
+	if(indexDir != null) {
+	    String version = file.getPath().toString() + "\t" + file.getLen() + "\t" + file.getModificationTime();
+	    cachePath = new Path(indexDir, MD5Hash.digest(version.getBytes(StandardCharsets.UTF_8)).toString() + INDEX_SUFFIX);
+
+	    FileSystem cacheFs = cachePath.getFileSystem(conf);
+	    if(cacheFs.exists(cachePath)) {
+		return read(cacheFs, cachePath);
+	    }
+	}
+
+	BgzfBlockIndex index = scan(fs, file.getPath(), file.getLen());
+
+	if(cachePath != null) {
+	    index.write(cachePath.getFileSystem(conf), cachePath);
+	}
+
+	return index;
+    }
+
+    /* True if the path names an index (a bgzip -i sidecar or a cached index), never input data */
+    public static boolean isIndex(Path path) {
+	return path.getName().endsWith(INDEX_SUFFIX);
+    }
+
+    /* True if the file starts with a BGZF member */
+    public static boolean isBgzf(FileSystem fs, Path file) throws IOException {
+	FSDataInputStream in = fs.open(file);
+
+	try {
+	    byte[] header = new byte[HEADER_SIZE];
+	    in.readFully(header);
+
+	    int extraLength = (header[10] & 0xff) | ((header[11] & 0xff) << 8);
+	    byte[] extra = new byte[extraLength];
+	    in.readFully(extra);
+
+	    return blockSize(header, extra, extraLength) > 0;
+	}
+	catch(EOFException eofe) {
+	    return false;
+	}
+	finally {
+	    in.close();
+	}
+    }
+
+    /* Total size of the member with the given header and extra field, -1 if not a BGZF member */
+    static int blockSize(byte[] header, byte[] extra, int extraLength) {
+	// gzip magic, deflate, FEXTRA flag
+	if((header[0] & 0xff) != 31 || (header[1] & 0xff) != 139 || header[2] != 8 || (header[3] & 4) == 0) {
+	    return -1;
+	}
+
+	for(int index = 0; index + 4 <= extraLength; ) {
+	    int subfieldLength = (extra[index + 2] & 0xff) | ((extra[index + 3] & 0xff) << 8);
+
+	    if(extra[index] == 'B' && extra[index + 1] == 'C' && subfieldLength == 2 && index + 6 <= extraLength) {
+		return ((extra[index + 4] & 0xff) | ((extra[index + 5] & 0xff) << 8)) + 1;
+	    }
+
+	    index += 4 + subfieldLength;
+	}
+
+	return -1;
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* INDEX HELPERS                                                                                     */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    static BgzfBlockIndex scan(FileSystem fs, Path file, long length) throws IOException {
+	LongList compressed = new LongList();
+	LongList uncompressed = new LongList();
+	FSDataInputStream in = fs.open(file);
+	byte[] header = new byte[HEADER_SIZE];
+	byte[] extra = new byte[MAX_BLOCK_SIZE];
+	byte[] trailer = new byte[TRAILER_SIZE];
+	long position = 0L;
+	long uncompressedPosition = 0L;
+
+	try {
+	    while(position < length) {
+		// Only the header and the trailer (uncompressed size) of every member are read
+		in.seek(position);
+		in.readFully(header);
+		int extraLength = (header[10] & 0xff) | ((header[11] & 0xff) << 8);
+		in.readFully(extra, 0, extraLength);
+
+		int size = blockSize(header, extra, extraLength);
+		if(size < HEADER_SIZE + extraLength + TRAILER_SIZE) {
+		    throw new IOException("Not a BGZF member at offset " + position + " of " + file);
+		}
+
+		in.seek(position + size - TRAILER_SIZE);
+		in.readFully(trailer);
+
+		compressed.add(position);
+		uncompressed.add(uncompressedPosition);
+
+		position += size;
+		uncompressedPosition += littleEndianInt(trailer, 4) & 0xffffffffL;
+	    }
+	}
+	finally {
+	    in.close();
+	}
+
+	return new BgzfBlockIndex(compressed.toArray(), uncompressed.toArray());
+    }
+
+    static BgzfBlockIndex read(FileSystem fs, Path indexPath) throws IOException {
+	DataInputStream in = fs.open(indexPath);
+
+	try {
+	    int entries = (int) Long.reverseBytes(in.readLong());
+	    long[] compressed = new long[entries + 1];
+	    long[] uncompressed = new long[entries + 1];
+
+	    for(int index = 1; index <= entries; index++) {
+		compressed[index] = Long.reverseBytes(in.readLong());
+		uncompressed[index] = Long.reverseBytes(in.readLong());
+	    }
+
+	    return new BgzfBlockIndex(compressed, uncompressed);
+	}
+	finally {
+	    in.close();
+	}
+    }
+
+    void write(FileSystem fs, Path indexPath) throws IOException {
+	// Written next to the index first, concurrent jobs must never read a truncated index
+	Path temporaryPath = indexPath.suffix("." + System.nanoTime() + ".tmp");
+	DataOutputStream out = fs.create(temporaryPath, true);
+
+	try {
+	    out.writeLong(Long.reverseBytes(this.compressedOffsets.length - 1));
+	    for(int index = 1; index < this.compressedOffsets.length; index++) {
+		out.writeLong(Long.reverseBytes(this.compressedOffsets[index]));
+		out.writeLong(Long.reverseBytes(this.uncompressedOffsets[index]));
+	    }
+	}
+	finally {
+	    out.close();
+	}
+
+	if(!fs.rename(temporaryPath, indexPath)) {
+	    fs.delete(temporaryPath, false);
+	}
+    }
+
+    static int littleEndianInt(byte[] bytes, int offset) {
+	return (bytes[offset] & 0xff) |
+	    ((bytes[offset + 1] & 0xff) << 8) |
+	    ((bytes[offset + 2] & 0xff) << 16) |
+	    ((bytes[offset + 3] & 0xff) << 24);
+    }
+
+    private static class LongList {
+	private long[] values = new long[1024];
+	private int size = 0;
+
+	void add(long value) {
+	    if(this.size == this.values.length) {
+		long[] grown = new long[this.values.length * 2];
+		System.arraycopy(this.values, 0, grown, 0, this.size);
+		this.values = grown;
+	    }
+
+	    this.values[this.size++] = value;
+	}
+
+	long[] toArray() {
+	    long[] array = new long[this.size];
+	    System.arraycopy(this.values, 0, array, 0, this.size);
+	    return array;
+	}
+    }
+}
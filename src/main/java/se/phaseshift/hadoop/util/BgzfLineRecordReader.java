@@ -0,0 +1,197 @@
+package se.phaseshift.hadoop.util;
+
+import java.io.IOException;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Line reader of a BGZF split, starting and ending at member boundaries.
+ *
+ * Members are inflated one at a time. Line ownership follows LineRecordReader: a split not starting
+ * the file skips its first (partial) line, and a split reads every line starting before its end
+ * plus the line starting exactly at its end. The key is the BGZF virtual offset of the line, the
+ * compressed member start shifted left by 16 bits or'ed with the offset within the member.
+ */
+public class BgzfLineRecordReader extends RecordReader<LongWritable, Text> {
+    private FSDataInputStream in = null;
+    private Inflater inflater = new Inflater(true);
+    private byte[] header = new byte[BgzfBlockIndex.HEADER_SIZE];
+    private byte[] compressed = new byte[BgzfBlockIndex.MAX_BLOCK_SIZE];
+    private byte[] block = new byte[BgzfBlockIndex.MAX_BLOCK_SIZE];
+    private int blockLength = 0;
+    private int blockOffset = 0;
+    private long blockStart = 0L;
+    private long nextBlockStart = 0L;
+
+    private long splitStart = 0L;
+    private long splitEnd = 0L;
+    private long fileLength = 0L;
+    private Path file = null;
+
+    private LongWritable key = new LongWritable();
+    private Text value = new Text();
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+	FileSplit split = (FileSplit) genericSplit;
+	Configuration conf = context.getConfiguration();
+
+	this.file = split.getPath();
+	this.splitStart = split.getStart();
+	this.splitEnd = split.getStart() + split.getLength();
+
+	FileSystem fs = this.file.getFileSystem(conf);
+	this.fileLength = fs.getFileStatus(this.file).getLen();
+	this.in = fs.open(this.file);
+	this.in.seek(this.splitStart);
+
+	this.blockStart = this.splitStart;
+	this.nextBlockStart = this.splitStart;
+
+	// The first line belongs to the previous split, unless this split starts the file
+	if(this.splitStart != 0L && this.position()) {
+	    this.readLine(this.value);
+	}
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+	if(!this.position()) { return false; }
+
+	// Lines starting after the split end belong to the next split
+	if(this.blockStart > this.splitEnd || (this.blockStart == this.splitEnd && this.blockOffset > 0)) {
+	    return false;
+	}
+
+	this.key.set((this.blockStart << 16) | this.blockOffset);
+	this.readLine(this.value);
+
+	return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+	return this.key;
+    }
+
+    @Override
+    public Text getCurrentValue() {
+	return this.value;
+    }
+
+    @Override
+    public float getProgress() {
+	if(this.splitEnd == this.splitStart) { return 0.0f; }
+
+	return Math.min(1.0f, (this.blockStart - this.splitStart) / (float) (this.splitEnd - this.splitStart));
+    }
+
+    @Override
+    public void close() throws IOException {
+	this.inflater.end();
+
+	if(this.in != null) {
+	    this.in.close();
+	    this.in = null;
+	}
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* BLOCK HELPERS                                                                                     */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    /* Moves to the next unread byte, loading members as needed, false at the end of the file */
+    private boolean position() throws IOException {
+	while(this.blockOffset == this.blockLength) {
+	    if(!this.loadBlock()) { return false; }
+	}
+
+	return true;
+    }
+
+    private void readLine(Text line) throws IOException {
+	line.clear();
+
+	while(this.position()) {
+	    int start = this.blockOffset;
+	    int end = start;
+	    while(end < this.blockLength && this.block[end] != '\n') { end++; }
+
+	    if(end < this.blockLength) {
+		// Newline found, dropped together with a preceding carriage return
+		int length = end - start;
+		if(length > 0 && this.block[end - 1] == '\r') {
+		    length--;
+		}
+		else if(length == 0 && line.getLength() > 0 && line.getBytes()[line.getLength() - 1] == '\r') {
+		    // Carriage return ended the previous member
+		    byte[] bytes = line.copyBytes();
+		    line.set(bytes, 0, bytes.length - 1);
+		}
+
+		line.append(this.block, start, length);
+		this.blockOffset = end + 1;
+		return;
+	    }
+
+	    line.append(this.block, start, end - start);
+	    this.blockOffset = end;
+	}
+    }
+
+    private boolean loadBlock() throws IOException {
+	if(this.nextBlockStart >= this.fileLength) { return false; }
+
+	this.in.readFully(this.header);
+	int extraLength = (this.header[10] & 0xff) | ((this.header[11] & 0xff) << 8);
+	this.in.readFully(this.compressed, 0, extraLength);
+
+	int size = BgzfBlockIndex.blockSize(this.header, this.compressed, extraLength);
+	int dataLength = size - BgzfBlockIndex.HEADER_SIZE - extraLength;
+	if(size < 0 || dataLength < BgzfBlockIndex.TRAILER_SIZE) {
+	    throw new IOException("Not a BGZF member at offset " + this.nextBlockStart + " of " + this.file);
+	}
+
+	// Deflate data followed by CRC32 and uncompressed size
+	this.in.readFully(this.compressed, 0, dataLength);
+	int uncompressedLength = BgzfBlockIndex.littleEndianInt(this.compressed, dataLength - 4);
+
+	try {
+	    this.inflater.reset();
+	    this.inflater.setInput(this.compressed, 0, dataLength - BgzfBlockIndex.TRAILER_SIZE);
+
+	    int inflated = 0;
+	    while(inflated < uncompressedLength && !this.inflater.finished()) {
+		int count = this.inflater.inflate(this.block, inflated, uncompressedLength - inflated);
+		if(count == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) { break; }
+		inflated += count;
+	    }
+
+	    if(inflated != uncompressedLength) {
+		throw new IOException("Truncated BGZF member at offset " + this.nextBlockStart + " of " + this.file);
+	    }
+	}
+	catch(DataFormatException dfe) {
+	    throw new IOException("Corrupt BGZF member at offset " + this.nextBlockStart + " of " + this.file, dfe);
+	}
+
+	this.blockStart = this.nextBlockStart;
+	this.nextBlockStart += size;
+	this.blockLength = uncompressedLength;
+	this.blockOffset = 0;
+
+	return true;
+    }
+}
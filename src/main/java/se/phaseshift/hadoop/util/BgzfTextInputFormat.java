@@ -0,0 +1,111 @@
+package se.phaseshift.hadoop.util;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+
+/**
+ * TextInputFormat splitting BGZF compressed (bgzip) files at gzip member boundaries.
+ *
+ * Plain gzip files can not be split and stay one split per file, like with TextInputFormat.
+ * Gzip files written by bgzip are split into chunks of the regular split size using their
+ * BgzfBlockIndex, and read by a BgzfLineRecordReader. Uncompressed and bzip2 files are handled by
+ * TextInputFormat itself. Index files (.gzi) are left out of the input.
+ */
+public class BgzfTextInputFormat extends TextInputFormat {
+    /* Like FileInputFormat, the last split may be up to 10% larger than the split size */
+    private static final double SPLIT_SLOP = 1.1;
+
+    /* Split of a BGZF file, starting and ending at member boundaries */
+    public static class BgzfSplit extends FileSplit {
+	public BgzfSplit() {}
+
+	public BgzfSplit(Path file, long start, long length, String[] hosts) {
+	    super(file, start, length, hosts);
+	}
+    }
+
+    /* Index sidecars of bgzip -i sit next to their files, inputs given as directories list them too */
+    @Override
+    protected List<FileStatus> listStatus(JobContext job) throws IOException {
+	List<FileStatus> files = new ArrayList<FileStatus>();
+
+	for(FileStatus file : super.listStatus(job)) {
+	    if(!BgzfBlockIndex.isIndex(file.getPath())) { files.add(file); }
+	}
+
+	return files;
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+	Configuration conf = job.getConfiguration();
+	long minSize = Math.max(this.getFormatMinSplitSize(), getMinSplitSize(job));
+	long maxSize = getMaxSplitSize(job);
+	List<InputSplit> splits = new ArrayList<InputSplit>();
+
+	// Gzip files come out of TextInputFormat as a single split
+	for(InputSplit split : super.getSplits(job)) {
+	    FileSplit fileSplit = (FileSplit) split;
+	    Path file = fileSplit.getPath();
+
+	    if(fileSplit.getStart() != 0L || !file.getName().endsWith(".gz")) {
+		splits.add(split);
+		continue;
+	    }
+
+	    FileSystem fs = file.getFileSystem(conf);
+	    FileStatus status = fs.getFileStatus(file);
+	    if(fileSplit.getLength() != status.getLen() || !BgzfBlockIndex.isBgzf(fs, file)) {
+		splits.add(split);
+		continue;
+	    }
+
+	    long[] blockStarts = BgzfBlockIndex.load(conf, fs, status).getBlockStarts();
+	    BlockLocation[] locations = fs.getFileBlockLocations(status, 0L, status.getLen());
+	    long splitSize = this.computeSplitSize(status.getBlockSize(), minSize, maxSize);
+	    long splitStart = 0L;
+
+	    for(int index = 1; index < blockStarts.length; index++) {
+		if(blockStarts[index] - splitStart >= splitSize && status.getLen() - splitStart > splitSize * SPLIT_SLOP) {
+		    splits.add(this.createSplit(file, splitStart, blockStarts[index], locations));
+		    splitStart = blockStarts[index];
+		}
+	    }
+
+	    splits.add(this.createSplit(file, splitStart, status.getLen(), locations));
+	}
+
+	return splits;
+    }
+
+    @Override
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+	if(split instanceof BgzfSplit) {
+	    return new BgzfLineRecordReader();
+	}
+
+	return super.createRecordReader(split, context);
+    }
+
+    private BgzfSplit createSplit(Path file, long start, long end, BlockLocation[] locations) throws IOException {
+	int blockIndex = this.getBlockIndex(locations, start);
+
+	return new BgzfSplit(file, start, end - start, locations[blockIndex].getHosts());
+    }
+}
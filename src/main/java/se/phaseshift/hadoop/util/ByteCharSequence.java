@@ -0,0 +1,61 @@
+package se.phaseshift.hadoop.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable CharSequence view over a range of single byte (ASCII/ISO-8859-1) characters.
+ *
+ * Lets regular expressions run directly on the bytes of a Hadoop Text, without decoding
+ * them into a new String for every record.
+ */
+public class ByteCharSequence implements CharSequence {
+    private byte[] bytes;
+    private int offset;
+    private int length;
+
+    public ByteCharSequence() {
+	this.set(new byte[0], 0, 0);
+    }
+
+    public ByteCharSequence(byte[] bytes, int offset, int length) {
+	this.set(bytes, offset, length);
+    }
+
+    public void set(byte[] bytes, int offset, int length) {
+	this.bytes = bytes;
+	this.offset = offset;
+	this.length = length;
+    }
+
+    public byte[] getBytes() {
+	return this.bytes;
+    }
+
+    public int getOffset() {
+	return this.offset;
+    }
+
+    @Override
+    public int length() {
+	return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+	if(index < 0 || index >= this.length) { throw new IndexOutOfBoundsException("Index: " + index); }
+
+	return (char) (this.bytes[this.offset + index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+	if(start < 0 || end > this.length || start > end) { throw new IndexOutOfBoundsException("Range: " + start + "-" + end); }
+
+	return new ByteCharSequence(this.bytes, this.offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+	return new String(this.bytes, this.offset, this.length, StandardCharsets.ISO_8859_1);
+    }
+}
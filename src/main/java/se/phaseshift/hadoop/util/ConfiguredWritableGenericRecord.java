@@ -0,0 +1,112 @@
+package se.phaseshift.hadoop.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * Writable generic record taking its schema from the job Configuration instead of the stream.
+ *
+ * Only the Avro datum bytes are serialized, the schema is parsed once per JVM and the datum
+ * reader/writer and binary encoder/decoder are cached and reused between records. Hadoop creates
+ * instances through ReflectionUtils, which hands over the Configuration holding the schema.
+ *
+ * Schemas set on a Job are registered in the SchemaRegistry, the Configuration only names them.
+ */
+public class ConfiguredWritableGenericRecord extends WritableGenericRecord implements Configurable {
+
+    public static final String SCHEMA_KEY = "phaseshift.writable.generic.record.schema";
+    public static final String SCHEMA_NAME = "phaseshift.writable.generic.record";
+
+    private static final ConcurrentMap<String, Schema> SCHEMAS = new ConcurrentHashMap<String, Schema>();
+
+    private Configuration conf;
+    private Schema schema;
+    private GenericDatumWriter<GenericRecord> datumWriter;
+    private GenericDatumReader<GenericRecord> datumReader;
+    private BinaryEncoder binaryEncoder;
+    private BinaryDecoder binaryDecoder;
+
+    public ConfiguredWritableGenericRecord() {}
+
+    public ConfiguredWritableGenericRecord(Configuration conf) {
+	this.setConf(conf);
+    }
+
+    public static void setSchema(Configuration conf, Schema schema) {
+	conf.set(SCHEMA_KEY, schema.toString(false));
+    }
+
+    public static void setSchema(Job job, Schema schema) throws IOException {
+	SchemaRegistry.register(job, SCHEMA_NAME, schema.toString(false));
+	job.getConfiguration().unset(SCHEMA_KEY);
+    }
+
+    public static Schema getSchema(Configuration conf) {
+	if(SchemaRegistry.contains(conf, SCHEMA_NAME)) {
+	    try {
+		return SchemaRegistry.getAvroSchema(conf, SCHEMA_NAME);
+	    }
+	    catch(IOException ioe) {
+		throw new IllegalStateException("Could not load schema " + SCHEMA_NAME, ioe);
+	    }
+	}
+
+	String schemaString = conf.get(SCHEMA_KEY);
+	if(schemaString == null) { throw new IllegalStateException("No schema configured in " + SCHEMA_KEY); }
+
+	Schema schema = SCHEMAS.get(schemaString);
+	if(schema == null) {
+	    schema = new Schema.Parser().parse(schemaString);
+	    SCHEMAS.putIfAbsent(schemaString, schema);
+	}
+
+	return schema;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+	this.conf = conf;
+	this.schema = getSchema(conf);
+	this.datumWriter = new GenericDatumWriter<GenericRecord>(this.schema);
+	this.datumReader = new GenericDatumReader<GenericRecord>(this.schema);
+    }
+
+    @Override
+    public Configuration getConf() {
+	return this.conf;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+	// Write data only, the schema is known by both sides
+	this.binaryEncoder = EncoderFactory.get().directBinaryEncoder((OutputStream) out, this.binaryEncoder);
+	this.datumWriter.write(this.record, this.binaryEncoder);
+	this.binaryEncoder.flush();
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+	// A direct decoder never reads ahead of the current datum
+	this.binaryDecoder = DecoderFactory.get().directBinaryDecoder((InputStream) in, this.binaryDecoder);
+	this.record = this.datumReader.read(this.record, this.binaryDecoder);
+    }
+}
@@ -0,0 +1,86 @@
+package se.phaseshift.hadoop.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.net.URI;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * Schema registry keeping every schema version as a file named by its fingerprint in a shared
+ * directory (DIR_KEY, .schemas in the home directory by default), delivered to the tasks through
+ * the distributed cache.
+ *
+ * Files are written once and never changed, so jobs running with different versions of a schema
+ * share the directory. Tasks read the localized copy linked into their working directory, and
+ * the shared directory when it is not there, as in the driver.
+ */
+public class DistributedCacheSchemaRegistry extends SchemaRegistry {
+    public static final String DIR_KEY = "phaseshift.schema.registry.dir";
+
+    @Override
+    protected void publish(Job job, long fingerprint, String text) throws IOException {
+	Path file = this.file(fingerprint);
+	FileSystem fs = file.getFileSystem(this.getConf());
+
+	if(!fs.exists(file)) {
+	    // Written aside and renamed, a concurrent job sees the whole file or none
+	    Path temporary = new Path(file.getParent(), "_" + file.getName() + "." + System.nanoTime());
+	    OutputStream out = fs.create(temporary, false);
+
+	    try {
+		out.write(text.getBytes(StandardCharsets.UTF_8));
+	    }
+	    finally {
+		out.close();
+	    }
+
+	    if(!fs.rename(temporary, file)) {
+		fs.delete(temporary, false);
+		if(!fs.exists(file)) { throw new IOException("Could not register schema " + file); }
+	    }
+	}
+
+	URI uri = fs.makeQualified(file).toUri();
+	try {
+	    job.addCacheFile(new URI(uri.getScheme(), uri.getAuthority(), uri.getPath(), null, file.getName()));
+	}
+	catch(java.net.URISyntaxException use) {
+	    throw new IOException(use);
+	}
+    }
+
+    @Override
+    protected String fetch(long fingerprint) throws IOException {
+	Path file = this.file(fingerprint);
+	File localFile = new File(file.getName());
+
+	InputStream in = localFile.exists() ? new FileInputStream(localFile) : file.getFileSystem(this.getConf()).open(file);
+
+	try {
+	    return IOUtils.toString(in, StandardCharsets.UTF_8.name());
+	}
+	finally {
+	    in.close();
+	}
+    }
+
+    private Path file(long fingerprint) throws IOException {
+	Configuration conf = this.getConf();
+	String dir = conf.get(DIR_KEY);
+	Path dirPath = (dir != null) ? new Path(dir) : new Path(FileSystem.get(conf).getHomeDirectory(), ".schemas");
+
+	return new Path(dirPath, String.format("%016x.schema", fingerprint));
+    }
+}
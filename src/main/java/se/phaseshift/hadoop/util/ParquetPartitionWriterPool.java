@@ -0,0 +1,153 @@
+package se.phaseshift.hadoop.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetOutputFormat;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+/**
+ * Bounded pool of open AvroParquetWriters, one per partition directory below a base path.
+ *
+ * At most maxOpenWriters writers are kept open, the least recently used one is closed when
+ * another partition is needed. A partition written again after its writer was closed gets a new
+ * file with a sequence number suffix, so the limit should exceed the partitions written at once.
+ *
+ * Memory is bounded the way Parquet's MemoryManager bounds the writers of ParquetOutputFormat:
+ * the row group size of every writer is the memory budget shared by the open writers (at most
+ * the block size, at least 1 MB), and each writer flushes its row group once its real buffered
+ * size reaches it. Writers are never closed to free memory, which would fragment the partitions.
+ *
+ * Files are named basePath/partition/fileName[-sequence].compression.parquet, compression,
+ * block size, page size and dictionary settings are taken from the parquet.* Configuration keys.
+ */
+public class ParquetPartitionWriterPool implements Closeable {
+    public static final String MAX_OPEN_WRITERS_KEY = "phaseshift.parquet.pool.writers";
+    public static final String MEMORY_BUDGET_KEY = "phaseshift.parquet.pool.memory";
+
+    /* Smallest row group of a shared budget, like the minimum allocation of the MemoryManager */
+    private static final int MIN_ROW_GROUP_SIZE = 1024 * 1024;
+
+    private final Configuration conf;
+    private final Path basePath;
+    private final String fileName;
+    private final Schema schema;
+    private final CompressionCodecName compression;
+    private final int rowGroupSize;
+    private final int pageSize;
+    private final boolean enableDictionary;
+    private final int maxOpenWriters;
+
+    private final LinkedHashMap<String, PartitionWriter> writers;
+    private final Map<String, Integer> sequences = new LinkedHashMap<String, Integer>();
+    private long recordsWritten = 0L;
+    private long filesWritten = 0L;
+
+    public ParquetPartitionWriterPool(Configuration conf, Path basePath, String fileName, Schema schema) {
+	this.conf = conf;
+	this.basePath = basePath;
+	this.fileName = fileName;
+	this.schema = schema;
+	this.compression = ParquetOutputFormat.getCompression(conf);
+	this.pageSize = ParquetOutputFormat.getPageSize(conf);
+	this.enableDictionary = ParquetOutputFormat.getEnableDictionary(conf);
+	this.maxOpenWriters = Math.max(1, conf.getInt(MAX_OPEN_WRITERS_KEY, 16));
+
+	// Every open writer may buffer a full row group
+	long memoryBudget = conf.getLong(MEMORY_BUDGET_KEY, 256L * 1024 * 1024);
+	long share = Math.min(ParquetOutputFormat.getBlockSize(conf), memoryBudget / this.maxOpenWriters);
+	this.rowGroupSize = (int) Math.max(MIN_ROW_GROUP_SIZE, share);
+
+	// Access ordered, the eldest entry is the least recently used writer
+	this.writers = new LinkedHashMap<String, PartitionWriter>(this.maxOpenWriters * 2, 0.75f, true);
+    }
+
+    public void write(String partition, GenericRecord record) throws IOException {
+	PartitionWriter partitionWriter = this.writers.get(partition);
+
+	if(partitionWriter == null) {
+	    if(this.writers.size() >= this.maxOpenWriters) {
+		this.closeWriter(this.writers.keySet().iterator().next());
+	    }
+
+	    partitionWriter = this.openWriter(partition);
+	}
+
+	// Row groups are flushed by the writer itself once its buffered size reaches the row group size
+	partitionWriter.writer.write(record);
+	partitionWriter.records++;
+	this.recordsWritten++;
+    }
+
+    public long getRecordsWritten() {
+	return this.recordsWritten;
+    }
+
+    public long getFilesWritten() {
+	return this.filesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+	IOException failure = null;
+
+	while(!this.writers.isEmpty()) {
+	    try {
+		this.closeWriter(this.writers.keySet().iterator().next());
+	    }
+	    catch(IOException ioe) {
+		failure = ioe;
+	    }
+	}
+
+	if(failure != null) { throw failure; }
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* WRITER HELPERS                                                                                    */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private static class PartitionWriter {
+	ParquetWriter<GenericRecord> writer;
+	long records = 0L;
+    }
+
+    private PartitionWriter openWriter(String partition) throws IOException {
+	Integer sequence = this.sequences.get(partition);
+	int next = (sequence == null) ? 0 : sequence.intValue() + 1;
+	this.sequences.put(partition, next);
+
+	String name = this.fileName + ((next == 0) ? "" : "-" + next) + this.compression.getExtension() + ".parquet";
+	Path file = new Path(new Path(this.basePath, partition), name);
+
+	PartitionWriter partitionWriter = new PartitionWriter();
+	partitionWriter.writer = AvroParquetWriter.<GenericRecord>builder(file)
+	    .withSchema(this.schema)
+	    .withConf(this.conf)
+	    .withCompressionCodec(this.compression)
+	    .withRowGroupSize(this.rowGroupSize)
+	    .withPageSize(this.pageSize)
+	    .withDictionaryEncoding(this.enableDictionary)
+	    .build();
+	this.writers.put(partition, partitionWriter);
+	this.filesWritten++;
+
+	return partitionWriter;
+    }
+
+    private void closeWriter(String partition) throws IOException {
+	PartitionWriter partitionWriter = this.writers.remove(partition);
+	partitionWriter.writer.close();
+    }
+}
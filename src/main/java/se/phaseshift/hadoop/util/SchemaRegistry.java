@@ -0,0 +1,128 @@
+package se.phaseshift.hadoop.util;
+
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Registry of the schemas of a job, referenced by name and fingerprint instead of carried as
+ * text in the job Configuration.
+ *
+ * The driver registers the schema text under a name: the registry implementation stores it and
+ * makes it available to the tasks, the Configuration only gets the 64 bit fingerprint (CRC-64-AVRO
+ * of the text) of the name. Schemas are content addressed, a changed schema is a new version
+ * with a new fingerprint. Tasks look the text up by fingerprint and compile it once per JVM: texts
+ * and compiled forms are memoized in static caches, which outlive a task when the JVM is reused.
+ *
+ * The implementation is chosen with CLASS_KEY, DistributedCacheSchemaRegistry by default.
+ */
+public abstract class SchemaRegistry extends Configured {
+    public static final String CLASS_KEY = "phaseshift.schema.registry.class";
+    public static final String NAME_PREFIX = "phaseshift.schema.fingerprint.";
+
+    /* Turns a schema text into its compiled form, which must be safe to share between threads */
+    public static interface Compiler<T> {
+	public T compile(String text) throws Exception;
+    }
+
+    public static final Compiler<Schema> AVRO = new Compiler<Schema>() {
+	    @Override
+	    public Schema compile(String text) {
+		return new Schema.Parser().parse(text);
+	    }
+	};
+
+    private static final ConcurrentMap<Long, String> TEXTS = new ConcurrentHashMap<Long, String>();
+    private static final ConcurrentMap<String, Object> COMPILED = new ConcurrentHashMap<String, Object>();
+
+    /* Stores the schema text and makes it available to the tasks of the job (driver side) */
+    protected abstract void publish(Job job, long fingerprint, String text) throws IOException;
+
+    /* Text of a published schema (task side) */
+    protected abstract String fetch(long fingerprint) throws IOException;
+
+    public static SchemaRegistry get(Configuration conf) {
+	Class<? extends SchemaRegistry> registryClass = conf.getClass(CLASS_KEY, DistributedCacheSchemaRegistry.class, SchemaRegistry.class);
+	return ReflectionUtils.newInstance(registryClass, conf);
+    }
+
+    public static long fingerprint(String text) {
+	return SchemaNormalization.fingerprint64(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /* Registers the schema text of the job under the name, returns its fingerprint */
+    public static long register(Job job, String name, String text) throws IOException {
+	long fingerprint = fingerprint(text);
+
+	get(job.getConfiguration()).publish(job, fingerprint, text);
+	job.getConfiguration().set(NAME_PREFIX + name, Long.toHexString(fingerprint));
+	TEXTS.putIfAbsent(fingerprint, text);
+
+	return fingerprint;
+    }
+
+    public static boolean contains(Configuration conf, String name) {
+	return conf.get(NAME_PREFIX + name) != null;
+    }
+
+    public static long getFingerprint(Configuration conf, String name) {
+	String fingerprint = conf.get(NAME_PREFIX + name);
+	if(fingerprint == null) { throw new IllegalStateException("No schema registered as " + name); }
+
+	return Long.parseLong(fingerprint, 16);
+    }
+
+    public static String getText(Configuration conf, String name) throws IOException {
+	long fingerprint = getFingerprint(conf, name);
+	String text = TEXTS.get(fingerprint);
+
+	if(text == null) {
+	    text = get(conf).fetch(fingerprint);
+	    if(fingerprint(text) != fingerprint) {
+		throw new IOException("Schema " + name + " does not match its fingerprint " + Long.toHexString(fingerprint));
+	    }
+	    TEXTS.putIfAbsent(fingerprint, text);
+	}
+
+	return text;
+    }
+
+    /* Compiled form of the named schema, compiled once per JVM and compiler */
+    @SuppressWarnings("unchecked")
+    public static <T> T getCompiled(Configuration conf, String name, Compiler<T> compiler) throws IOException {
+	String key = compiler.getClass().getName() + "@" + Long.toHexString(getFingerprint(conf, name));
+	Object compiled = COMPILED.get(key);
+
+	if(compiled == null) {
+	    try {
+		compiled = compiler.compile(getText(conf, name));
+	    }
+	    catch(IOException ioe) {
+		throw ioe;
+	    }
+	    catch(Exception e) {
+		throw new IOException("Schema " + name + " does not compile", e);
+	    }
+
+	    Object raced = COMPILED.putIfAbsent(key, compiled);
+	    if(raced != null) { compiled = raced; }
+	}
+
+	return (T) compiled;
+    }
+
+    public static Schema getAvroSchema(Configuration conf, String name) throws IOException {
+	return getCompiled(conf, name, AVRO);
+    }
+}
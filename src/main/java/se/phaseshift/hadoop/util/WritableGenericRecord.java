@@ -8,6 +8,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.rmi.server.UID;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileStream;
 import org.apache.avro.generic.GenericData;
@@ -21,6 +24,9 @@ import org.apache.avro.io.EncoderFactory;
 import org.apache.hadoop.io.Writable;
 
 public class WritableGenericRecord implements Writable {
+    // Every record carries its schema text, parsed once per JVM
+    private static final ConcurrentMap<String, Schema> SCHEMAS = new ConcurrentHashMap<String, Schema>();
+
     private BinaryEncoder binaryEncoder;
     private BinaryDecoder binaryDecoder;
 
@@ -56,8 +62,12 @@ public class WritableGenericRecord implements Writable {
     @Override
     public void readFields(DataInput in) throws IOException {
 	// Read schema
-	Schema.Parser parser = new Schema.Parser();
-	Schema schema = parser.parse(in.readUTF());
+	String schemaString = in.readUTF();
+	Schema schema = SCHEMAS.get(schemaString);
+	if(schema == null) {
+	    schema = new Schema.Parser().parse(schemaString);
+	    SCHEMAS.putIfAbsent(schemaString, schema);
+	}
 
 	// Read data
 	GenericDatumReader<GenericRecord> gdr = new GenericDatumReader<GenericRecord>(schema);
@@ -0,0 +1,164 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// JSON parser
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// JSON Schema validator
+import com.github.fge.jsonschema.report.ProcessingMessage;
+
+/**
+ * The compiled validator must give the verdicts of the fge reference validator: the same
+ * accept/reject of every line of the error sample, and the same keywords, hence the same
+ * counters, for the rejected ones.
+ */
+public class JsonlDailyCompiledValidatorTest {
+    private static final File SCHEMA_FILE = new File("schemas/ghcnd-daily.jsons");
+    private static final File SAMPLE_FILE = new File("samples/ghcnd-daily-error.jsonl");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private JsonlDailyFgeValidator fge = null;
+    private JsonlDailyCompiledValidator compiled = null;
+
+    @Before
+    public void setUp() throws Exception {
+	JsonNode schemaNode = this.objectMapper.readTree(SCHEMA_FILE);
+
+	this.fge = new JsonlDailyFgeValidator(schemaNode);
+	this.compiled = new JsonlDailyCompiledValidator(schemaNode);
+    }
+
+    @Test
+    public void sampleLinesHaveTheSameVerdicts() throws Exception {
+	int rejected = 0;
+	int lineNumber = 0;
+
+	for(String line : Files.readAllLines(SAMPLE_FILE.toPath(), StandardCharsets.UTF_8)) {
+	    lineNumber++;
+
+	    // Lines that are not JSON never reach the validators
+	    JsonNode instance = this.parse(line);
+	    if(instance == null) { continue; }
+
+	    List<String> fgeKeywords = keywords(this.fge, instance);
+	    assertEquals("Line " + lineNumber + ": " + line, fgeKeywords, keywords(this.compiled, instance));
+	    assertEquals("Line " + lineNumber + ": " + line, counters(fgeKeywords), counters(keywords(this.compiled, instance)));
+
+	    if(fgeKeywords != null) { rejected++; }
+	}
+
+	// The sample holds type, required, pattern, minimum and maximum violations
+	assertTrue("Too few rejected lines: " + rejected, rejected >= 8);
+    }
+
+    @Test
+    public void fastFailHasTheSameVerdicts() throws Exception {
+	this.fge.setFastFail(true);
+	this.compiled.setFastFail(true);
+
+	for(String line : Files.readAllLines(SAMPLE_FILE.toPath(), StandardCharsets.UTF_8)) {
+	    JsonNode instance = this.parse(line);
+	    if(instance == null) { continue; }
+
+	    String fgeKeyword = keyword(this.fge, instance);
+	    String compiledKeyword = keyword(this.compiled, instance);
+	    assertEquals(line, fgeKeyword == null, compiledKeyword == null);
+
+	    // Only the first violation is reported, which may differ between engines on lines with several
+	    if(compiledKeyword != null) {
+		this.fge.setFastFail(false);
+		assertTrue(line, keywords(this.fge, instance).contains(compiledKeyword));
+		this.fge.setFastFail(true);
+	    }
+	}
+    }
+
+    @Test
+    public void patternIsNotAnchored() throws Exception {
+	// "PM00033049" matches, the pattern of the JSON schema is searched for, not matched
+	String line = "{\"id\": \"UPM00033049\", \"year\": 1959, \"month\": 1, \"day\": 9, \"value\": -1.8}";
+	JsonNode instance = this.parse(line);
+
+	assertNull(keywords(this.fge, instance));
+	assertNull(keywords(this.compiled, instance));
+    }
+
+    @Test
+    public void patternMismatchIsAValueError() throws Exception {
+	String line = "{\"id\": \"USW0W014950\", \"year\": 2005, \"month\": 6, \"day\": 16, \"value\": 19.4}";
+	JsonNode instance = this.parse(line);
+
+	assertEquals(Collections.singletonList("pattern"), keywords(this.fge, instance));
+	assertEquals(Collections.singletonList("pattern"), keywords(this.compiled, instance));
+	assertEquals(Collections.singletonList(JsonlDailyETL.COUNTERS.VALUE_ERROR), counters(keywords(this.compiled, instance)));
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* TEST HELPERS                                                                                      */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private JsonNode parse(String line) {
+	try {
+	    return this.objectMapper.readTree(line);
+	}
+	catch(IOException e) {
+	    return null;
+	}
+    }
+
+    /* Sorted keywords of all violations, null if the instance is valid */
+    private static List<String> keywords(JsonlDailyValidator validator, JsonNode instance) {
+	try {
+	    validator.validate(instance);
+	    return null;
+	}
+	catch(JsonlDailyValidationException e) {
+	    List<String> keywords = new ArrayList<String>();
+	    for(ProcessingMessage pm : e) {
+		JsonNode keywordNode = pm.asJson().get("keyword");
+		keywords.add((keywordNode != null) ? keywordNode.asText() : "");
+	    }
+
+	    Collections.sort(keywords);
+	    return keywords;
+	}
+    }
+
+    /* Keyword of the first violation, null if the instance is valid */
+    private static String keyword(JsonlDailyValidator validator, JsonNode instance) {
+	try {
+	    validator.validate(instance);
+	    return null;
+	}
+	catch(JsonlDailyValidationException e) {
+	    return e.getKeyword();
+	}
+    }
+
+    private static List<JsonlDailyETL.COUNTERS> counters(List<String> keywords) {
+	if(keywords == null) { return null; }
+
+	List<JsonlDailyETL.COUNTERS> counters = new ArrayList<JsonlDailyETL.COUNTERS>();
+	for(String keyword : keywords) { counters.add(JsonlDailyConverter.classify(keyword)); }
+
+	return counters;
+    }
+}
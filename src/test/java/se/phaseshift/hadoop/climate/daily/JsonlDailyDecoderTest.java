@@ -0,0 +1,83 @@
+package se.phaseshift.hadoop.climate.daily;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+// JSON parser
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import se.phaseshift.hadoop.util.ByteCharSequence;
+
+/**
+ * The decoder must give the bytes the tree parser path writes: the UTF-8 encoding of the String
+ * Jackson returns, for every escape, paired or unpaired surrogates included.
+ */
+public class JsonlDailyDecoderTest {
+    private static final String[] ESCAPED_IDS = {
+	"USW00014950",
+	"\\u0041\\u00e9\\u20ac",
+	"\\\"\\\\\\/\\b\\f\\n\\r\\t",
+	"\\\\u0041",
+	// Pair, as one four byte sequence
+	"US\\ud83d\\ude00W",
+	"\\uD83D\\uDE00",
+	// Lone high surrogate: at the end, before a character, before a non surrogate escape, before a pair
+	"US\\ud83d",
+	"US\\ud83dW",
+	"US\\ud83d\\u0041",
+	"US\\ud83d\\ud83d\\ude00",
+	// Lone low surrogate, and a low surrogate before a high one
+	"\\ude00US",
+	"\\ude00\\ud83d"
+    };
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonlDailyDecoder decoder = new JsonlDailyDecoder();
+    private final JsonlDailyObservation observation = new JsonlDailyObservation();
+
+    @Test
+    public void escapesDecodeLikeTheTree() throws Exception {
+	for(String escapedId : ESCAPED_IDS) {
+	    String line = "{\"id\": \"" + escapedId + "\", \"year\": 2005, \"month\": 6, \"day\": 16, \"value\": 19.4}";
+
+	    assertArrayEquals(line, treeId(line), this.decodedId(line));
+	}
+    }
+
+    @Test
+    public void pairIsOneCodePoint() throws Exception {
+	byte[] id = this.decodedId("{\"id\": \"\\ud83d\\ude00\"}");
+
+	assertEquals("\ud83d\ude00", new String(id, StandardCharsets.UTF_8));
+	assertEquals(4, id.length);
+    }
+
+    @Test
+    public void loneSurrogateIsReplaced() throws Exception {
+	assertEquals("US?W", new String(this.decodedId("{\"id\": \"US\\ud83dW\"}"), StandardCharsets.UTF_8));
+	assertEquals("US?W", this.observation.getText(JsonlDailyObservation.ID).toString());
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* TEST HELPERS                                                                                      */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    /* Bytes of the id as the tree path writes them, its String encoded as UTF-8 */
+    private byte[] treeId(String line) throws Exception {
+	return this.objectMapper.readTree(line).get("id").textValue().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] decodedId(String line) throws Exception {
+	byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+	this.decoder.decode(bytes, 0, bytes.length, this.observation);
+
+	ByteCharSequence id = this.observation.getTextBytes(JsonlDailyObservation.ID);
+	return Arrays.copyOfRange(id.getBytes(), id.getOffset(), id.getOffset() + id.length());
+    }
+}
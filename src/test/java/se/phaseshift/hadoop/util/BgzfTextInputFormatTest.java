@@ -0,0 +1,221 @@
+package se.phaseshift.hadoop.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+/**
+ * A bgzip file with its .gzi sidecar, given as an input directory, must be read as several
+ * member aligned splits with every line read exactly once, and the sidecar must not be input.
+ */
+public class BgzfTextInputFormatTest {
+    private static final int LINES = 3000;
+    private static final int MEMBER_SIZE = 4000;
+    private static final long MAX_SPLIT_SIZE = 8192L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Configuration conf = null;
+    private FileSystem fs = null;
+    private Path inputDir = null;
+    private List<String> lines = null;
+
+    @Before
+    public void setUp() throws Exception {
+	this.conf = new Configuration();
+	this.fs = FileSystem.getLocal(this.conf);
+	this.inputDir = new Path(this.folder.getRoot().getAbsolutePath());
+	this.lines = new ArrayList<String>();
+
+	Random random = new Random(42L);
+	StringBuilder text = new StringBuilder();
+	for(int index = 0; index < LINES; index++) {
+	    String line = String.format("line-%05d-%016x%016x", index, random.nextLong(), random.nextLong());
+	    this.lines.add(line);
+	    text.append(line).append('\n');
+	}
+
+	Path file = new Path(this.inputDir, "daily.jsonl.gz");
+	writeBgzf(text.toString().getBytes(StandardCharsets.UTF_8), file, file.suffix(BgzfBlockIndex.INDEX_SUFFIX));
+    }
+
+    @Test
+    public void everyLineIsReadOnce() throws Exception {
+	Job job = Job.getInstance(this.conf);
+	FileInputFormat.setInputPaths(job, this.inputDir);
+	FileInputFormat.setMaxInputSplitSize(job, MAX_SPLIT_SIZE);
+
+	BgzfTextInputFormat inputFormat = new BgzfTextInputFormat();
+	List<InputSplit> splits = inputFormat.getSplits(job);
+	assertTrue("Too few splits: " + splits.size(), splits.size() > 2);
+
+	Map<String, Integer> counts = new HashMap<String, Integer>();
+	for(InputSplit split : splits) {
+	    assertTrue(split.toString(), split instanceof BgzfTextInputFormat.BgzfSplit);
+	    assertTrue(split.toString(), !BgzfBlockIndex.isIndex(((FileSplit) split).getPath()));
+
+	    for(String line : read(inputFormat, split, job.getConfiguration())) {
+		Integer count = counts.get(line);
+		counts.put(line, (count == null) ? 1 : count + 1);
+	    }
+	}
+
+	assertEquals(this.lines.size(), counts.size());
+	for(String line : this.lines) {
+	    assertEquals(line, Integer.valueOf(1), counts.get(line));
+	}
+    }
+
+    @Test
+    public void splitsStartAtMembers() throws Exception {
+	Job job = Job.getInstance(this.conf);
+	FileInputFormat.setInputPaths(job, this.inputDir);
+	FileInputFormat.setMaxInputSplitSize(job, MAX_SPLIT_SIZE);
+
+	Path file = new Path(this.inputDir, "daily.jsonl.gz");
+	long[] blockStarts = BgzfBlockIndex.read(this.fs, file.suffix(BgzfBlockIndex.INDEX_SUFFIX)).getBlockStarts();
+	long end = 0L;
+
+	for(InputSplit split : new BgzfTextInputFormat().getSplits(job)) {
+	    FileSplit fileSplit = (FileSplit) split;
+	    assertEquals(end, fileSplit.getStart());
+	    assertTrue(fileSplit.toString(), Arrays.binarySearch(blockStarts, fileSplit.getStart()) >= 0);
+	    end = fileSplit.getStart() + fileSplit.getLength();
+	}
+
+	assertEquals(this.fs.getFileStatus(file).getLen(), end);
+    }
+
+    /*---------------------------------------------------------------------------------------------------*/
+    /* TEST HELPERS                                                                                      */
+    /*---------------------------------------------------------------------------------------------------*/
+
+    private static List<String> read(BgzfTextInputFormat inputFormat, InputSplit split, Configuration conf) throws Exception {
+	TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+	RecordReader<LongWritable, Text> reader = inputFormat.createRecordReader(split, context);
+	List<String> lines = new ArrayList<String>();
+
+	try {
+	    reader.initialize(split, context);
+	    while(reader.nextKeyValue()) {
+		lines.add(reader.getCurrentValue().toString());
+	    }
+	}
+	finally {
+	    reader.close();
+	}
+
+	return lines;
+    }
+
+    /* Writes the text as bgzip does, every other member ends within a line, and the index as bgzip -i */
+    private void writeBgzf(byte[] text, Path file, Path indexPath) throws IOException {
+	List<long[]> entries = new ArrayList<long[]>();
+	OutputStream out = this.fs.create(file, true);
+	long compressedOffset = 0L;
+	int start = 0;
+
+	try {
+	    while(start < text.length) {
+		int end = Math.min(start + MEMBER_SIZE, text.length);
+		if(entries.size() % 2 == 0) {
+		    while(end < text.length && text[end - 1] != '\n') { end++; }
+		}
+
+		if(start > 0) { entries.add(new long[] { compressedOffset, start }); }
+		compressedOffset += writeMember(out, text, start, end - start);
+		start = end;
+	    }
+
+	    // bgzip ends the file with an empty member
+	    writeMember(out, text, 0, 0);
+	}
+	finally {
+	    out.close();
+	}
+
+	DataOutputStream indexOut = this.fs.create(indexPath, true);
+	try {
+	    indexOut.writeLong(Long.reverseBytes(entries.size()));
+	    for(long[] entry : entries) {
+		indexOut.writeLong(Long.reverseBytes(entry[0]));
+		indexOut.writeLong(Long.reverseBytes(entry[1]));
+	    }
+	}
+	finally {
+	    indexOut.close();
+	}
+    }
+
+    /* Gzip member with the BC extra subfield holding the member size - 1 */
+    private static int writeMember(OutputStream out, byte[] text, int offset, int length) throws IOException {
+	Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+	byte[] buffer = new byte[8192];
+
+	deflater.setInput(text, offset, length);
+	deflater.finish();
+	while(!deflater.finished()) {
+	    deflated.write(buffer, 0, deflater.deflate(buffer));
+	}
+	deflater.end();
+
+	CRC32 crc = new CRC32();
+	crc.update(text, offset, length);
+
+	int memberSize = 18 + deflated.size() + 8;
+	byte[] header = new byte[] {
+	    31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0,
+	    'B', 'C', 2, 0, (byte) ((memberSize - 1) & 0xff), (byte) ((memberSize - 1) >>> 8)
+	};
+
+	out.write(header);
+	deflated.writeTo(out);
+	writeLittleEndianInt(out, (int) crc.getValue());
+	writeLittleEndianInt(out, length);
+
+	return memberSize;
+    }
+
+    private static void writeLittleEndianInt(OutputStream out, int value) throws IOException {
+	out.write(value & 0xff);
+	out.write((value >>> 8) & 0xff);
+	out.write((value >>> 16) & 0xff);
+	out.write((value >>> 24) & 0xff);
+    }
+}